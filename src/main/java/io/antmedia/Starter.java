@@ -1,13 +1,35 @@
 package io.antmedia;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.webrtc.RTCStatsReport;
 
 import io.antmedia.webrtctest.IWebRTCEventListerner;
-import io.antmedia.webrtctest.FileReader;
+import io.antmedia.webrtctest.BitrateMeter;
+import io.antmedia.webrtctest.Playlist;
+import io.antmedia.webrtctest.FramePacer;
+import io.antmedia.webrtctest.HandshakeStats;
+import io.antmedia.webrtctest.KeepAliveScheduler;
+import io.antmedia.webrtctest.LoopbackServer;
 import io.antmedia.webrtctest.Mode;
+import io.antmedia.webrtctest.PeerConnectionFactoryPool;
+import io.antmedia.webrtctest.RampController;
+import io.antmedia.webrtctest.RecoveryMeter;
+import io.antmedia.webrtctest.ResourceTracker;
+import io.antmedia.webrtctest.RetryPolicy;
 import io.antmedia.webrtctest.Settings;
+import io.antmedia.webrtctest.SignallingStats;
+import io.antmedia.webrtctest.SignallingSessionPool;
+import io.antmedia.webrtctest.StartPhase;
 import io.antmedia.webrtctest.StatManager;
+import io.antmedia.webrtctest.SourceCache;
 import io.antmedia.webrtctest.WebRTCClientEmulator;
 import io.antmedia.webrtctest.WebRTCManager;
 import io.antmedia.webrtctest.WebRTCPlayer;
@@ -17,39 +39,103 @@ public class Starter implements IWebRTCEventListerner
 {
 
 	private ArrayList<WebRTCManager> managers = new ArrayList<>();
-	private FileReader reader;
+	private SourceCache sourceCache;
+	private PeerConnectionFactoryPool factoryPool;
+	private FramePacer framePacer;
+	private BitrateMeter bitrateMeter;
+	private SignallingSessionPool signallingPool;
+	private KeepAliveScheduler keepAliveScheduler;
+	private RampController rampController;
+	private LoopbackServer loopbackServer;
 	
 	StatManager statManager;
     Settings settings = new Settings();
     
     private IWebRTCEventListerner listener;
-	
-	protected int startingIndex = 0;
 
 	public Starter(String[] args) {
 		System.out.println("~~~~~~~~ Start ("+hashCode()+") ~~~~~~~~");
 		settings.parse(args);
-		statManager = new StatManager(settings.kafkaBrokers);
-		if(settings.mode == Mode.PUBLISHER || settings.mode == Mode.PARTICIPANT) {
-			reader = new FileReader(settings);
-			if(reader.init()) {
-				reader.start();
-			}
-			else {
+		if (settings.loopbackPort > 0) {
+			try {
+				loopbackServer = LoopbackServer.acquire(settings);
+			} catch (Exception e) {
+				System.err.println("Cannot start loopback server: " + e.getMessage());
 				System.exit(1);
 			}
+			settings.useLoopbackServer();
+		}
+		//resources that are still live at exit are reported for soak runs
+		ResourceTracker.installShutdownHook();
+		statManager = new StatManager(settings.kafkaBrokers);
+		Playlist playlist = null;
+		if(settings.isPublishing()) {
+			sourceCache = new SourceCache(settings);
+			if (settings.playlist != null) {
+				try {
+					playlist = Playlist.load(settings.playlist);
+				} catch (IOException e) {
+					System.err.println("Cannot load playlist: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+			framePacer = new FramePacer(settings.pacerThreads);
+			statManager.setFramePacer(framePacer);
+			bitrateMeter = new BitrateMeter();
+			statManager.setBitrateMeter(bitrateMeter);
+		}
+		
+		if (settings.peerConnectionFactoryPoolSize > 0) {
+			factoryPool = new PeerConnectionFactoryPool(settings);
+		}
+
+		keepAliveScheduler = new KeepAliveScheduler();
+		statManager.setKeepAliveScheduler(keepAliveScheduler);
+		
+		RetryPolicy retryPolicy = new RetryPolicy(settings);
+		statManager.setRetryPolicy(retryPolicy);
+		
+		HandshakeStats handshakeStats = new HandshakeStats();
+		statManager.setHandshakeStats(handshakeStats);
+		
+		SignallingStats signallingStats = new SignallingStats();
+		statManager.setSignallingStats(signallingStats);
+		
+		RecoveryMeter recoveryMeter = null;
+		if (settings.recovery) {
+			recoveryMeter = new RecoveryMeter();
+			statManager.setRecoveryMeter(recoveryMeter);
+		}
+		
+		if (settings.signallingSessions > 0) {
+			signallingPool = new SignallingSessionPool(settings, settings.signallingSessions, keepAliveScheduler);
 		}
 
+		Random random = new Random();
 		for (int i = 0; i < settings.load; i++) 
 		{
 			String suffix = settings.mode == Mode.PUBLISHER && settings.load > 1 ? "-"+i : ""; 
 			
-			WebRTCManager webRTCManager = new WebRTCManager(settings.streamId+suffix, settings);
-
+			Settings clientSettings = settings;
 			WebRTCClientEmulator webRTCClient = null;
-			if(settings.mode == Mode.PUBLISHER || settings.mode == Mode.PARTICIPANT) 
+			if(settings.isPublishing()) 
 			{
-				webRTCClient = new WebRTCPublisher(reader, settings.loop);
+				//each distinct source is demuxed once and shared by its publishers
+				SourceCache.Entry source = sourceCache.acquire(playlist != null ? playlist.next() : settings.streamSource);
+				if (source == null) {
+					System.exit(1);
+				}
+				clientSettings = source.getSettings();
+				WebRTCPublisher publisher = new WebRTCPublisher(source.getSource(), settings.loop, framePacer, settings.pacingMode);
+				publisher.setSourceCache(sourceCache);
+				publisher.setBitrateMeter(bitrateMeter);
+				if (settings.startPhase == StartPhase.SPREAD) {
+					publisher.setStartPhase((double) i / settings.load);
+				}
+				else if (settings.startPhase == StartPhase.RANDOM) {
+					publisher.setStartPhase(random.nextDouble());
+				}
+				webRTCClient = publisher;
 			}
 			else if(settings.mode == Mode.PLAYER)
 			{
@@ -61,23 +147,39 @@ public class Starter implements IWebRTCEventListerner
 				throw new IllegalArgumentException("Illegal mode not publisher or player");
 			}
 			
+			WebRTCManager webRTCManager;
+			if (signallingPool != null) {
+				webRTCManager = new WebRTCManager(settings.streamId+suffix, clientSettings, signallingPool.nextEndpoint(settings.streamId+suffix));
+			}
+			else {
+				webRTCManager = new WebRTCManager(settings.streamId+suffix, clientSettings);
+			}
+			
 			webRTCClient.setManager(webRTCManager);
 			webRTCManager.setStreamManager(webRTCClient);
 			
 
 			webRTCManager.setListener(this);
+			webRTCManager.setFactoryPool(factoryPool);
+			webRTCManager.setKeepAliveScheduler(keepAliveScheduler);
+			webRTCManager.setRetryPolicy(retryPolicy);
+			webRTCManager.setRecoveryMeter(recoveryMeter);
+			webRTCManager.setHandshakeStats(handshakeStats);
+			webRTCManager.setSignallingStats(signallingStats);
 
 			getManagers().add(webRTCManager);
 		}
 		
 		
+		rampController = new RampController(getManagers(), settings.rampWindow, settings.arrivalModel);
+		rampController.setStatManager(statManager);
+		
 		statManager.start();
 
 	}
 
 	public void start() {
-		getManagers().get(startingIndex).start();
-		startingIndex++;		
+		rampController.start();
 	}
 
 
@@ -89,12 +191,97 @@ public class Starter implements IWebRTCEventListerner
 		System.out.println("Leaving main method");
 	}
 
+	/**
+	 * Starts the clients with the ramp
+	 * @return future that is completed when all clients are connected. It's completed exceptionally if one of them
+	 * is stopped before it's connected or if they're not connected in time
+	 */
+	public CompletableFuture<Void> connectAsync(long timeoutMs) {
+		CompletableFuture<?>[] futures = getManagers().stream().map(WebRTCManager::getConnectFuture).toArray(CompletableFuture[]::new);
+		start();
+		return CompletableFuture.allOf(futures).orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the clients and the shared resources
+	 * @return future that is completed after all clients release their peer connections
+	 */
+	public CompletableFuture<Void> stopAsync(long timeoutMs) {
+		CompletableFuture<?>[] futures = getManagers().stream().map(manager -> manager.stopAsync(timeoutMs)).toArray(CompletableFuture[]::new);
+		stop();
+		return CompletableFuture.allOf(futures);
+	}
+	
+	/**
+	 * @return future of the track ids of each client in the order of the clients
+	 */
+	public CompletableFuture<List<List<String>>> getTracksAsync(long timeoutMs) {
+		return collect(manager -> manager.getTracksAsync(timeoutMs));
+	}
+	
+	/**
+	 * @return future of the stats report of each client in the order of the clients
+	 */
+	public CompletableFuture<List<RTCStatsReport>> getStatsAsync(long timeoutMs) {
+		return collect(manager -> manager.getStatsAsync(timeoutMs));
+	}
+	
+	/**
+	 * Sends the message on the data channel of the first client like {@link #sendDataChannelMessage(String)}
+	 */
+	public CompletableFuture<Boolean> sendDataAsync(String message, long timeoutMs) {
+		return getManagers().get(0).sendDataAsync(message, timeoutMs);
+	}
+	
+	/**
+	 * Runs the request on all clients concurrently without waiting for any of them
+	 */
+	private <T> CompletableFuture<List<T>> collect(Function<WebRTCManager, CompletableFuture<T>> request) {
+		List<CompletableFuture<T>> futures = new ArrayList<>();
+		for (WebRTCManager webRTCManager : getManagers()) {
+			futures.add(request.apply(webRTCManager));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(done -> {
+			List<T> results = new ArrayList<>(futures.size());
+			for (CompletableFuture<T> future : futures) {
+				results.add(future.join());
+			}
+			return results;
+		});
+	}
+
 	public void stop() {
+		rampController.stop();
 		statManager.stop();
 		for (WebRTCManager webRTCManager : getManagers()) {
 			webRTCManager.stop();
 		}
 		getManagers().clear();
+		if (signallingPool != null) {
+			signallingPool.close();
+			signallingPool = null;
+		}
+		if (loopbackServer != null) {
+			LoopbackServer.release(loopbackServer);
+			loopbackServer = null;
+		}
+		if (keepAliveScheduler != null) {
+			keepAliveScheduler.stop();
+			keepAliveScheduler = null;
+		}
+		if (sourceCache != null) {
+			sourceCache.close();
+		}
+		if (framePacer != null) {
+			framePacer.stop();
+			framePacer = null;
+		}
+		if (factoryPool != null) {
+			//managers dispose their peer connections in their own threads, 
+			//factories are disposed after the last one releases the pool
+			factoryPool.close();
+			factoryPool = null;
+		}
 		System.out.println("~~~~~~~~ Stop ("+hashCode()+")~~~~~~~~");
 	}
 	
@@ -120,14 +307,11 @@ public class Starter implements IWebRTCEventListerner
 	}
 
 	@Override
-	public void onCompleted() {
+	public void onCompleted(WebRTCManager manager) {
 		System.out.println("on completed");
 		
-		statManager.addStreamManager(getManagers().get(startingIndex-1).getStreamManager());
-
-		if(startingIndex < settings.load) {
-			start();
-		}
+		statManager.addStreamManager(manager.getStreamManager());
+		rampController.onCompleted(manager);
 	}
 	
 	@Override
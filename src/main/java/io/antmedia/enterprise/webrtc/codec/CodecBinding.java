@@ -0,0 +1,110 @@
+package io.antmedia.enterprise.webrtc.codec;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.webrtc.VideoCodecInfo;
+
+/**
+ * Binds the encoders and decoders that a shared factory creates to the peer connection that they're created for.
+ *
+ * libwebrtc does not tell the factory which connection a codec is for, but it passes the fmtp parameters of the
+ * negotiated codec. Each connection gets a unique key and its descriptions are tagged with the key as an fmtp
+ * parameter before they're set, so the factory finds the claim of the connection with the key of the codec.
+ * Descriptions that are sent to the other side are not tagged.
+ */
+public class CodecBinding {
+
+	public static final String KEY_PARAMETER = "x-binding";
+
+	private static final AtomicLong nextKey = new AtomicLong();
+
+	private static final Pattern TAG = Pattern.compile("(;" + KEY_PARAMETER + "=\\d+)|(\r?\na=fmtp:\\d+ " + KEY_PARAMETER + "=\\d+)");
+
+	private static final Set<String> VIDEO_CODECS = Set.of("H264", "VP8", "H265");
+
+	private CodecBinding() {
+		//utility class
+	}
+
+	/**
+	 * @return a key that is unique in the process
+	 */
+	public static String newKey() {
+		return Long.toString(nextKey.incrementAndGet());
+	}
+
+	/**
+	 * @return the binding key of the codec or null if it's not tagged
+	 */
+	public static String getKey(VideoCodecInfo info) {
+		return info.params != null ? info.params.get(KEY_PARAMETER) : null;
+	}
+
+	/**
+	 * Adds the key to the fmtp of each video codec in the description. Codecs without fmtp get an fmtp line
+	 */
+	public static String tag(String sdp, String key) {
+		String[] lines = sdp.split("\r\n", -1);
+		List<String> tagged = new ArrayList<>(lines.length + 4);
+		//payload type of a video codec in the current section and the index of its rtpmap line
+		Map<String, Integer> rtpmaps = new LinkedHashMap<>();
+		Set<String> withFmtp = new HashSet<>();
+		boolean video = false;
+
+		for (String line : lines) {
+			if (line.startsWith("m=")) {
+				addMissingFmtp(tagged, rtpmaps, withFmtp, key);
+				video = line.startsWith("m=video");
+			}
+			else if (video && line.startsWith("a=rtpmap:")) {
+				int space = line.indexOf(' ');
+				int slash = line.indexOf('/', space);
+				if (space > 0 && slash > space
+						&& VIDEO_CODECS.contains(line.substring(space + 1, slash).toUpperCase(Locale.ENGLISH))) {
+					rtpmaps.put(line.substring("a=rtpmap:".length(), space), tagged.size());
+				}
+			}
+			else if (video && line.startsWith("a=fmtp:")) {
+				int space = line.indexOf(' ');
+				String payloadType = space > 0 ? line.substring("a=fmtp:".length(), space) : "";
+				if (rtpmaps.containsKey(payloadType)) {
+					withFmtp.add(payloadType);
+					line = line + ";" + KEY_PARAMETER + "=" + key;
+				}
+			}
+			tagged.add(line);
+		}
+		addMissingFmtp(tagged, rtpmaps, withFmtp, key);
+		return String.join("\r\n", tagged);
+	}
+
+	/**
+	 * Adds fmtp lines after the rtpmap lines of the codecs that don't have one in the section and starts a new section
+	 */
+	private static void addMissingFmtp(List<String> tagged, Map<String, Integer> rtpmaps, Set<String> withFmtp, String key) {
+		int inserted = 0;
+		for (Map.Entry<String, Integer> rtpmap : rtpmaps.entrySet()) {
+			if (!withFmtp.contains(rtpmap.getKey())) {
+				tagged.add(rtpmap.getValue() + 1 + inserted, "a=fmtp:" + rtpmap.getKey() + " " + KEY_PARAMETER + "=" + key);
+				inserted++;
+			}
+		}
+		rtpmaps.clear();
+		withFmtp.clear();
+	}
+
+	/**
+	 * @return the description without the binding keys, e.g. to send it to the other side
+	 */
+	public static String strip(String sdp) {
+		return TAG.matcher(sdp).replaceAll("");
+	}
+}
@@ -19,6 +19,11 @@ public class VirtualVideoDecoder implements VideoDecoder {
 		private JavaI420Buffer i420Buffer;
 		private long lastKeyFrameRequestTimeMs = 0;
 		private long firstFrameTimeMs = 0;
+		
+		/**
+		 * Called when the first encoded frame is received
+		 */
+		private volatile Runnable firstFrameCallback;
 		ArrayList<IPacketListener> listeners = new ArrayList<>();
 		
 		/**
@@ -59,6 +64,13 @@ public class VirtualVideoDecoder implements VideoDecoder {
 		@Override
 		public VideoCodecStatus decode(EncodedImage frame, DecodeInfo info) 
 		{
+			if (firstFrameTimeMs == 0) {
+				firstFrameTimeMs = System.currentTimeMillis();
+				Runnable callback = firstFrameCallback;
+				if (callback != null) {
+					callback.run();
+				}
+			}
 			for (IPacketListener listener : listeners) {
 				listener.onEncodedImage(frame);
 			}
@@ -75,6 +87,14 @@ public class VirtualVideoDecoder implements VideoDecoder {
 			return this.getClass().getSimpleName();
 		}
 
+		public void setFirstFrameCallback(Runnable firstFrameCallback) {
+			this.firstFrameCallback = firstFrameCallback;
+		}
+		
+		public long getFirstFrameTimeMs() {
+			return firstFrameTimeMs;
+		}
+
 		public void subscribe(IPacketListener listener) {
 			listeners.add(listener);
 		}
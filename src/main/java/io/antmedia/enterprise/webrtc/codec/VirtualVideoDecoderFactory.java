@@ -3,6 +3,12 @@ package io.antmedia.enterprise.webrtc.codec;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.webrtc.H264Utils;
 import org.webrtc.VideoCodecInfo;
@@ -12,11 +18,29 @@ import org.webrtc.VideoDecoderFactory;
 
 public class VirtualVideoDecoderFactory implements VideoDecoderFactory{
 
+	protected static Logger logger = LoggerFactory.getLogger(VirtualVideoDecoderFactory.class);
+
 	private VirtualVideoDecoder decoder = new VirtualVideoDecoder();
 
 	List<VideoCodecInfo> supportedCodecInfos = new ArrayList<>();
+	
+	/**
+	 * If it's shared, factory is used by more than one peer connection and 
+	 * it creates a new decoder for each connection
+	 */
+	private boolean shared = false;
+	
+	/**
+	 * Connections that use the factory by their binding key, see {@link CodecBinding}
+	 */
+	private Map<String, Consumer<VirtualVideoDecoder>> decoderClaims = new ConcurrentHashMap<>();
 
 	public VirtualVideoDecoderFactory(boolean h264, boolean vp8, boolean h265) {
+		this(h264, vp8, h265, false);
+	}
+	
+	public VirtualVideoDecoderFactory(boolean h264, boolean vp8, boolean h265, boolean shared) {
+		this.shared = shared;
 		if(h264) {
 			supportedCodecInfos.add(new VideoCodecInfo(VideoCodecType.H264.name(), H264Utils.getDefaultH264Params(false)));
 		}
@@ -30,7 +54,20 @@ public class VirtualVideoDecoderFactory implements VideoDecoderFactory{
 	
 	@Override
 	public VideoDecoder createDecoder(VideoCodecInfo info) {
-		return decoder;
+		if (!shared) {
+			return decoder;
+		}
+		
+		String key = CodecBinding.getKey(info);
+		Consumer<VirtualVideoDecoder> claim = key != null ? decoderClaims.get(key) : null;
+		if (claim == null) {
+			//frames of an unbound decoder would not be counted for any stream
+			logger.error("Decoder cannot be created in shared factory: {} because there is no claim for binding key:{}", this.hashCode(), key);
+			return null;
+		}
+		VirtualVideoDecoder virtualDecoder = new VirtualVideoDecoder();
+		claim.accept(virtualDecoder);
+		return virtualDecoder;
 	}
 
 	@Override
@@ -41,5 +78,22 @@ public class VirtualVideoDecoderFactory implements VideoDecoderFactory{
 	public VirtualVideoDecoder getDecoder() {
 		return decoder;
 	}
+	
+	/**
+	 * Registers a connection that waits for its decoders in shared mode. Claim stays until it's cancelled
+	 * @param key is the binding key that descriptions of the connection are tagged with
+	 * @param claim is called with each decoder created for the connection
+	 */
+	public void claimDecoder(String key, Consumer<VirtualVideoDecoder> claim) {
+		decoderClaims.put(key, claim);
+	}
+	
+	public void cancelClaim(String key) {
+		decoderClaims.remove(key);
+	}
+	
+	public boolean isShared() {
+		return shared;
+	}
 
 }
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,9 +15,6 @@ import org.webrtc.VideoCodecType;
 import org.webrtc.VideoEncoder;
 import org.webrtc.VideoEncoderFactory;
 
-import io.antmedia.webrtctest.Mode;
-import io.antmedia.webrtctest.Settings;
-
 public class VirtualVideoEncoderFactory implements VideoEncoderFactory {
 
 	
@@ -23,8 +22,25 @@ public class VirtualVideoEncoderFactory implements VideoEncoderFactory {
 	
 	private VirtualVideoEncoder virtualH264Encoder = new VirtualVideoEncoder();
 	List<VideoCodecInfo> supportedCodecInfos = new ArrayList<>();
+	
+	/**
+	 * If it's shared, factory is used by more than one peer connection and 
+	 * it creates a new encoder for each connection instead of returning the same one
+	 */
+	private boolean shared = false;
+	
+	/**
+	 * Connections that use the factory by their binding key. An encoder is handed to the connection whose
+	 * key is in the codec parameters, see {@link CodecBinding}
+	 */
+	private Map<String, Consumer<VirtualVideoEncoder>> encoderClaims = new ConcurrentHashMap<>();
 
 	public VirtualVideoEncoderFactory(boolean h264, boolean vp8, boolean h265) {
+		this(h264, vp8, h265, false);
+	}
+	
+	public VirtualVideoEncoderFactory(boolean h264, boolean vp8, boolean h265, boolean shared) {
+		this.shared = shared;
 		// Generate a list of supported codecs in order of preference:
 		// we support h264 baseline for encoding because it is the one that is supported by all browsers
 
@@ -45,6 +61,24 @@ public class VirtualVideoEncoderFactory implements VideoEncoderFactory {
 		return this.virtualH264Encoder;
 	}
 	
+	/**
+	 * Registers a connection that waits for its encoders in shared mode. Claim stays until it's cancelled,
+	 * because libwebrtc may create the encoder of a connection again
+	 * @param key is the binding key that descriptions of the connection are tagged with
+	 * @param claim is called with each encoder created for the connection
+	 */
+	public void claimEncoder(String key, Consumer<VirtualVideoEncoder> claim) {
+		encoderClaims.put(key, claim);
+	}
+	
+	public void cancelClaim(String key) {
+		encoderClaims.remove(key);
+	}
+	
+	public boolean isShared() {
+		return shared;
+	}
+	
 	@Override
 	public VideoEncoder createEncoder(VideoCodecInfo input) {
 		logger.debug("createEncoder: {} for factory: {}" , input.name, this.hashCode());
@@ -58,7 +92,20 @@ public class VirtualVideoEncoderFactory implements VideoEncoderFactory {
 		 * Forced key frame interval is 0
 		 * 
 		 */
- 		return virtualH264Encoder;
+		if (!shared) {
+			return virtualH264Encoder;
+		}
+		
+		String key = CodecBinding.getKey(input);
+		Consumer<VirtualVideoEncoder> claim = key != null ? encoderClaims.get(key) : null;
+		if (claim == null) {
+			//an unbound encoder would not send anything, connection fails to create it instead
+			logger.error("Encoder cannot be created in shared factory: {} because there is no claim for binding key:{}", this.hashCode(), key);
+			return null;
+		}
+		VirtualVideoEncoder encoder = new VirtualVideoEncoder();
+		claim.accept(encoder);
+ 		return encoder;
 	}
 
 	@Override
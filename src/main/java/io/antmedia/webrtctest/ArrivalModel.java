@@ -0,0 +1,142 @@
+package io.antmedia.webrtctest;
+
+import java.util.Arrays;
+
+/**
+ * Target connection arrival rate of the ramp over time.
+ *
+ * Models are given as {@code constant:<rate>}, {@code linear:<from rate>:<to rate>:<seconds>},
+ * {@code poisson:<rate>} or {@code step:<rate>x<seconds>,<rate>x<seconds>,...}. Rates are connections per second
+ * and the last rate is kept after the ramp profile ends.
+ */
+public class ArrivalModel {
+
+	public enum Type {
+		CONSTANT, LINEAR, POISSON, STEP
+	}
+
+	private final Type type;
+
+	/**
+	 * Rate for constant and poisson, from and to rates for linear, rate of each step for step
+	 */
+	private final double[] rates;
+
+	/**
+	 * Ramp duration for linear, duration of each step for step
+	 */
+	private final double[] durations;
+
+	private ArrivalModel(Type type, double[] rates, double[] durations) {
+		this.type = type;
+		this.rates = rates;
+		this.durations = durations;
+		for (double rate : rates) {
+			if (rate < 0) {
+				throw new IllegalArgumentException("Arrival rate cannot be negative");
+			}
+		}
+		for (double duration : durations) {
+			if (duration <= 0) {
+				throw new IllegalArgumentException("Ramp duration should be positive");
+			}
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if model cannot be parsed
+	 */
+	public static ArrivalModel parse(String spec) {
+		String[] parts = spec.split(":");
+		try {
+			switch (parts[0]) {
+			case "constant":
+				return new ArrivalModel(Type.CONSTANT, new double[] {Double.parseDouble(parts[1])}, new double[0]);
+			case "poisson":
+				return new ArrivalModel(Type.POISSON, new double[] {Double.parseDouble(parts[1])}, new double[0]);
+			case "linear":
+				return new ArrivalModel(Type.LINEAR, new double[] {Double.parseDouble(parts[1]), Double.parseDouble(parts[2])},
+						new double[] {Double.parseDouble(parts[3])});
+			case "step":
+				String[] steps = parts[1].split(",");
+				double[] rates = new double[steps.length];
+				double[] durations = new double[steps.length];
+				for (int i = 0; i < steps.length; i++) {
+					String[] step = steps[i].split("x");
+					rates[i] = Double.parseDouble(step[0]);
+					durations[i] = Double.parseDouble(step[1]);
+				}
+				return new ArrivalModel(Type.STEP, rates, durations);
+			default:
+				throw new IllegalArgumentException("Unknown arrival model " + parts[0]);
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			throw new IllegalArgumentException("Cannot parse arrival model " + spec, e);
+		}
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Arrivals are random with the target rate, otherwise they're evenly spaced
+	 */
+	public boolean isPoisson() {
+		return type == Type.POISSON;
+	}
+
+	/**
+	 * @return target rate in connections per second at the given time since the ramp start
+	 */
+	public double getRate(double seconds) {
+		switch (type) {
+		case LINEAR:
+			if (seconds >= durations[0]) {
+				return rates[1];
+			}
+			return rates[0] + (rates[1] - rates[0]) * seconds / durations[0];
+		case STEP:
+			double stepStart = 0;
+			for (int i = 0; i < rates.length; i++) {
+				stepStart += durations[i];
+				if (seconds < stepStart) {
+					return rates[i];
+				}
+			}
+			return rates[rates.length - 1];
+		default:
+			return rates[0];
+		}
+	}
+
+	/**
+	 * @return number of connections that should have arrived until the given time since the ramp start,
+	 * that is the integral of the rate
+	 */
+	public double getExpectedArrivals(double seconds) {
+		switch (type) {
+		case LINEAR:
+			double ramp = Math.min(seconds, durations[0]);
+			double arrivals = rates[0] * ramp + (rates[1] - rates[0]) * ramp * ramp / (2 * durations[0]);
+			return arrivals + rates[1] * Math.max(0, seconds - durations[0]);
+		case STEP:
+			double total = 0;
+			double remaining = seconds;
+			for (int i = 0; i < rates.length && remaining > 0; i++) {
+				double duration = i == rates.length - 1 ? remaining : Math.min(remaining, durations[i]);
+				total += rates[i] * duration;
+				remaining -= duration;
+			}
+			return total;
+		default:
+			return rates[0] * seconds;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return type.name().toLowerCase() + " rates:" + Arrays.toString(rates) + "/s durations:" + Arrays.toString(durations) + "s";
+	}
+}
@@ -0,0 +1,41 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the total bitrate that all publishers send in short windows. 
+ * Distribution of the window bitrates shows how bursty the traffic is, for instance when key frames of the publishers line up.
+ */
+public class BitrateMeter {
+
+	public static final long WINDOW_MS = 100;
+
+	private final LongAdder bytes = new LongAdder();
+	private final LatencyHistogram windowBitrate = new LatencyHistogram("send bitrate per " + WINDOW_MS + "ms", "kbps");
+	private long lastSampleNanos = System.nanoTime();
+
+	/**
+	 * Called by the publishers for every frame they send
+	 */
+	public void record(long byteCount) {
+		bytes.add(byteCount);
+	}
+
+	/**
+	 * Closes the current window. It's called by one thread every {@link #WINDOW_MS}
+	 */
+	public void sample() {
+		long now = System.nanoTime();
+		long elapsedNanos = now - lastSampleNanos;
+		lastSampleNanos = now;
+		long byteCount = bytes.sumThenReset();
+		if (elapsedNanos > 0) {
+			//bits per millisecond is kbps
+			windowBitrate.record(byteCount * 8 * 1000000 / elapsedNanos);
+		}
+	}
+
+	public LatencyHistogram getWindowBitrate() {
+		return windowBitrate;
+	}
+}
@@ -0,0 +1,15 @@
+package io.antmedia.webrtctest;
+
+/**
+ * How local ice candidates are signalled to the server
+ */
+public enum CandidateMode {
+	/**
+	 * Each candidate is sent in its own message as soon as it's gathered
+	 */
+	TRICKLE,
+	/**
+	 * Candidates are not sent, description is sent after gathering is completed with the candidates in it
+	 */
+	NON_TRICKLE
+}
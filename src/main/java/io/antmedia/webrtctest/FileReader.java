@@ -9,13 +9,28 @@ import org.bytedeco.ffmpeg.avutil.*;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.webrtc.NaluIndex;
 
 import io.antmedia.webrtc.VideoCodec;
 
-public class FileReader{
+public class FileReader implements IFrameSource {
+	static final int[] NO_NALU = new int[0];
+	
+	/**
+	 * Maximum number of frames in a ring in streaming mode. Demux is generally limited by the lead time before this
+	 */
+	private static final int STREAMING_RING_CAPACITY = 4096;
+	private static final long DEFAULT_GOP_DURATION_MS = 2000;
+	private static final long AUDIO_FRAME_DURATION_MS = 20;
+
 	AVFormatContext inputContext = new AVFormatContext(null);
 	private int videoIndex = -1;
 	private int audioIndex = -1;	
@@ -23,6 +38,7 @@ public class FileReader{
 	ArrayList<Frame> videoFrames = new ArrayList();
 	ArrayList<Frame> audioFrames = new ArrayList();
 	protected int fps = 24;
+	private double frameRate = 24;
 	WebRTCManager manager;
 	private Logger logger = LoggerFactory.getLogger(FileReader.class);
 
@@ -37,15 +53,67 @@ public class FileReader{
 	public int height;
 	
 	private Settings settings;
+	
+	private MediaCache mediaCache;
+	
+	/**
+	 * It's true if frames are loaded from the media cache and there is no need to demux the file
+	 */
+	private boolean loadedFromCache = false;
+	
+	/**
+	 * Rings that keep a few GOPs of frames in streaming mode. They're null if whole file is kept in the lists
+	 */
+	private FrameRing videoRing;
+	private FrameRing audioRing;
+	
+	private volatile boolean readFinished = false;
+	private volatile boolean stopRequested = false;
+	
+	/**
+	 * It's true if the file is read until the end, frames are not complete if it's stopped or there is a read error
+	 */
+	private volatile boolean readCompleted = false;
+	
+	private KeyFrameTable keyFrameTable = new KeyFrameTable();
+	
+	private long lastKeyFrameTimeStamp = -1;
+	private long maxGopDurationMs = 0;
 		
 	public FileReader(Settings settings) 
 	{
 		this.fileName = settings.streamSource; 
 		this.settings = settings;
+		
+		if (settings.mediaCacheDirectory != null) {
+			mediaCache = new MediaCache(settings.mediaCacheDirectory, fileName, settings.codec);
+		}
 	}
 
+	@Override
 	public boolean init()
 	{
+		if (mediaCache != null && mediaCache.load(videoFrames, audioFrames)) 
+		{
+			loadedFromCache = true;
+			width = mediaCache.width;
+			height = mediaCache.height;
+			videoIndex = mediaCache.hasVideo ? 0 : -1;
+			audioIndex = mediaCache.hasAudio ? 1 : -1;
+			if(videoIndex == -1) {
+				settings.audioOnly  = true;
+			}
+			keyFrameTable.addAll(videoFrames);
+			if (videoFrames.size() > 1) {
+				long duration = videoFrames.get(videoFrames.size() - 1).timeStamp - videoFrames.get(0).timeStamp;
+				if (duration > 0) {
+					setFrameRate((videoFrames.size() - 1) * 1000.0 / duration);
+				}
+			}
+			readFinished = true;
+			return true;
+		}
+		
 		av_register_all();
 		int ret;
 		String fileExtension = fileName.split("\\.")[1];
@@ -77,6 +145,11 @@ public class FileReader{
 				this.height = inputContext.streams(i).codec().height();
 				
 				videoTimebase = inputContext.streams(videoIndex).time_base();
+				
+				AVRational avgFrameRate = inputContext.streams(i).avg_frame_rate();
+				if (avgFrameRate.num() > 0 && avgFrameRate.den() > 0) {
+					setFrameRate(av_q2d(avgFrameRate));
+				}
 				break;
 			}
 
@@ -99,6 +172,14 @@ public class FileReader{
 		if(!settings.audioOnly && (settings.codec == VideoCodec.H264 || settings.codec == VideoCodec.H265)) {
 			initVideoBSF();
 		}
+		
+		if (settings.streamingGops > 0) {
+			long leadMs = settings.streamingGops * DEFAULT_GOP_DURATION_MS;
+			videoRing = new FrameRing(STREAMING_RING_CAPACITY, leadMs, true);
+			//audio frames are not key frames, they're released as soon as they're read
+			audioRing = new FrameRing(STREAMING_RING_CAPACITY, leadMs, false);
+			logger.info("Streaming mode is enabled. Demux will be {} GOPs ahead of the publishers", settings.streamingGops);
+		}
 
 		if(audioIndex != -1) 
 		{
@@ -128,16 +209,29 @@ public class FileReader{
 		videoTimebase = bsfContext.time_base_out();
 	}
 
+	@Override
 	public void start() {
 		if(started) {
 			return;
 		}
 		started  = true;
+		if (loadedFromCache) {
+			//all frames are already available
+			return;
+		}
 		new Thread() {
 			@Override
 			public void run() {
 				startReaderThread();
 				close();
+				if (!isStreaming()) {
+					if (readCompleted) {
+						writeMediaCache();
+					}
+					else {
+						logger.info("Media cache is not written because {} is not read completely", fileName);
+					}
+				}
 				super.run();
 			}
 		}.start();
@@ -145,10 +239,35 @@ public class FileReader{
 
 	private void startReaderThread() {
 		boolean read = true;
-		while (read) {
+		long loopOffset = 0;
+		long maxTimeStamp = 0;
+		while (read && !stopRequested) {
 			AVPacket pkt = new AVPacket();
 			int ret = av_read_frame(inputContext, pkt);
 			read = (ret >= 0);
+			
+			if (!read && isStreaming() && settings.loop) 
+			{
+				//start from the beginning and keep the timestamps increasing
+				av_packet_unref(pkt);
+				if (av_seek_frame(inputContext, -1, 0, AVSEEK_FLAG_BACKWARD) < 0) {
+					logger.error("Cannot seek to the beginning of {} for looping", fileName);
+					break;
+				}
+				if (bsfContext != null) {
+					av_bsf_flush(bsfContext);
+				}
+				loopOffset = maxTimeStamp + Math.round(1000 / frameRate);
+				read = true;
+				continue;
+			}
+			
+			if (!read) {
+				readCompleted = ret == AVERROR_EOF() && !stopRequested;
+				if (ret != AVERROR_EOF()) {
+					logger.error("Cannot read frame from {} error: {}", fileName, ret);
+				}
+			}
 
 			if (pkt.stream_index() == videoIndex) 
 			{
@@ -160,8 +279,10 @@ public class FileReader{
 					{
 						ByteBuffer data = ByteBuffer.allocateDirect(pkt.size());
 						data.put(pkt.data().position(0).limit(pkt.size()).asByteBuffer());
-						long timeStamp = av_rescale_q(pkt.pts(), videoTimebase, timeBaseForMS);
-						videoFrames.add(new Frame(data, timeStamp, (pkt.flags() & AV_PKT_FLAG_KEY)==1));
+						long timeStamp = av_rescale_q(pkt.pts(), videoTimebase, timeBaseForMS) + loopOffset;
+						maxTimeStamp = Math.max(maxTimeStamp, timeStamp);
+						addVideoFrame(new Frame(data, timeStamp, (pkt.flags() & AV_PKT_FLAG_KEY)==1, findNaluIndices(data)));
+						av_packet_unref(pkt);
 					}
 				}
 				else 
@@ -169,8 +290,10 @@ public class FileReader{
 					ByteBuffer data = ByteBuffer.allocateDirect(pkt.size());
 					if(pkt.size() > 0) {
 						data.put(pkt.data().position(0).limit(pkt.size()).asByteBuffer());
-						long timeStamp = av_rescale_q(pkt.pts(), videoTimebase, timeBaseForMS);
-						videoFrames.add(new Frame(data, timeStamp, (pkt.flags() & AV_PKT_FLAG_KEY)==1));
+						long timeStamp = av_rescale_q(pkt.pts(), videoTimebase, timeBaseForMS) + loopOffset;
+						maxTimeStamp = Math.max(maxTimeStamp, timeStamp);
+						int[] naluIndexArray = settings.codec == VideoCodec.H265 ? findNaluIndices(data) : NO_NALU;
+						addVideoFrame(new Frame(data, timeStamp, (pkt.flags() & AV_PKT_FLAG_KEY)==1, naluIndexArray));
 					}
 				}
 			}
@@ -179,20 +302,165 @@ public class FileReader{
 				ByteBuffer data = ByteBuffer.allocateDirect(pkt.size());
 				if(pkt.size() > 0) {
 					data.put(pkt.data().position(0).limit(pkt.size()).asByteBuffer());
-					long timeStamp = av_rescale_q(pkt.pts(), audioTimebase, timeBaseForMS);
-					audioFrames.add(new Frame(data, timeStamp, false));
+					long timeStamp = av_rescale_q(pkt.pts(), audioTimebase, timeBaseForMS) + loopOffset;
+					maxTimeStamp = Math.max(maxTimeStamp, timeStamp);
+					addAudioFrame(new Frame(data, timeStamp, false));
 				}
 			}
+			av_packet_unref(pkt);
+		}
+		
+		readFinished = true;
+		if (isStreaming()) {
+			videoRing.finish();
+			audioRing.finish();
+		}
+	}
+	
+	private void addVideoFrame(Frame frame) {
+		if (videoRing == null) {
+			if (frame.isKeyFrame) {
+				keyFrameTable.add(videoFrames.size(), frame.timeStamp);
+			}
+			videoFrames.add(frame);
+			return;
+		}
+		
+		if (frame.isKeyFrame) {
+			if (lastKeyFrameTimeStamp >= 0 && frame.timeStamp - lastKeyFrameTimeStamp > maxGopDurationMs) {
+				maxGopDurationMs = frame.timeStamp - lastKeyFrameTimeStamp;
+				videoRing.setLeadMs(settings.streamingGops * maxGopDurationMs);
+				audioRing.setLeadMs(settings.streamingGops * maxGopDurationMs);
+			}
+			lastKeyFrameTimeStamp = frame.timeStamp;
+		}
+		offer(videoRing, frame);
+	}
+	
+	private void addAudioFrame(Frame frame) {
+		if (audioRing == null) {
+			audioFrames.add(frame);
+			return;
+		}
+		offer(audioRing, frame);
+	}
+	
+	/**
+	 * Waits until there is room in the ring, so that demux is never too far ahead of the publishers
+	 */
+	private void offer(FrameRing ring, Frame frame) {
+		while (!ring.offer(frame) && !stopRequested) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+		}
+	}
+	
+	private void setFrameRate(double frameRate) {
+		this.frameRate = frameRate;
+		this.fps = (int) Math.round(frameRate);
+	}
+	
+	/**
+	 * @return average frame rate of the video. It may not be an integer like 29.97
+	 */
+	@Override
+	public double getFrameRate() {
+		return frameRate;
+	}
+	
+	/**
+	 * @return duration of the source including the duration of the last frame. 
+	 * It's used to increase the timestamps when the publishers loop. It's 0 in streaming mode because demux loops itself
+	 */
+	@Override
+	public long getLoopDurationMs() {
+		long start = Long.MAX_VALUE;
+		long end = 0;
+		if (!videoFrames.isEmpty()) {
+			start = videoFrames.get(0).timeStamp;
+			end = videoFrames.get(videoFrames.size() - 1).timeStamp + Math.round(1000 / frameRate);
+		}
+		if (!audioFrames.isEmpty()) {
+			start = Math.min(start, audioFrames.get(0).timeStamp);
+			end = Math.max(end, audioFrames.get(audioFrames.size() - 1).timeStamp + AUDIO_FRAME_DURATION_MS);
+		}
+		return start == Long.MAX_VALUE ? 0 : end - start;
+	}
+	
+	public boolean isStreaming() {
+		return videoRing != null;
+	}
+	
+	/**
+	 * Opens a cursor for the video frames. In streaming mode it starts from the latest key frame in memory
+	 */
+	@Override
+	public IFrameCursor openVideoCursor(int keyFrameIndex) {
+		if (videoRing != null) {
+			return videoRing.joinAtKeyFrame();
+		}
+		return new FrameListCursor(videoFrames, keyFrameTable.getFrameIndex(keyFrameIndex), () -> readFinished);
+	}
+	
+	/**
+	 * Opens a cursor for the audio frames. In streaming mode it starts from the latest video key frame in memory
+	 */
+	@Override
+	public IFrameCursor openAudioCursor(int keyFrameIndex) {
+		if (audioRing != null) {
+			long keyFrameTimeStamp = videoRing.getLatestKeyFrameTimeStamp();
+			return audioRing.joinAtTimeStamp(keyFrameTimeStamp >= 0 ? keyFrameTimeStamp : Long.MIN_VALUE);
+		}
+		long keyFrameTimeStamp = keyFrameTable.getTimeStamp(keyFrameIndex);
+		int startIndex = keyFrameTimeStamp > 0 ? KeyFrameTable.findFrameIndex(audioFrames, keyFrameTimeStamp) : 0;
+		return new FrameListCursor(audioFrames, startIndex, () -> readFinished);
+	}
+	
+	/**
+	 * @return number of key frames demuxed so far. It's 0 in streaming mode because publishers join at the latest key frame
+	 */
+	@Override
+	public int getKeyFrameCount() {
+		return keyFrameTable.size();
+	}
+	
+	@Override
+	public long getGopDurationMs() {
+		if (isStreaming()) {
+			return maxGopDurationMs > 0 ? maxGopDurationMs : DEFAULT_GOP_DURATION_MS;
+		}
+		return keyFrameTable.getMeanGopDurationMs(DEFAULT_GOP_DURATION_MS);
+	}
+	
+	/**
+	 * Stops the demux thread
+	 */
+	@Override
+	public void stop() {
+		stopRequested = true;
+	}
+	
+	private void writeMediaCache() {
+		if (mediaCache != null) {
+			mediaCache.width = width;
+			mediaCache.height = height;
+			mediaCache.hasVideo = hasVideo();
+			mediaCache.hasAudio = hasAudio();
+			mediaCache.write(videoFrames, audioFrames);
 		}
 	}
 
 	void close()
 	{
+		if (bsfContext != null) {
+			av_bsf_free(bsfContext);
+			bsfContext = null;
+		}
 		/* close input */
 		if (inputContext != null && ((inputContext.flags() & AVFMT_NOFILE) == 0))
 		{
 			avformat_close_input(inputContext);
 			avformat_free_context(inputContext);
+			inputContext = null;
 		}
 	}
 
@@ -200,22 +468,113 @@ public class FileReader{
 		this.manager = manager;
 	}
 
-	class Frame {
+	private int[] findNaluIndices(ByteBuffer data) {
+		int[] naluIndexArray = NaluIndexer.findNaluIndices(data);
+		if (naluIndexArray.length == 0) {
+			logger.warn("No NAL unit found");
+		}
+		return naluIndexArray;
+	}
+	
+	/**
+	 * A demuxed frame that is shared by all publishers. Its data must not be passed to the encoder or 
+	 * to the audio record directly because position and limit of a buffer cannot be shared by threads. 
+	 * Each pacer lane gets its own read-only view of the data instead, which is created once and reused 
+	 * for every send in that lane, so nothing is copied or allocated per send.
+	 */
+	public static class Frame {
 		ByteBuffer data;
 		long timeStamp;
 		boolean isKeyFrame;
+		
+		private final int dataLimit;
+		
+		/**
+		 * Views of the data indexed by pacer lane. Array is replaced when a lane with a greater index comes
+		 */
+		private volatile ByteBuffer[] views = new ByteBuffer[0];
+		
+		/**
+		 * NAL unit boundaries of the frame as triplets. It's computed once while demuxing
+		 * and it's empty for the codecs that do not have NAL units
+		 */
+		int[] naluIndexArray;
+		
+		/**
+		 * Unmodifiable list that is passed to the encoder for every send. {@link NaluIndex} has public fields 
+		 * but they must not be changed, the encoder only forwards them to the encoded image
+		 */
+		List<NaluIndex> naluIndices;
 
 		public Frame(ByteBuffer data, long timeStamp, boolean isKeyFrame) {
+			this(data, timeStamp, isKeyFrame, NO_NALU);
+		}
+		
+		public Frame(ByteBuffer data, long timeStamp, boolean isKeyFrame, int[] naluIndexArray) {
 			this.data = data;
+			this.dataLimit = data.limit();
 			this.timeStamp = timeStamp;
 			this.isKeyFrame = isKeyFrame;
+			this.naluIndexArray = naluIndexArray;
+			this.naluIndices = naluIndexArray.length == 0 ? Collections.emptyList() : NaluIndexer.toNaluIndexList(naluIndexArray);
+		}
+		
+		/**
+		 * Returns the read-only view of the data for the lane that is rewound to the first byte.
+		 * A view must be used by one thread at a time and only until the next call for the same lane.
+		 */
+		public ByteBuffer getView(int lane) {
+			ByteBuffer[] current = views;
+			ByteBuffer view = lane < current.length ? current[lane] : null;
+			if (view == null) {
+				view = createView(lane);
+			}
+			view.limit(dataLimit).position(0);
+			return view;
 		}
+		
+		private synchronized ByteBuffer createView(int lane) {
+			ByteBuffer[] current = views;
+			if (lane < current.length && current[lane] != null) {
+				return current[lane];
+			}
+			//duplicate is not affected by the position of the data
+			ByteBuffer view = data.duplicate().asReadOnlyBuffer();
+			ByteBuffer[] newViews = Arrays.copyOf(current, Math.max(current.length, lane + 1));
+			newViews[lane] = view;
+			views = newViews;
+			return view;
+		}
+		
+		public ByteBuffer getData() {
+			return data;
+		}
+		
+		public long getTimeStamp() {
+			return timeStamp;
+		}
+		
+		public boolean isKeyFrame() {
+			return isKeyFrame;
+		}
+	}
+	
+	@Override
+	public int getWidth() {
+		return width;
+	}
+	
+	@Override
+	public int getHeight() {
+		return height;
 	}
 	
+	@Override
 	public boolean hasVideo() {
 		return videoIndex != -1;
 	}
 	
+	@Override
 	public boolean hasAudio() {
 		return audioIndex != -1;
 	}
@@ -0,0 +1,47 @@
+package io.antmedia.webrtctest;
+
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Cursor for the frames that are kept in a list for the whole run
+ */
+public class FrameListCursor implements IFrameCursor {
+	private final List<FileReader.Frame> frames;
+	private final BooleanSupplier complete;
+	private int index = 0;
+
+	/**
+	 * @param startIndex is the index of the first frame. Cursor rewinds to the beginning of the list
+	 * @param complete returns true when no more frame will be added to the list
+	 */
+	public FrameListCursor(List<FileReader.Frame> frames, int startIndex, BooleanSupplier complete) {
+		this.frames = frames;
+		this.index = startIndex;
+		this.complete = complete;
+	}
+
+	@Override
+	public FileReader.Frame next() {
+		if (index < frames.size()) {
+			return frames.get(index++);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean isEndOfStream() {
+		return complete.getAsBoolean() && index >= frames.size();
+	}
+
+	@Override
+	public boolean rewind() {
+		index = 0;
+		return true;
+	}
+
+	@Override
+	public void close() {
+		//frames are kept for the whole run
+	}
+}
@@ -0,0 +1,117 @@
+package io.antmedia.webrtctest;
+
+import java.lang.invoke.VarHandle;
+
+/**
+ * Frame counters of a client that are written by one thread, e.g. the decoding thread of libwebrtc, and read by the stats thread.
+ *
+ * Writer does not lock or allocate. It's a sequence lock: sequence is odd while the counters are being written, so a reader
+ * copies the counters and tries again if the sequence is odd or it's changed during the copy. Readers never block the writer.
+ */
+public class FrameMetrics {
+
+	/**
+	 * Consistent copy of the counters. It can be reused by the reader for each read
+	 */
+	public static class Snapshot {
+		private long frames;
+		private long totalGapMs;
+		private long maxGapMs;
+		private long bytes;
+		private long keyFrames;
+
+		/**
+		 * @return number of frames after the first one, i.e. number of gaps
+		 */
+		public long getFrames() {
+			return frames;
+		}
+
+		public long getTotalGapMs() {
+			return totalGapMs;
+		}
+
+		public long getMaxGapMs() {
+			return maxGapMs;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getKeyFrames() {
+			return keyFrames;
+		}
+
+		/**
+		 * @return mean time between frames in ms or -1 if there is not any gap yet
+		 */
+		public int getFramePeriod() {
+			return frames != 0 ? (int) (totalGapMs / frames) : -1;
+		}
+	}
+
+	private volatile long sequence = 0;
+
+	private long frames = 0;
+	private long totalGapMs = 0;
+	private long maxGapMs = 0;
+	private long bytes = 0;
+	private long keyFrames = 0;
+
+	/**
+	 * Only used by the writer
+	 */
+	private long lastFrameMs = -1;
+
+	/**
+	 * Records a frame. It must be called by a single thread at a time
+	 */
+	public void record(long nowMs, int frameBytes, boolean isKeyFrame) {
+		long current = sequence;
+		sequence = current + 1;
+		//counters must not be written before the odd sequence is visible
+		VarHandle.storeStoreFence();
+		if (lastFrameMs >= 0) {
+			long gapMs = nowMs - lastFrameMs;
+			totalGapMs += gapMs;
+			frames++;
+			if (gapMs > maxGapMs) {
+				maxGapMs = gapMs;
+			}
+		}
+		lastFrameMs = nowMs;
+		bytes += frameBytes;
+		if (isKeyFrame) {
+			keyFrames++;
+		}
+		sequence = current + 2;
+	}
+
+	/**
+	 * Copies a consistent set of the counters to the snapshot
+	 * @return the snapshot
+	 */
+	public Snapshot read(Snapshot snapshot) {
+		while (true) {
+			long before = sequence;
+			if ((before & 1) == 0) {
+				snapshot.frames = frames;
+				snapshot.totalGapMs = totalGapMs;
+				snapshot.maxGapMs = maxGapMs;
+				snapshot.bytes = bytes;
+				snapshot.keyFrames = keyFrames;
+				//copies must be completed before the sequence is checked again
+				VarHandle.loadLoadFence();
+				if (sequence == before) {
+					return snapshot;
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	public Snapshot read() {
+		return read(new Snapshot());
+	}
+}
@@ -0,0 +1,230 @@
+package io.antmedia.webrtctest;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the audio and video frames of all publishers.
+ *
+ * There are a few lanes, each lane is a thread that runs a hashed timing wheel. Tasks of a stream are always
+ * put into the same lane, so that they run in order in one thread. A task returns its next deadline after it
+ * runs and it's put into the wheel again, so that pacing does not allocate.
+ *
+ * Lateness of every tick and every task is recorded, so that pacing accuracy can be checked for high loads.
+ */
+public class FramePacer {
+
+	private static Logger logger = LoggerFactory.getLogger(FramePacer.class);
+
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int WHEEL_SIZE = 512;
+	
+	/**
+	 * Returned by a task to stop it. {@link System#nanoTime()} may be negative so it's not a valid deadline
+	 */
+	public static final long STOP = Long.MIN_VALUE;
+
+	public interface IPacedTask {
+		/**
+		 * @param deadlineNanos is the time in {@link System#nanoTime()} that this task should have run
+		 * @return the next deadline of the task or {@link FramePacer#STOP} to stop it
+		 */
+		long run(long deadlineNanos);
+	}
+
+	/**
+	 * Handle of a scheduled task. It's put into the wheel again after each run.
+	 */
+	public static class PacedTaskHandle {
+		private final IPacedTask task;
+		private final Lane lane;
+		private long deadlineNanos;
+		private long rounds;
+		private PacedTaskHandle next;
+		private volatile boolean cancelled = false;
+
+		private PacedTaskHandle(IPacedTask task, Lane lane, long deadlineNanos) {
+			this.task = task;
+			this.lane = lane;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return index of the lane that runs this task
+		 */
+		public int getLaneIndex() {
+			return lane.index;
+		}
+	}
+
+	private final Lane[] lanes;
+
+	private final LatencyHistogram tickLateness = new LatencyHistogram("pacer tick lateness", "us");
+	private final LatencyHistogram taskLateness = new LatencyHistogram("pacer task lateness", "us");
+
+	private volatile boolean running = true;
+	
+	private final long epochNanos = System.nanoTime();
+
+	public FramePacer(int laneCount) {
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane(i);
+			lanes[i].start();
+		}
+		logger.info("Frame pacer is started with {} lanes", laneCount);
+	}
+
+	/**
+	 * Schedules the task to the lane of the key. All tasks with the same key run in the same thread
+	 * @param key is generally the stream id
+	 * @param firstDeadlineNanos is the first time in {@link System#nanoTime()} that task should run
+	 */
+	public PacedTaskHandle schedule(String key, IPacedTask task, long firstDeadlineNanos) {
+		Lane lane = lanes[Math.floorMod(key.hashCode(), lanes.length)];
+		PacedTaskHandle handle = new PacedTaskHandle(task, lane, firstDeadlineNanos);
+		lane.inbox.add(handle);
+		return handle;
+	}
+
+	/**
+	 * @return creation time of the pacer. It's the common reference for the start phases of the publishers
+	 */
+	public long getEpochNanos() {
+		return epochNanos;
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	public LatencyHistogram getTickLateness() {
+		return tickLateness;
+	}
+
+	public LatencyHistogram getTaskLateness() {
+		return taskLateness;
+	}
+
+	public void stop() {
+		running = false;
+		for (Lane lane : lanes) {
+			LockSupport.unpark(lane);
+		}
+	}
+
+	private class Lane extends Thread {
+		private final int index;
+		private final PacedTaskHandle[] wheel = new PacedTaskHandle[WHEEL_SIZE];
+		private final Queue<PacedTaskHandle> inbox = new ConcurrentLinkedQueue<>();
+		private final long startNanos = System.nanoTime();
+		private long tick = 0;
+
+		Lane(int index) {
+			super("frame-pacer-" + index);
+			this.index = index;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				long tickDeadline = startNanos + tick * TICK_NANOS;
+				long now = System.nanoTime();
+				if (now < tickDeadline) {
+					LockSupport.parkNanos(tickDeadline - now);
+					continue;
+				}
+				tickLateness.record((now - tickDeadline) / 1000);
+
+				PacedTaskHandle handle;
+				while ((handle = inbox.poll()) != null) {
+					insert(handle, tick);
+				}
+
+				runBucket(now);
+				tick++;
+			}
+		}
+
+		/**
+		 * @param earliestTick is the first tick that task can run. Late tasks are run in that tick
+		 */
+		private void insert(PacedTaskHandle handle, long earliestTick) {
+			//rounded up so that tasks never run before their deadline
+			long ticks = (handle.deadlineNanos - startNanos + TICK_NANOS - 1) / TICK_NANOS;
+			if (ticks < earliestTick) {
+				ticks = earliestTick;
+			}
+			//earliest tick is the first one whose bucket is not picked up yet
+			handle.rounds = (ticks - earliestTick) / WHEEL_SIZE;
+			int bucket = (int) (ticks % WHEEL_SIZE);
+			handle.next = wheel[bucket];
+			wheel[bucket] = handle;
+		}
+
+		private void runBucket(long now) {
+			int bucket = (int) (tick % WHEEL_SIZE);
+			PacedTaskHandle handle = wheel[bucket];
+			wheel[bucket] = null;
+
+			PacedTaskHandle keep = null;
+			while (handle != null) {
+				PacedTaskHandle next = handle.next;
+				handle.next = null;
+
+				if (handle.cancelled) {
+					//drop it
+				}
+				else if (handle.rounds > 0) {
+					handle.rounds--;
+					handle.next = keep;
+					keep = handle;
+				}
+				else {
+					runTask(handle, now);
+				}
+				handle = next;
+			}
+
+			//tasks for next rounds are put back to the same bucket
+			while (keep != null) {
+				PacedTaskHandle next = keep.next;
+				keep.next = wheel[bucket];
+				wheel[bucket] = keep;
+				keep = next;
+			}
+		}
+
+		private void runTask(PacedTaskHandle handle, long now) {
+			taskLateness.record((now - handle.deadlineNanos) / 1000);
+			long nextDeadline;
+			try {
+				nextDeadline = handle.task.run(handle.deadlineNanos);
+			}
+			catch (Exception e) {
+				logger.error("Paced task failed and it's stopped: {}", e.getMessage());
+				nextDeadline = STOP;
+			}
+
+			if (nextDeadline != STOP && !handle.cancelled) {
+				handle.deadlineNanos = nextDeadline;
+				//current bucket is being processed, so it can run in next tick at the earliest
+				insert(handle, tick + 1);
+			}
+		}
+	}
+}
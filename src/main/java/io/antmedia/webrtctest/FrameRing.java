@@ -0,0 +1,201 @@
+package io.antmedia.webrtctest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded ring of frames that is filled by the demux thread and read by publishers in streaming mode.
+ *
+ * Frames have increasing sequence numbers. Demux thread stays at most a few GOPs ahead of the furthest behind
+ * publisher and a frame is released as soon as every publisher has read it and it's older than the latest key frame,
+ * so that memory does not grow with the length of the source and publishers that join later start from a key frame. Reading is lock free. Joining and releasing frames are synchronized because they are rare.
+ */
+public class FrameRing {
+
+	private final FileReader.Frame[] slots;
+	private final int mask;
+
+	/**
+	 * Sequence number of the next frame to be written
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * Sequence number of the oldest frame that is kept
+	 */
+	private volatile long tail = 0;
+
+	/**
+	 * Frames are kept from the latest key frame for the publishers that join later. It's false for the rings
+	 * that do not have key frames, e.g. audio, otherwise their tail would never move
+	 */
+	private final boolean keyFrameFloor;
+
+	/**
+	 * Sequence number of the latest key frame that is written. It's only used by the demux thread
+	 */
+	private long latestKeyFrame = 0;
+
+	/**
+	 * How far demux can be ahead of the furthest behind cursor in milliseconds
+	 */
+	private volatile long leadMs;
+
+	private volatile boolean finished = false;
+
+	private final Set<Cursor> cursors = ConcurrentHashMap.newKeySet();
+
+	public class Cursor implements IFrameCursor {
+		private volatile long position;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		@Override
+		public FileReader.Frame next() {
+			long current = position;
+			if (current >= head) {
+				return null;
+			}
+			FileReader.Frame frame = slots[(int) (current & mask)];
+			position = current + 1;
+			return frame;
+		}
+
+		@Override
+		public boolean isEndOfStream() {
+			return finished && position >= head;
+		}
+
+		@Override
+		public boolean rewind() {
+			//old frames are released, source loops in the demux thread
+			return false;
+		}
+
+		@Override
+		public void close() {
+			cursors.remove(this);
+		}
+	}
+
+	/**
+	 * @param capacity is rounded up to power of two
+	 * @param keyFrameFloor keeps the frames from the latest key frame, it must be false if frames are never key frames
+	 */
+	public FrameRing(int capacity, long leadMs, boolean keyFrameFloor) {
+		this.keyFrameFloor = keyFrameFloor;
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		slots = new FileReader.Frame[size];
+		mask = size - 1;
+		this.leadMs = leadMs;
+	}
+
+	/**
+	 * Called by the demux thread
+	 * @return false if the ring is full, the frame should be offered again later
+	 */
+	public boolean offer(FileReader.Frame frame) {
+		long h = head;
+		long oldest = minCursorPosition();
+
+		if (h - oldest >= slots.length ||
+				(h > oldest && frame.timeStamp - slots[(int) (oldest & mask)].timeStamp > leadMs))
+		{
+			return false;
+		}
+
+		//frames are released on each offer instead of when the ring wraps, so they're not kept after they're read
+		releaseFrames();
+		if (h - tail >= slots.length) {
+			return false;
+		}
+
+		slots[(int) (h & mask)] = frame;
+		if (frame.isKeyFrame) {
+			latestKeyFrame = h;
+		}
+		head = h + 1;
+		return true;
+	}
+
+	/**
+	 * @return position of the furthest behind cursor or tail if there is no cursor. Frames are not released
+	 * if there is no cursor, so that first publisher starts from the beginning.
+	 */
+	private long minCursorPosition() {
+		long min = Long.MAX_VALUE;
+		for (Cursor cursor : cursors) {
+			min = Math.min(min, cursor.position);
+		}
+		return min == Long.MAX_VALUE ? tail : Math.max(min, tail);
+	}
+
+	/**
+	 * Releases the frames that are read by all cursors and are older than the latest key frame if there is a floor
+	 */
+	private synchronized void releaseFrames() {
+		long newTail = keyFrameFloor ? Math.min(minCursorPosition(), latestKeyFrame) : minCursorPosition();
+		for (long i = tail; i < newTail; i++) {
+			slots[(int) (i & mask)] = null;
+		}
+		tail = newTail;
+	}
+
+	/**
+	 * Opens a cursor at the latest key frame that is kept, so that publisher starts with a decodable frame
+	 */
+	public synchronized Cursor joinAtKeyFrame() {
+		Cursor cursor = new Cursor(tail);
+		cursors.add(cursor);
+		for (long i = head - 1; i > tail; i--) {
+			if (slots[(int) (i & mask)].isKeyFrame) {
+				cursor.position = i;
+				break;
+			}
+		}
+		return cursor;
+	}
+
+	/**
+	 * Opens a cursor at the first kept frame whose timestamp is not earlier than given timestamp
+	 */
+	public synchronized Cursor joinAtTimeStamp(long timeStamp) {
+		Cursor cursor = new Cursor(tail);
+		cursors.add(cursor);
+		long h = head;
+		while (cursor.position < h && slots[(int) (cursor.position & mask)].timeStamp < timeStamp) {
+			cursor.position++;
+		}
+		return cursor;
+	}
+
+	/**
+	 * @return timestamp of the latest key frame that is kept or -1 if there is not any
+	 */
+	public synchronized long getLatestKeyFrameTimeStamp() {
+		for (long i = head - 1; i >= tail; i--) {
+			FileReader.Frame frame = slots[(int) (i & mask)];
+			if (frame.isKeyFrame) {
+				return frame.timeStamp;
+			}
+		}
+		return -1;
+	}
+
+	public void setLeadMs(long leadMs) {
+		this.leadMs = leadMs;
+	}
+
+	/**
+	 * Called by the demux thread when there is no more frame
+	 */
+	public void finish() {
+		finished = true;
+	}
+
+	public int size() {
+		return (int) (head - tail);
+	}
+}
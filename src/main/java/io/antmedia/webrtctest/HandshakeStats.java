@@ -0,0 +1,36 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handshake phase latencies of all clients. For each phase, time from the start of the client and 
+ * time from the phase before it are kept in histograms.
+ */
+public class HandshakeStats {
+
+	private final LatencyHistogram[] fromStart;
+	private final LatencyHistogram[] fromPrevious;
+
+	public HandshakeStats() {
+		HandshakeTimeline.Phase[] phases = HandshakeTimeline.Phase.values();
+		fromStart = new LatencyHistogram[phases.length];
+		fromPrevious = new LatencyHistogram[phases.length];
+		for (HandshakeTimeline.Phase phase : phases) {
+			fromStart[phase.ordinal()] = new LatencyHistogram(phase.getLabel() + " from start", "ms");
+			fromPrevious[phase.ordinal()] = new LatencyHistogram("step", "ms");
+		}
+	}
+
+	void record(HandshakeTimeline.Phase phase, long fromStartNanos, long fromPreviousNanos) {
+		fromStart[phase.ordinal()].record(TimeUnit.NANOSECONDS.toMillis(fromStartNanos));
+		fromPrevious[phase.ordinal()].record(TimeUnit.NANOSECONDS.toMillis(fromPreviousNanos));
+	}
+
+	public LatencyHistogram getFromStart(HandshakeTimeline.Phase phase) {
+		return fromStart[phase.ordinal()];
+	}
+
+	public LatencyHistogram getFromPrevious(HandshakeTimeline.Phase phase) {
+		return fromPrevious[phase.ordinal()];
+	}
+}
@@ -0,0 +1,82 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Monotonic timestamps of the handshake phases of a client.
+ *
+ * Only the first occurrence of each phase is kept, so retries and recoveries do not move the timeline.
+ * Every phase is recorded to the shared stats as the time from the start of the client and the time from
+ * the latest phase before it.
+ */
+public class HandshakeTimeline {
+
+	public enum Phase {
+		WEBSOCKET_OPEN("ws open"),
+		FIRST_PONG("first pong"),
+		REQUEST_SENT("publish/play sent"),
+		OFFER_RECEIVED("start/offer received"),
+		LOCAL_DESCRIPTION_SET("local description set"),
+		FIRST_CANDIDATE("first candidate"),
+		ICE_CONNECTED("ice connected"),
+		FIRST_FRAME("first frame");
+
+		private final String label;
+
+		private Phase(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private final HandshakeStats stats;
+
+	private final long startNanos;
+
+	/**
+	 * Time of each phase since start, 0 if phase is not reached yet
+	 */
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+	/**
+	 * Starts the timeline
+	 * @param stats may be null to keep the timeline only
+	 */
+	public HandshakeTimeline(HandshakeStats stats) {
+		this.stats = stats;
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Marks the phase if it's not reached before. It's called from signalling and decoder threads
+	 */
+	public void mark(Phase phase) {
+		//at least 1 so that it's different from unset
+		long elapsed = Math.max(1, System.nanoTime() - startNanos);
+		if (!phaseNanos.compareAndSet(phase.ordinal(), 0, elapsed)) {
+			return;
+		}
+		if (stats != null) {
+			long previous = 0;
+			for (int i = phase.ordinal() - 1; i >= 0; i--) {
+				long value = phaseNanos.get(i);
+				if (value != 0 && value <= elapsed) {
+					previous = value;
+					break;
+				}
+			}
+			stats.record(phase, elapsed, elapsed - previous);
+		}
+	}
+
+	/**
+	 * @return nanoseconds from the start to the phase or -1 if it's not reached yet
+	 */
+	public long getNanos(Phase phase) {
+		long value = phaseNanos.get(phase.ordinal());
+		return value == 0 ? -1 : value;
+	}
+}
@@ -0,0 +1,29 @@
+package io.antmedia.webrtctest;
+
+/**
+ * Position of a publisher in the audio or video frames of a source.
+ * A cursor is used by one thread at a time.
+ */
+public interface IFrameCursor {
+
+	/**
+	 * @return next frame or null if next frame is not available yet or stream is finished
+	 */
+	public FileReader.Frame next();
+
+	/**
+	 * @return true if there is no more frame to send
+	 */
+	public boolean isEndOfStream();
+
+	/**
+	 * Starts from the first frame again for looping
+	 * @return false if cursor cannot go back because old frames are released
+	 */
+	public boolean rewind();
+
+	/**
+	 * Releases the cursor so that the frames it holds can be released
+	 */
+	public void close();
+}
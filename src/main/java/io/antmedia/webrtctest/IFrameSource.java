@@ -0,0 +1,61 @@
+package io.antmedia.webrtctest;
+
+/**
+ * Supplies the encoded audio and video frames that publishers send
+ */
+public interface IFrameSource {
+
+	/**
+	 * Prepares the source. Width, height and frame rate are available after it
+	 * @return false if source cannot be used
+	 */
+	public boolean init();
+
+	/**
+	 * Starts producing the frames if they're not ready after init
+	 */
+	public void start();
+
+	public void stop();
+
+	/**
+	 * @param keyFrameIndex is the index of the key frame in the key frame table that publisher starts from.
+	 * It's ignored if the source cannot start from any key frame
+	 * @return a new cursor over the video frames for a publisher
+	 */
+	public IFrameCursor openVideoCursor(int keyFrameIndex);
+
+	/**
+	 * @param keyFrameIndex is the index of the key frame that video starts from, audio starts at its timestamp
+	 * @return a new cursor over the audio frames for a publisher
+	 */
+	public IFrameCursor openAudioCursor(int keyFrameIndex);
+
+	/**
+	 * @return number of key frames that publishers can start from
+	 */
+	public int getKeyFrameCount();
+
+	/**
+	 * @return mean duration between the key frames
+	 */
+	public long getGopDurationMs();
+
+	public int getWidth();
+
+	public int getHeight();
+
+	/**
+	 * @return average frame rate of the video. It may not be an integer like 29.97
+	 */
+	public double getFrameRate();
+
+	/**
+	 * @return duration that timestamps are increased by when the publishers loop
+	 */
+	public long getLoopDurationMs();
+
+	public boolean hasVideo();
+
+	public boolean hasAudio();
+}
@@ -1,6 +1,9 @@
 package io.antmedia.webrtctest;
 
 public interface IWebRTCEventListerner {
-	public void onCompleted();
+	/**
+	 * Called when the connection of the manager is established or it's failed or closed
+	 */
+	public void onCompleted(WebRTCManager manager);
 	public void onDataChannelMessage(String string);
 }
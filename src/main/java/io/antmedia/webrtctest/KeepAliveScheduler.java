@@ -0,0 +1,232 @@
+package io.antmedia.webrtctest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the keep alive pings of all websocket sessions from one thread.
+ *
+ * Sessions are given phases in the ping period with the golden ratio sequence, so pings are spread evenly
+ * whenever sessions are opened, and every period is jittered so that they do not drift into bursts.
+ * A session that had signalling traffic in the last period is not pinged. Round trip time of every pong
+ * is recorded as the signalling latency, and a ping that is not answered in a period is counted as lost.
+ */
+public class KeepAliveScheduler {
+
+	private static Logger logger = LoggerFactory.getLogger(KeepAliveScheduler.class);
+
+	public static final long PERIOD_MS = 3000;
+
+	/**
+	 * Each period is changed randomly by this ratio
+	 */
+	private static final double JITTER = 0.1;
+
+	private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "keep-alive");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final long periodNanos;
+
+	private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+	private final LatencyHistogram pongRtt = new LatencyHistogram("pong rtt", "ms");
+
+	private final LongAdder sentPings = new LongAdder();
+
+	private final LongAdder skippedPings = new LongAdder();
+
+	private final LongAdder lostPings = new LongAdder();
+
+	private double nextPhase = 0;
+
+	/**
+	 * Keep alive state of a websocket session
+	 */
+	public class Session implements Runnable {
+		private final WebsocketClientEndpoint endpoint;
+		private volatile long lastTrafficNanos;
+		private volatile long pingSentNanos;
+		private volatile boolean pingOutstanding = false;
+		private volatile long smoothedRttMs = -1;
+		private volatile long maxRttMs = 0;
+		private volatile ScheduledFuture<?> future;
+		private volatile boolean cancelled = false;
+
+		private Session(WebsocketClientEndpoint endpoint) {
+			this.endpoint = endpoint;
+			//no traffic yet
+			lastTrafficNanos = System.nanoTime() - periodNanos;
+		}
+
+		@Override
+		public void run() {
+			if (cancelled) {
+				return;
+			}
+			long now = System.nanoTime();
+			expireLostPing(now);
+			if (now - lastTrafficNanos < periodNanos) {
+				skippedPings.increment();
+			}
+			else {
+				ping();
+			}
+
+			long delay = (long) (periodNanos * (1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1)));
+			schedule(delay);
+		}
+
+		/**
+		 * Sends a ping now, e.g. the first ping that a single stream starts with. Periodic pings are not changed
+		 */
+		public void ping() {
+			if (!pingOutstanding) {
+				pingSentNanos = System.nanoTime();
+				pingOutstanding = true;
+			}
+			try {
+				endpoint.sendPingMessage();
+				sentPings.increment();
+			}
+			catch (Exception e) {
+				logger.warn("Cannot send ping {}", e.getMessage());
+			}
+		}
+
+		/**
+		 * A ping that is not answered in a period is lost, so a late pong is not measured from it
+		 */
+		private void expireLostPing(long now) {
+			if (pingOutstanding && now - pingSentNanos > periodNanos) {
+				pingOutstanding = false;
+				lostPings.increment();
+			}
+		}
+
+		private synchronized void schedule(long delayNanos) {
+			if (!cancelled && !scheduler.isShutdown()) {
+				future = scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		/**
+		 * Called for every signalling message other than ping and pong
+		 */
+		public void onTraffic() {
+			lastTrafficNanos = System.nanoTime();
+		}
+
+		public void onPong() {
+			long now = System.nanoTime();
+			expireLostPing(now);
+			if (!pingOutstanding) {
+				return;
+			}
+			long rttMs = TimeUnit.NANOSECONDS.toMillis(now - pingSentNanos);
+			pingOutstanding = false;
+			pongRtt.record(rttMs);
+
+			//smoothed like the tcp srtt
+			long smoothed = smoothedRttMs;
+			smoothedRttMs = smoothed < 0 ? rttMs : (7 * smoothed + rttMs) / 8;
+			if (rttMs > maxRttMs) {
+				maxRttMs = rttMs;
+			}
+		}
+
+		public long getSmoothedRttMs() {
+			return smoothedRttMs;
+		}
+
+		public long getMaxRttMs() {
+			return maxRttMs;
+		}
+
+		public synchronized void cancel() {
+			cancelled = true;
+			if (future != null) {
+				future.cancel(false);
+			}
+			sessions.remove(this);
+		}
+	}
+
+	public KeepAliveScheduler() {
+		this(PERIOD_MS);
+	}
+
+	public KeepAliveScheduler(long periodMs) {
+		periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+	}
+
+	/**
+	 * Starts pinging the session. First ping is sent at the phase of the session, see {@link Session#ping()} 
+	 * to ping immediately
+	 */
+	public Session register(WebsocketClientEndpoint endpoint) {
+		Session session = new Session(endpoint);
+		sessions.add(session);
+		long delay;
+		synchronized (this) {
+			delay = (long) (nextPhase * periodNanos);
+			nextPhase = (nextPhase + GOLDEN_RATIO_FRACTION) % 1;
+		}
+		session.schedule(delay);
+		return session;
+	}
+
+	public LatencyHistogram getPongRtt() {
+		return pongRtt;
+	}
+
+	public long getSentPings() {
+		return sentPings.sum();
+	}
+
+	public long getSkippedPings() {
+		return skippedPings.sum();
+	}
+
+	/**
+	 * @return number of pings that are not answered in a period
+	 */
+	public long getLostPings() {
+		return lostPings.sum();
+	}
+
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return the session that has the highest smoothed round trip time or null if no pong is received
+	 */
+	public Session getWorstSession() {
+		Session worst = null;
+		for (Session session : sessions) {
+			if (session.smoothedRttMs >= 0 && (worst == null || session.smoothedRttMs > worst.smoothedRttMs)) {
+				worst = session;
+			}
+		}
+		return worst;
+	}
+
+	public void stop() {
+		scheduler.shutdownNow();
+		sessions.clear();
+	}
+}
@@ -0,0 +1,95 @@
+package io.antmedia.webrtctest;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Indices and timestamps of the key frames in the video frames of a source. 
+ * It's filled by one thread while demuxing and it can be read by other threads at the same time.
+ */
+public class KeyFrameTable {
+
+	private volatile int[] frameIndices = new int[16];
+	private volatile long[] timeStamps = new long[16];
+	private volatile int count = 0;
+
+	/**
+	 * Called by one thread for each key frame in order
+	 */
+	public void add(int frameIndex, long timeStamp) {
+		int[] indices = frameIndices;
+		long[] stamps = timeStamps;
+		if (count == indices.length) {
+			indices = Arrays.copyOf(indices, indices.length * 2);
+			stamps = Arrays.copyOf(stamps, stamps.length * 2);
+		}
+		indices[count] = frameIndex;
+		stamps[count] = timeStamp;
+		frameIndices = indices;
+		timeStamps = stamps;
+		//count is written last so that readers see the arrays with the new entry
+		count++;
+	}
+
+	/**
+	 * Adds the key frames in the list
+	 */
+	public void addAll(List<FileReader.Frame> videoFrames) {
+		for (int i = 0; i < videoFrames.size(); i++) {
+			if (videoFrames.get(i).isKeyFrame) {
+				add(i, videoFrames.get(i).timeStamp);
+			}
+		}
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return index of the key frame in the video frames or 0 if there is no such key frame
+	 */
+	public int getFrameIndex(int keyFrameIndex) {
+		int size = count;
+		return keyFrameIndex >= 0 && keyFrameIndex < size ? frameIndices[keyFrameIndex] : 0;
+	}
+
+	/**
+	 * @return timestamp of the key frame or -1 if there is no such key frame
+	 */
+	public long getTimeStamp(int keyFrameIndex) {
+		int size = count;
+		return keyFrameIndex >= 0 && keyFrameIndex < size ? timeStamps[keyFrameIndex] : -1;
+	}
+
+	/**
+	 * @return mean duration between the key frames or given default if there are less than two key frames
+	 */
+	public long getMeanGopDurationMs(long defaultDurationMs) {
+		int size = count;
+		if (size < 2) {
+			return defaultDurationMs;
+		}
+		long duration = (timeStamps[size - 1] - timeStamps[0]) / (size - 1);
+		return duration > 0 ? duration : defaultDurationMs;
+	}
+
+	/**
+	 * @return index of the first frame whose timestamp is not earlier than given timestamp. 
+	 * Frames should be in timestamp order
+	 */
+	public static int findFrameIndex(List<FileReader.Frame> frames, long timeStamp) {
+		int low = 0;
+		int high = frames.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (frames.get(middle).timeStamp < timeStamp) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,124 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram in HDR histogram style.
+ *
+ * Values are put into buckets whose width grows with the power of two of the value, and each power of two
+ * is divided into linear sub buckets, so relative error is less than 7%.
+ * Recording is lock free and does not allocate, so it can be called from the media and signalling threads.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final String name;
+	private final String unit;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+	private final AtomicLong maxValue = new AtomicLong();
+
+	public LatencyHistogram(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+	}
+
+	/**
+	 * Records the value. Negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketIndex(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+
+		long max = maxValue.get();
+		while (value > max && !maxValue.compareAndSet(max, value)) {
+			max = maxValue.get();
+		}
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+		int subBucket = (int) (value >>> exponent) & (SUB_BUCKET_COUNT - 1);
+		return (exponent << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * @return the highest value that falls into the bucket
+	 */
+	static long bucketUpperBound(int index) {
+		int exponent = index >>> SUB_BUCKET_BITS;
+		long subBucket = index & (SUB_BUCKET_COUNT - 1);
+		if (exponent == 0) {
+			return subBucket;
+		}
+		return ((subBucket + 1) << exponent) - 1;
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	public long getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : totalSum.get() / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the value that given percent of the recorded values are less than or equal to
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(bucketUpperBound(i), maxValue.get());
+			}
+		}
+		return maxValue.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String toString() {
+		return name + " count:" + getCount() + " mean:" + getMean() + unit
+				+ " p50:" + getValueAtPercentile(50) + unit
+				+ " p90:" + getValueAtPercentile(90) + unit
+				+ " p99:" + getValueAtPercentile(99) + unit
+				+ " max:" + getMax() + unit;
+	}
+}
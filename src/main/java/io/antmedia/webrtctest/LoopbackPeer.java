@@ -0,0 +1,318 @@
+package io.antmedia.webrtctest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webrtc.AudioSource;
+import org.webrtc.DataChannel;
+import org.webrtc.EncodedImage;
+import org.webrtc.IceCandidate;
+import org.webrtc.MediaConstraints;
+import org.webrtc.MediaStream;
+import org.webrtc.NaluIndex;
+import org.webrtc.PeerConnection;
+import org.webrtc.PeerConnection.IceConnectionState;
+import org.webrtc.PeerConnection.IceGatheringState;
+import org.webrtc.PeerConnection.Observer;
+import org.webrtc.PeerConnection.SdpSemantics;
+import org.webrtc.PeerConnection.SignalingState;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.RtpReceiver;
+import org.webrtc.SdpObserver;
+import org.webrtc.SessionDescription;
+import org.webrtc.VideoSource;
+
+import io.antmedia.enterprise.webrtc.codec.CodecBinding;
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoDecoder;
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoEncoder;
+
+/**
+ * Server side peer of a stream in the loopback server.
+ *
+ * Publisher peer answers the offer of the publishing client and passes the frames it receives to the server.
+ * Player peer offers to the playing client and sends the frames that the server forwards to it.
+ * State is changed in the signalling lane of the session, callbacks of the peer connection are posted there.
+ */
+public class LoopbackPeer implements Observer, SdpObserver {
+
+	private static Logger logger = LoggerFactory.getLogger(LoopbackPeer.class);
+
+	private final LoopbackServerEndpoint endpoint;
+	private final LoopbackServer server;
+	private final String streamId;
+	private final boolean publisher;
+
+	private PeerConnection peerConnection;
+	private AudioSource audioSource;
+	private VideoSource videoSource;
+	private final List<IceCandidate> pendingCandidates = new ArrayList<>();
+	private boolean remoteDescriptionSet = false;
+	private boolean disposed = false;
+
+	/**
+	 * Encoder of the player peer. It's null until it's created and after the peer is disposed
+	 */
+	private VirtualVideoEncoder encoder;
+
+	/**
+	 * Player waits for a key frame before it sends anything
+	 */
+	private boolean keyFrameSent = false;
+
+	/**
+	 * Binding key of the peer in the shared factories of the server, see {@link CodecBinding}
+	 */
+	private final String codecKey = CodecBinding.newKey();
+
+	private final Consumer<VirtualVideoEncoder> encoderClaim = this::bindEncoder;
+
+	private final Consumer<VirtualVideoDecoder> decoderClaim = decoder -> decoder.subscribe(new IPacketListener() {
+		@Override
+		public void onEncodedImage(EncodedImage frame) {
+			server.forward(streamId, frame);
+		}
+
+		@Override
+		public void onDecoderSettings(int width, int height) {
+			logger.info("Loopback publisher of stream {} is {}x{}", streamId, width, height);
+		}
+	});
+
+	public LoopbackPeer(LoopbackServerEndpoint endpoint, LoopbackServer server, String streamId, boolean publisher) {
+		this.endpoint = endpoint;
+		this.server = server;
+		this.streamId = streamId;
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Creates the peer connection. Player peer sends its offer after it's created
+	 */
+	public void create() {
+		PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(Collections.emptyList());
+		rtcConfig.enableDtlsSrtp = true;
+		rtcConfig.disableIpv6 = true;
+		rtcConfig.sdpSemantics = server.getSettings().mainTrack != null ? SdpSemantics.UNIFIED_PLAN : SdpSemantics.PLAN_B;
+
+		if (publisher) {
+			server.getDecoderFactory().claimDecoder(codecKey, decoderClaim);
+			peerConnection = server.getReceiveFactory().createPeerConnection(rtcConfig, this);
+			return;
+		}
+
+		PeerConnectionFactory factory = server.getSendFactory();
+		server.getEncoderFactory().claimEncoder(codecKey, encoderClaim);
+		peerConnection = factory.createPeerConnection(rtcConfig, this);
+
+		List<String> mediaStreamLabels = Collections.singletonList("ARDAMS");
+		videoSource = factory.createVideoSource(false);
+		peerConnection.addTrack(factory.createVideoTrack(WebRTCManager.VIDEO_TRACK_ID + streamId, videoSource), mediaStreamLabels);
+		//audio track is negotiated but it's silent, only video is forwarded
+		audioSource = factory.createAudioSource(new MediaConstraints());
+		peerConnection.addTrack(factory.createAudioTrack(WebRTCManager.AUDIO_TRACK_ID + streamId, audioSource), mediaStreamLabels);
+
+		MediaConstraints constraints = new MediaConstraints();
+		constraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveAudio", "false"));
+		constraints.mandatory.add(new MediaConstraints.KeyValuePair("OfferToReceiveVideo", "false"));
+		peerConnection.createOffer(this, constraints);
+	}
+
+	public void setRemoteDescription(SessionDescription sdp) {
+		if (peerConnection != null) {
+			peerConnection.setRemoteDescription(this, bindCodecs(sdp));
+		}
+	}
+
+	public void addIceCandidate(IceCandidate candidate) {
+		if (!remoteDescriptionSet) {
+			pendingCandidates.add(candidate);
+		}
+		else if (!peerConnection.addIceCandidate(candidate)) {
+			logger.warn("Candidate cannot be added to loopback peer of stream {}", streamId);
+		}
+	}
+
+	/**
+	 * @return the description tagged with the key of the peer, so that the shared factories bind its codec to this peer
+	 */
+	private SessionDescription bindCodecs(SessionDescription sdp) {
+		return new SessionDescription(sdp.type, CodecBinding.tag(sdp.description, codecKey));
+	}
+
+	private synchronized void bindEncoder(VirtualVideoEncoder encoder) {
+		if (!disposed) {
+			this.encoder = encoder;
+		}
+	}
+
+	/**
+	 * Sends a forwarded frame. It's called in the decoding thread of the publisher peer
+	 */
+	public synchronized void sendFrame(ByteBuffer buffer, boolean isKeyFrame, long timestampNs, int rotation, List<NaluIndex> naluIndices) {
+		if (encoder == null || (!keyFrameSent && !isKeyFrame)) {
+			return;
+		}
+		keyFrameSent = true;
+		encoder.setEncodedFrameBuffer(buffer, isKeyFrame, timestampNs, rotation, naluIndices, "0");
+	}
+
+	public void dispose() {
+		synchronized (this) {
+			if (disposed) {
+				return;
+			}
+			//frames are not sent to the encoder after this point
+			disposed = true;
+			encoder = null;
+		}
+		server.getDecoderFactory().cancelClaim(codecKey);
+		server.getEncoderFactory().cancelClaim(codecKey);
+		server.removePeer(this);
+		if (peerConnection != null) {
+			peerConnection.dispose();
+			peerConnection = null;
+		}
+		if (videoSource != null) {
+			videoSource.dispose();
+			videoSource = null;
+		}
+		if (audioSource != null) {
+			audioSource.dispose();
+			audioSource = null;
+		}
+	}
+
+	public String getStreamId() {
+		return streamId;
+	}
+
+	public boolean isPublisher() {
+		return publisher;
+	}
+
+	public LoopbackServerEndpoint getEndpoint() {
+		return endpoint;
+	}
+
+	@Override
+	public void onCreateSuccess(SessionDescription sdp) {
+		endpoint.execute(() -> {
+			if (peerConnection == null) {
+				return;
+			}
+			peerConnection.setLocalDescription(new SdpObserver() {
+				@Override
+				public void onSetSuccess() {
+					endpoint.sendTakeConfiguration(CodecBinding.strip(sdp.description), publisher ? "answer" : "offer", streamId);
+				}
+
+				@Override
+				public void onSetFailure(String error) {
+					logger.error("Cannot set local description of loopback peer of stream {} error:{}", streamId, error);
+				}
+
+				@Override
+				public void onCreateSuccess(SessionDescription sdp) {
+					// no need
+				}
+
+				@Override
+				public void onCreateFailure(String error) {
+					// no need
+				}
+			}, bindCodecs(sdp));
+		});
+	}
+
+	@Override
+	public void onSetSuccess() {
+		endpoint.execute(() -> {
+			if (peerConnection == null) {
+				return;
+			}
+			remoteDescriptionSet = true;
+			for (IceCandidate candidate : pendingCandidates) {
+				addIceCandidate(candidate);
+			}
+			pendingCandidates.clear();
+			if (publisher) {
+				peerConnection.createAnswer(this, new MediaConstraints());
+			}
+		});
+	}
+
+	@Override
+	public void onCreateFailure(String error) {
+		logger.error("Cannot create description of loopback peer of stream {} error:{}", streamId, error);
+	}
+
+	@Override
+	public void onSetFailure(String error) {
+		logger.error("Cannot set remote description of loopback peer of stream {} error:{}", streamId, error);
+	}
+
+	@Override
+	public void onIceCandidate(IceCandidate candidate) {
+		endpoint.execute(() -> endpoint.sendTakeCandidate(candidate.sdpMLineIndex, candidate.sdpMid, candidate.sdp, streamId));
+	}
+
+	@Override
+	public void onIceConnectionChange(IceConnectionState newState) {
+		logger.info("Loopback peer of stream {} ice connection state:{}", streamId, newState);
+		if (newState == IceConnectionState.CONNECTED) {
+			endpoint.execute(() -> endpoint.sendStarted(this));
+		}
+	}
+
+	@Override
+	public void onSignalingChange(SignalingState newState) {
+		logger.debug("Loopback peer of stream {} signalling state:{}", streamId, newState);
+	}
+
+	@Override
+	public void onIceConnectionReceivingChange(boolean receiving) {
+		logger.debug("Loopback peer of stream {} receiving:{}", streamId, receiving);
+	}
+
+	@Override
+	public void onIceGatheringChange(IceGatheringState newState) {
+		logger.debug("Loopback peer of stream {} ice gathering state:{}", streamId, newState);
+	}
+
+	@Override
+	public void onIceCandidatesRemoved(IceCandidate[] candidates) {
+		// no need
+	}
+
+	@Override
+	public void onAddStream(MediaStream stream) {
+		// frames are received with the decoder
+	}
+
+	@Override
+	public void onRemoveStream(MediaStream stream) {
+		// no need
+	}
+
+	@Override
+	public void onDataChannel(DataChannel dataChannel) {
+		//data channel messages are not relayed
+		dataChannel.close();
+		dataChannel.dispose();
+	}
+
+	@Override
+	public void onRenegotiationNeeded() {
+		// no need
+	}
+
+	@Override
+	public void onAddTrack(RtpReceiver receiver, MediaStream[] mediaStreams) {
+		// no need
+	}
+}
@@ -0,0 +1,136 @@
+package io.antmedia.webrtctest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scripted rejections and delays of the loopback server.
+ *
+ * Each line is a rule and lines starting with # are comments:
+ * <pre>
+ * reject &lt;publish|play|joinRoom&gt; &lt;definition&gt; &lt;probability&gt; [count]
+ * delay &lt;command&gt; &lt;min ms&gt; [max ms]
+ * </pre>
+ * A rejection replies the request with an error of the definition, e.g. highResourceUsage, at most count times
+ * if count is given. A delay holds the outgoing messages of the command, e.g. pong, start, takeConfiguration or
+ * takeCandidate, for a uniformly random time between min and max.
+ */
+public class LoopbackScript {
+
+	private static class Rejection {
+		private final String request;
+		private final String definition;
+		private final double probability;
+
+		/**
+		 * Remaining number of rejections, negative for no limit
+		 */
+		private final AtomicLong remaining;
+
+		private Rejection(String request, String definition, double probability, long count) {
+			this.request = request;
+			this.definition = definition;
+			this.probability = probability;
+			this.remaining = new AtomicLong(count);
+		}
+
+		private boolean tryReject() {
+			if (ThreadLocalRandom.current().nextDouble() >= probability) {
+				return false;
+			}
+			return remaining.get() < 0 || remaining.getAndUpdate(value -> value > 0 ? value - 1 : value) > 0;
+		}
+	}
+
+	private final List<Rejection> rejections;
+
+	/**
+	 * Min and max delay of each command
+	 */
+	private final Map<String, long[]> delays;
+
+	private LoopbackScript(List<Rejection> rejections, Map<String, long[]> delays) {
+		this.rejections = rejections;
+		this.delays = delays;
+	}
+
+	/**
+	 * @return a script that accepts every request without delay
+	 */
+	public static LoopbackScript empty() {
+		return new LoopbackScript(Collections.emptyList(), Collections.emptyMap());
+	}
+
+	public static LoopbackScript load(String path) throws IOException {
+		return parse(Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if a rule cannot be parsed
+	 */
+	public static LoopbackScript parse(List<String> lines) {
+		List<Rejection> rejections = new ArrayList<>();
+		Map<String, long[]> delays = new HashMap<>();
+		for (String line : lines) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			try {
+				if (parts[0].equals("reject")) {
+					double probability = Double.parseDouble(parts[3]);
+					long count = parts.length > 4 ? Long.parseLong(parts[4]) : -1;
+					rejections.add(new Rejection(parts[1], parts[2], probability, count));
+				}
+				else if (parts[0].equals("delay")) {
+					long min = Long.parseLong(parts[2]);
+					long max = parts.length > 3 ? Long.parseLong(parts[3]) : min;
+					if (min < 0 || max < min) {
+						throw new IllegalArgumentException("Delay range is not valid in line: " + line);
+					}
+					delays.put(parts[1], new long[] {min, max});
+				}
+				else {
+					throw new IllegalArgumentException("Unknown rule in line: " + line);
+				}
+			}
+			catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+				throw new IllegalArgumentException("Cannot parse line: " + line, e);
+			}
+		}
+		return new LoopbackScript(rejections, delays);
+	}
+
+	/**
+	 * @return error definition to reject the request with or null to accept it
+	 */
+	public String getRejection(String request) {
+		for (Rejection rejection : rejections) {
+			if (rejection.request.equals(request) && rejection.tryReject()) {
+				return rejection.definition;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return delay of the outgoing message of the command in milliseconds
+	 */
+	public long getDelayMs(String command) {
+		long[] delay = delays.get(command);
+		if (delay == null) {
+			return 0;
+		}
+		return delay[0] == delay[1] ? delay[0] : ThreadLocalRandom.current().nextLong(delay[0], delay[1] + 1);
+	}
+}
@@ -0,0 +1,262 @@
+package io.antmedia.webrtctest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.websocket.DeploymentException;
+
+import org.glassfish.tyrus.server.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webrtc.EncodedImage;
+import org.webrtc.NaluIndex;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoDecoderFactory;
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoEncoderFactory;
+import io.antmedia.webrtc.VideoCodec;
+
+/**
+ * Stand-in for Ant Media Server that runs in the same process, so the client side can be benchmarked
+ * without a network.
+ *
+ * It speaks the subset of the websocket protocol that the tool uses and keeps a libwebrtc peer on loopback
+ * for each publisher and player. Video frames of a publisher are forwarded to its players without decoding,
+ * like an SFU. Requests can be rejected and outgoing messages can be delayed by a {@link LoopbackScript}.
+ *
+ * There is one server in a process, which is shared by the clients that acquire it. Publishers and players
+ * of a stream can use the same server if their starters run in the same process.
+ */
+public class LoopbackServer {
+
+	private static Logger logger = LoggerFactory.getLogger(LoopbackServer.class);
+
+	public static final String APPLICATION_PATH = "/WebRTCAppEE";
+
+	private static LoopbackServer current;
+
+	private final int port;
+	private final Settings settings;
+	private final LoopbackScript script;
+	private int users = 0;
+
+	private Server server;
+
+	private JavaAudioDeviceModule receiveAdm;
+	private VirtualVideoDecoderFactory decoderFactory;
+	private PeerConnectionFactory receiveFactory;
+
+	private JavaAudioDeviceModule sendAdm;
+	private VirtualVideoEncoderFactory encoderFactory;
+	private PeerConnectionFactory sendFactory;
+
+	private final Map<String, LoopbackPeer> publishers = new ConcurrentHashMap<>();
+	private final Map<String, Set<LoopbackPeer>> players = new ConcurrentHashMap<>();
+
+	/**
+	 * Sends the delayed messages of all sessions
+	 */
+	private final ScheduledExecutorService delayExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "loopback-delay");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final LongAdder sessions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder forwardedFrames = new LongAdder();
+
+	private LoopbackServer(int port, Settings settings, LoopbackScript script) {
+		this.port = port;
+		this.settings = settings;
+		this.script = script;
+	}
+
+	/**
+	 * Starts the server on the loopback port of the settings or uses the one that is already started
+	 */
+	public static synchronized LoopbackServer acquire(Settings settings) throws IOException, DeploymentException {
+		if (current == null) {
+			LoopbackScript script = settings.loopbackScript != null ? LoopbackScript.load(settings.loopbackScript) : LoopbackScript.empty();
+			LoopbackServer loopbackServer = new LoopbackServer(settings.loopbackPort, settings, script);
+			loopbackServer.start();
+			current = loopbackServer;
+		}
+		else if (current.port != settings.loopbackPort) {
+			throw new IllegalStateException("Loopback server is already started on port " + current.port);
+		}
+		current.users++;
+		return current;
+	}
+
+	/**
+	 * Stops the server after the last user releases it
+	 */
+	public static synchronized void release(LoopbackServer loopbackServer) {
+		if (loopbackServer == current && --current.users == 0) {
+			current.stop();
+			current = null;
+		}
+	}
+
+	static synchronized LoopbackServer getCurrent() {
+		return current;
+	}
+
+	private void start() throws DeploymentException {
+		PeerConnectionFactoryPool.initialize();
+		//peers of the server and the clients connect over the loopback adapter
+		PeerConnectionFactoryPool.setLoopbackNetworkEnabled(true);
+
+		boolean h264 = settings.codec == VideoCodec.H264;
+		boolean vp8 = settings.codec == VideoCodec.VP8;
+		boolean h265 = settings.codec == VideoCodec.H265;
+
+		decoderFactory = new VirtualVideoDecoderFactory(h264, vp8, h265, true);
+		receiveAdm = PeerConnectionFactoryPool.createAudioDeviceModule(false, "loopback-receive");
+		receiveFactory = PeerConnectionFactoryPool.createFactory(receiveAdm, new VirtualVideoEncoderFactory(h264, vp8, h265), decoderFactory);
+
+		encoderFactory = new VirtualVideoEncoderFactory(h264, vp8, h265, true);
+		sendAdm = PeerConnectionFactoryPool.createAudioDeviceModule(true, "loopback-send");
+		sendFactory = PeerConnectionFactoryPool.createFactory(sendAdm, encoderFactory, new VirtualVideoDecoderFactory(h264, vp8, h265));
+
+		server = new Server("localhost", port, APPLICATION_PATH, null, LoopbackServerEndpoint.class);
+		server.start();
+		logger.info("Loopback server is started on port {}", port);
+	}
+
+	private void stop() {
+		server.stop();
+		delayExecutor.shutdownNow();
+		logger.info("Loopback server is stopped. sessions:{} rejections:{} forwarded frames:{}", getSessionCount(),
+				getRejectionCount(), getForwardedFrames());
+		//peers are disposed when their sessions are closed
+		receiveFactory.dispose();
+		receiveAdm.release();
+		sendFactory.dispose();
+		sendAdm.release();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	Settings getSettings() {
+		return settings;
+	}
+
+	LoopbackScript getScript() {
+		return script;
+	}
+
+	PeerConnectionFactory getReceiveFactory() {
+		return receiveFactory;
+	}
+
+	PeerConnectionFactory getSendFactory() {
+		return sendFactory;
+	}
+
+	VirtualVideoDecoderFactory getDecoderFactory() {
+		return decoderFactory;
+	}
+
+	VirtualVideoEncoderFactory getEncoderFactory() {
+		return encoderFactory;
+	}
+
+	void schedule(Runnable task, long delayNanos) {
+		if (!delayExecutor.isShutdown()) {
+			delayExecutor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	void onSessionOpened() {
+		sessions.increment();
+	}
+
+	void onRejected() {
+		rejections.increment();
+	}
+
+	/**
+	 * @return false if there is already a publisher of the stream
+	 */
+	boolean addPublisher(LoopbackPeer publisher) {
+		return publishers.putIfAbsent(publisher.getStreamId(), publisher) == null;
+	}
+
+	boolean hasPublisher(String streamId) {
+		return publishers.containsKey(streamId);
+	}
+
+	void addPlayer(LoopbackPeer player) {
+		players.computeIfAbsent(player.getStreamId(), key -> ConcurrentHashMap.newKeySet()).add(player);
+	}
+
+	/**
+	 * Removes the peer. If it's the publisher, players of the stream are finished
+	 */
+	void removePeer(LoopbackPeer peer) {
+		if (peer.isPublisher()) {
+			if (publishers.remove(peer.getStreamId(), peer)) {
+				Set<LoopbackPeer> streamPlayers = players.remove(peer.getStreamId());
+				if (streamPlayers != null) {
+					for (LoopbackPeer player : streamPlayers) {
+						player.getEndpoint().finishPlay(player);
+					}
+				}
+			}
+		}
+		else {
+			Set<LoopbackPeer> streamPlayers = players.get(peer.getStreamId());
+			if (streamPlayers != null) {
+				streamPlayers.remove(peer);
+			}
+		}
+	}
+
+	/**
+	 * Sends the frame that publisher peer receives to the players of the stream. It's called in the decoding thread
+	 * of the publisher peer, so the frame buffer is valid during the call
+	 */
+	void forward(String streamId, EncodedImage frame) {
+		Set<LoopbackPeer> streamPlayers = players.get(streamId);
+		if (streamPlayers == null || streamPlayers.isEmpty()) {
+			return;
+		}
+		boolean isKeyFrame = frame.frameType == EncodedImage.FrameType.VideoFrameKey;
+		//built once and shared by the players, it must not be changed
+		List<NaluIndex> naluIndices = settings.codec == VideoCodec.VP8 ? Collections.emptyList()
+				: NaluIndexer.toNaluIndexList(NaluIndexer.findNaluIndices(frame.buffer));
+		//frames are timed on arrival like an SFU does
+		long timestampNs = System.nanoTime();
+		for (LoopbackPeer player : streamPlayers) {
+			ByteBuffer view = frame.buffer.duplicate();
+			player.sendFrame(view, isKeyFrame, timestampNs, frame.rotation, naluIndices);
+		}
+		forwardedFrames.increment();
+	}
+
+	public long getSessionCount() {
+		return sessions.sum();
+	}
+
+	public long getRejectionCount() {
+		return rejections.sum();
+	}
+
+	public long getForwardedFrames() {
+		return forwardedFrames.sum();
+	}
+}
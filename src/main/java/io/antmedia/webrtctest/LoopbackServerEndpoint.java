@@ -0,0 +1,273 @@
+package io.antmedia.webrtctest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webrtc.IceCandidate;
+import org.webrtc.SessionDescription;
+
+import io.antmedia.websocket.WebSocketConstants;
+
+/**
+ * Websocket session of a client in the loopback server. Messages and peer callbacks of the session
+ * are processed in order in the signalling lane of the session.
+ */
+@ServerEndpoint("/websocket")
+public class LoopbackServerEndpoint {
+
+	private static Logger logger = LoggerFactory.getLogger(LoopbackServerEndpoint.class);
+
+	private final SignallingCodec.Message decodedMessage = new SignallingCodec.Message();
+
+	/**
+	 * Lane of the session in the shared striped executor
+	 */
+	private ScheduledExecutorService signallingExecutor;
+
+	/**
+	 * Peers of the streams in this session
+	 */
+	private final Map<String, LoopbackPeer> peers = new HashMap<>();
+
+	private LoopbackServer server;
+	private volatile Session session;
+
+	/**
+	 * Messages are sent in order, a message is not sent before the delayed ones
+	 */
+	private long lastSendNanos = 0;
+
+	@OnOpen
+	public void onOpen(Session session) {
+		this.session = session;
+		signallingExecutor = StripedExecutor.getShared().getLane(session.getId());
+		server = LoopbackServer.getCurrent();
+		server.onSessionOpened();
+	}
+
+	@OnMessage
+	public void onMessage(String message) {
+		execute(() -> {
+			if (!SignallingCodec.decode(message, decodedMessage) || decodedMessage.getCommand() == null) {
+				logger.warn("Loopback server cannot parse message:{}", message);
+				return;
+			}
+			processMessage(decodedMessage);
+		});
+	}
+
+	@OnClose
+	public void onClose(Session session) {
+		execute(() -> {
+			for (LoopbackPeer peer : new ArrayList<>(peers.values())) {
+				peer.dispose();
+			}
+			peers.clear();
+		});
+	}
+
+	@OnError
+	public void onError(Session session, Throwable throwable) {
+		logger.warn("Loopback session error {}", throwable.getMessage());
+	}
+
+	void execute(Runnable task) {
+		try {
+			signallingExecutor.execute(task);
+		}
+		catch (RejectedExecutionException e) {
+			logger.debug("Loopback session is closed");
+		}
+	}
+
+	private void processMessage(SignallingCodec.Message message) {
+		String streamId = message.getStreamId();
+		LoopbackPeer peer = streamId != null ? peers.get(streamId) : null;
+
+		switch (message.getCommand()) {
+		case WebSocketConstants.PING_COMMAND:
+			sendCommand(WebSocketConstants.PONG_COMMAND, null);
+			break;
+		case WebSocketConstants.PUBLISH_COMMAND:
+			if (!isRejected(WebSocketConstants.PUBLISH_COMMAND, streamId)) {
+				publish(streamId);
+			}
+			break;
+		case WebSocketConstants.PLAY_COMMAND:
+			if (!isRejected(WebSocketConstants.PLAY_COMMAND, streamId)) {
+				play(streamId);
+			}
+			break;
+		case WebSocketConstants.JOIN_ROOM_COMMAND:
+			if (!isRejected(WebSocketConstants.JOIN_ROOM_COMMAND, streamId)) {
+				sendNotification(WebSocketConstants.JOINED_THE_ROOM, streamId);
+			}
+			break;
+		case WebSocketConstants.TAKE_CONFIGURATION_COMMAND:
+			if (peer != null) {
+				SessionDescription.Type type = "offer".equals(message.getType()) ? SessionDescription.Type.OFFER : SessionDescription.Type.ANSWER;
+				peer.setRemoteDescription(new SessionDescription(type, message.getSdp()));
+			}
+			break;
+		case WebSocketConstants.TAKE_CANDIDATE_COMMAND:
+			if (peer != null) {
+				peer.addIceCandidate(new IceCandidate(message.getCandidateId(), (int) message.getCandidateLabel(), message.getCandidateSdp()));
+			}
+			break;
+		case WebSocketConstants.STOP_COMMAND:
+			if (peer != null) {
+				peers.remove(streamId);
+				peer.dispose();
+				if (peer.isPublisher()) {
+					sendNotification(WebSocketConstants.PUBLISH_FINISHED, streamId);
+				}
+			}
+			break;
+		default:
+			logger.debug("Loopback server ignores command:{}", message.getCommand());
+		}
+	}
+
+	private boolean isRejected(String request, String streamId) {
+		if (streamId == null || streamId.isEmpty()) {
+			sendError(WebSocketConstants.NO_STREAM_ID_SPECIFIED, null);
+			return true;
+		}
+		String definition = server.getScript().getRejection(request);
+		if (definition != null) {
+			server.onRejected();
+			sendError(definition, streamId);
+			return true;
+		}
+		return false;
+	}
+
+	private void publish(String streamId) {
+		if (peers.containsKey(streamId)) {
+			//start again, e.g. client is re-signalling on the same session
+			peers.remove(streamId).dispose();
+		}
+		LoopbackPeer publisher = new LoopbackPeer(this, server, streamId, true);
+		if (!server.addPublisher(publisher)) {
+			sendError(WebSocketConstants.STREAM_ID_IN_USE, streamId);
+			return;
+		}
+		peers.put(streamId, publisher);
+		publisher.create();
+		sendCommand(WebSocketConstants.START_COMMAND, streamId);
+	}
+
+	private void play(String streamId) {
+		if (!server.hasPublisher(streamId)) {
+			sendError(WebSocketConstants.NO_STREAM_EXIST, streamId);
+			return;
+		}
+		if (peers.containsKey(streamId)) {
+			peers.remove(streamId).dispose();
+		}
+		LoopbackPeer player = new LoopbackPeer(this, server, streamId, false);
+		peers.put(streamId, player);
+		server.addPlayer(player);
+		player.create();
+	}
+
+	/**
+	 * Finishes the player peer after its publisher is stopped
+	 */
+	void finishPlay(LoopbackPeer player) {
+		execute(() -> {
+			if (peers.remove(player.getStreamId(), player)) {
+				player.dispose();
+				sendNotification(WebSocketConstants.PLAY_FINISHED, player.getStreamId());
+			}
+		});
+	}
+
+	void sendStarted(LoopbackPeer peer) {
+		if (peers.get(peer.getStreamId()) == peer) {
+			sendNotification(peer.isPublisher() ? WebSocketConstants.PUBLISH_STARTED : WebSocketConstants.PLAY_STARTED, peer.getStreamId());
+		}
+	}
+
+	void sendTakeConfiguration(String description, String type, String streamId) {
+		send(WebSocketConstants.TAKE_CONFIGURATION_COMMAND, SignallingCodec.encodeTakeConfiguration(description, type, streamId));
+	}
+
+	void sendTakeCandidate(long sdpMLineIndex, String sdpMid, String sdp, String streamId) {
+		send(WebSocketConstants.TAKE_CANDIDATE_COMMAND, SignallingCodec.encodeTakeCandidate(sdpMLineIndex, sdpMid, sdp, streamId));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sendCommand(String command, String streamId) {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put(WebSocketConstants.COMMAND, command);
+		if (streamId != null) {
+			jsonObject.put(WebSocketConstants.STREAM_ID, streamId);
+		}
+		send(command, jsonObject.toJSONString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sendNotification(String definition, String streamId) {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put(WebSocketConstants.COMMAND, WebSocketConstants.NOTIFICATION_COMMAND);
+		jsonObject.put(WebSocketConstants.DEFINITION, definition);
+		jsonObject.put(WebSocketConstants.STREAM_ID, streamId);
+		send(definition, jsonObject.toJSONString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private void sendError(String definition, String streamId) {
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put(WebSocketConstants.COMMAND, WebSocketConstants.ERROR_COMMAND);
+		jsonObject.put(WebSocketConstants.DEFINITION, definition);
+		if (streamId != null) {
+			jsonObject.put(WebSocketConstants.STREAM_ID, streamId);
+		}
+		send(WebSocketConstants.ERROR_COMMAND, jsonObject.toJSONString());
+	}
+
+	/**
+	 * Sends the message after the scripted delay of its command, notifications are delayed by their definition
+	 */
+	private void send(String command, String message) {
+		long now = System.nanoTime();
+		long sendNanos = Math.max(now + TimeUnit.MILLISECONDS.toNanos(server.getScript().getDelayMs(command)), lastSendNanos);
+		lastSendNanos = sendNanos;
+		if (sendNanos <= now) {
+			sendNow(message);
+		}
+		else {
+			server.schedule(() -> sendNow(message), sendNanos - now);
+		}
+	}
+
+	private void sendNow(String message) {
+		Session currentSession = session;
+		if (currentSession == null || !currentSession.isOpen()) {
+			return;
+		}
+		synchronized (this) {
+			try {
+				currentSession.getBasicRemote().sendText(message);
+			} catch (IOException e) {
+				logger.warn("Loopback server cannot send message {}", e.getMessage());
+			}
+		}
+	}
+}
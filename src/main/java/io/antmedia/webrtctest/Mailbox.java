@@ -0,0 +1,272 @@
+package io.antmedia.webrtctest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ordered mailbox of a client that runs its tasks one at a time on a shared executor, e.g. virtual threads.
+ *
+ * A mailbox does not hold a thread while it's empty. When a task is posted to an idle mailbox, a drain of the
+ * mailbox is started on the executor and it runs the tasks in order until the mailbox is empty. Delayed tasks
+ * wait in a timer that is shared by all mailboxes and they're posted to their mailbox at their time.
+ *
+ * Virtual threads are created by reflection, so the tool still builds and runs with Java 11.
+ */
+public class Mailbox extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private static Logger logger = LoggerFactory.getLogger(Mailbox.class);
+
+	private static ScheduledThreadPoolExecutor timer;
+
+	private static Executor virtualThreadExecutor;
+
+	private static boolean virtualThreadExecutorCreated = false;
+
+	private final Executor executor;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * True while a drain of this mailbox is scheduled or running
+	 */
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	private volatile boolean shutdown = false;
+
+	/**
+	 * Task that is posted to the mailbox after its delay
+	 */
+	private class DelayedTask<V> implements ScheduledFuture<V> {
+		private final FutureTask<V> task;
+		private volatile ScheduledFuture<?> timerFuture;
+
+		private DelayedTask(Callable<V> callable) {
+			task = new FutureTask<>(callable);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return timerFuture.getDelay(unit);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			timerFuture.cancel(false);
+			return task.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return task.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return task.isDone();
+		}
+
+		@Override
+		public V get() throws InterruptedException, ExecutionException {
+			return task.get();
+		}
+
+		@Override
+		public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return task.get(timeout, unit);
+		}
+	}
+
+	public Mailbox(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return a mailbox whose tasks run on virtual threads
+	 * @throws UnsupportedOperationException if virtual threads are not supported by the runtime
+	 */
+	public static Mailbox newVirtual() {
+		Executor virtualExecutor = getVirtualThreadExecutor();
+		if (virtualExecutor == null) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+		}
+		return new Mailbox(virtualExecutor);
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		return getVirtualThreadExecutor() != null;
+	}
+
+	/**
+	 * @return the executor that starts a named virtual thread for each task or null if virtual threads are not supported
+	 */
+	static synchronized Executor getVirtualThreadExecutor() {
+		if (!virtualThreadExecutorCreated) {
+			virtualThreadExecutorCreated = true;
+			try {
+				Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "signalling-virtual-", 0L);
+				ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+				virtualThreadExecutor = (Executor) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+			} catch (ReflectiveOperationException e) {
+				logger.info("Virtual threads are not supported by Java {}", System.getProperty("java.version"));
+			}
+		}
+		return virtualThreadExecutor;
+	}
+
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+				Thread thread = new Thread(runnable, "mailbox-timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		return timer;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		if (shutdown) {
+			throw new RejectedExecutionException("Mailbox is shut down");
+		}
+		tasks.add(command);
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if (!tasks.isEmpty() && draining.compareAndSet(false, true)) {
+			executor.execute(this::drain);
+		}
+	}
+
+	private void drain() {
+		try {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				}
+				catch (RuntimeException e) {
+					//like a scheduled executor, a failing task does not stop the next ones
+					logger.error("Mailbox task failed {}", e.getMessage());
+				}
+			}
+		}
+		finally {
+			draining.set(false);
+			//a task may be posted after the last poll and before the flag is cleared
+			scheduleDrain();
+		}
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(Executors.callable(command), delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		DelayedTask<V> delayedTask = new DelayedTask<>(callable);
+		delayedTask.timerFuture = getTimer().schedule(() -> {
+			if (!delayedTask.isCancelled() && !shutdown) {
+				execute(delayedTask.task);
+			}
+		}, delay, unit);
+		return delayedTask;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		return getTimer().scheduleAtFixedRate(() -> {
+			if (!shutdown) {
+				execute(command);
+			}
+		}, initialDelay, period, unit);
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		return getTimer().scheduleWithFixedDelay(() -> {
+			if (!shutdown) {
+				execute(command);
+			}
+		}, initialDelay, delay, unit);
+	}
+
+	/**
+	 * @return number of tasks waiting in the mailbox
+	 */
+	public int size() {
+		return tasks.size();
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		List<Runnable> remaining = new ArrayList<>();
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			remaining.add(task);
+		}
+		return remaining;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown && tasks.isEmpty() && !draining.get();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isTerminated()) {
+			if (System.nanoTime() >= deadline) {
+				return false;
+			}
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		return true;
+	}
+}
@@ -0,0 +1,227 @@
+package io.antmedia.webrtctest;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.webrtc.VideoCodec;
+
+/**
+ * Keeps the demuxed frames of a source file on disk so that next runs do not demux the file again.
+ *
+ * Cache consists of two files. Payload file has the frame data (Annex-B for H264) back to back.
+ * Index file has a header and one record (offset, size, pts, flags, NAL unit indices) for each frame in the demux order.
+ * Both files are memory mapped while loading and frames are slices of the mapped payload so that
+ * frame data is not copied and it's shared by all processes in the host through page cache.
+ */
+public class MediaCache {
+
+	private static Logger logger = LoggerFactory.getLogger(MediaCache.class);
+
+	private static final int MAGIC = 0x57544d43; //WTMC
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 1 + 1 + 4;
+	/**
+	 * Size of the fixed part of a record. It's followed by NAL unit count and NAL unit index triplets
+	 */
+	private static final int RECORD_SIZE = 8 + 4 + 8 + 1 + 4;
+
+	private static final byte FLAG_KEY_FRAME = 1;
+	private static final byte FLAG_AUDIO = 2;
+
+	private Path payloadFile;
+	private Path indexFile;
+
+	public int width;
+	public int height;
+	public boolean hasVideo;
+	public boolean hasAudio;
+
+	public MediaCache(String cacheDirectory, String sourceFile, VideoCodec codec)
+	{
+		File source = new File(sourceFile);
+		String name = source.getName() + "-" + codec + "-" + source.length() + "-" + source.lastModified();
+		payloadFile = Paths.get(cacheDirectory, name + ".payload");
+		indexFile = Paths.get(cacheDirectory, name + ".index");
+	}
+
+	public boolean exists() {
+		return Files.isRegularFile(indexFile) && Files.isRegularFile(payloadFile);
+	}
+
+	/**
+	 * Maps the cache files and adds the frames to the lists
+	 * @return true if cache is loaded, false if it's not available or it's corrupted
+	 */
+	public boolean load(List<FileReader.Frame> videoFrames, List<FileReader.Frame> audioFrames)
+	{
+		if (!exists()) {
+			return false;
+		}
+
+		long startTime = System.currentTimeMillis();
+		try (FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+				FileChannel payloadChannel = FileChannel.open(payloadFile, StandardOpenOption.READ))
+		{
+			MappedByteBuffer index = indexChannel.map(MapMode.READ_ONLY, 0, indexChannel.size());
+			if (index.limit() < HEADER_SIZE || index.getInt() != MAGIC || index.getInt() != VERSION) {
+				logger.warn("Media cache index is not valid: {}", indexFile);
+				return false;
+			}
+			width = index.getInt();
+			height = index.getInt();
+			hasVideo = index.get() == 1;
+			hasAudio = index.get() == 1;
+			int frameCount = index.getInt();
+
+			long payloadSize = payloadChannel.size();
+			//a mapping cannot be larger than 2GB, so payload is mapped in regions that start at frame boundaries
+			ByteBuffer region = null;
+			long regionStart = 0;
+			for (int i = 0; i < frameCount; i++)
+			{
+				if (index.remaining() < RECORD_SIZE) {
+					logger.warn("Media cache index is truncated: {}", indexFile);
+					videoFrames.clear();
+					audioFrames.clear();
+					return false;
+				}
+				long offset = index.getLong();
+				int size = index.getInt();
+				long pts = index.getLong();
+				byte flags = index.get();
+				int naluFieldCount = index.getInt() * NaluIndexer.FIELDS_PER_NALU;
+
+				if (offset + size > payloadSize || naluFieldCount < 0 || index.remaining() < naluFieldCount * 4L) {
+					logger.warn("Media cache is truncated: {}", payloadFile);
+					videoFrames.clear();
+					audioFrames.clear();
+					return false;
+				}
+
+				if (region == null || offset + size - regionStart > region.capacity()) {
+					regionStart = offset;
+					region = payloadChannel.map(MapMode.READ_ONLY, regionStart, Math.min(payloadSize - regionStart, Integer.MAX_VALUE));
+				}
+
+				int[] naluIndexArray = FileReader.NO_NALU;
+				if (naluFieldCount > 0) {
+					naluIndexArray = new int[naluFieldCount];
+					index.asIntBuffer().get(naluIndexArray);
+					index.position(index.position() + naluFieldCount * 4);
+				}
+
+				int position = (int)(offset - regionStart);
+				ByteBuffer data = region.duplicate();
+				data.position(position).limit(position + size);
+
+				if ((flags & FLAG_AUDIO) != 0) {
+					audioFrames.add(new FileReader.Frame(data.slice(), pts, false));
+				}
+				else {
+					videoFrames.add(new FileReader.Frame(data.slice(), pts, (flags & FLAG_KEY_FRAME) != 0, naluIndexArray));
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.error("Cannot load media cache {} error: {}", indexFile, e.getMessage());
+			videoFrames.clear();
+			audioFrames.clear();
+			return false;
+		}
+
+		logger.info("Media cache is loaded from {} in {}ms. Video frames:{} audio frames:{}", indexFile,
+				System.currentTimeMillis() - startTime, videoFrames.size(), audioFrames.size());
+		return true;
+	}
+
+	/**
+	 * Writes the frames to the cache. Files are written to temporary files first and moved atomically
+	 * so that other processes never see a partial cache.
+	 */
+	public void write(List<FileReader.Frame> videoFrames, List<FileReader.Frame> audioFrames)
+	{
+		Path tmpPayload = null;
+		Path tmpIndex = null;
+		try {
+			Files.createDirectories(indexFile.getParent());
+			tmpPayload = Files.createTempFile(payloadFile.getParent(), payloadFile.getFileName().toString(), ".tmp");
+			tmpIndex = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+
+			try (FileChannel payloadChannel = FileChannel.open(tmpPayload, StandardOpenOption.WRITE);
+					DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpIndex.toFile()))))
+			{
+				index.writeInt(MAGIC);
+				index.writeInt(VERSION);
+				index.writeInt(width);
+				index.writeInt(height);
+				index.writeByte(hasVideo ? 1 : 0);
+				index.writeByte(hasAudio ? 1 : 0);
+				index.writeInt(videoFrames.size() + audioFrames.size());
+
+				long offset = 0;
+				offset = writeFrames(videoFrames, (byte)0, payloadChannel, index, offset);
+				writeFrames(audioFrames, FLAG_AUDIO, payloadChannel, index, offset);
+			}
+
+			Files.move(tmpPayload, payloadFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			//index is moved last because it's the one checked while loading
+			Files.move(tmpIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Media cache is written to {}", indexFile);
+		}
+		catch (IOException e) {
+			logger.error("Cannot write media cache {} error: {}", indexFile, e.getMessage());
+			deleteQuietly(tmpPayload);
+			deleteQuietly(tmpIndex);
+		}
+	}
+
+	private long writeFrames(List<FileReader.Frame> frames, byte flags, FileChannel payloadChannel, DataOutputStream index, long offset) throws IOException
+	{
+		for (FileReader.Frame frame : frames)
+		{
+			ByteBuffer data = frame.data.duplicate();
+			data.rewind();
+			int size = data.remaining();
+			while (data.hasRemaining()) {
+				payloadChannel.write(data);
+			}
+
+			index.writeLong(offset);
+			index.writeInt(size);
+			index.writeLong(frame.timeStamp);
+			index.writeByte(frame.isKeyFrame ? (flags | FLAG_KEY_FRAME) : flags);
+			index.writeInt(frame.naluIndexArray.length / NaluIndexer.FIELDS_PER_NALU);
+			for (int value : frame.naluIndexArray) {
+				index.writeInt(value);
+			}
+			offset += size;
+		}
+		return offset;
+	}
+
+	private static void deleteQuietly(Path path) {
+		if (path != null) {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				logger.warn("Cannot delete {}", path);
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the frame timestamps of a publisher to {@link System#nanoTime()}. 
+ * 
+ * Audio and video of a publisher use the same clock so that they stay in sync for any frame rate. 
+ * If a frame is released too late, for instance after a GC pause, clock is moved forward by the lateness 
+ * so that following frames are released at their normal intervals instead of in a burst.
+ * It's not thread safe, audio and video tasks of a publisher run in the same pacer lane.
+ */
+public class MediaClock {
+
+	private final long maxLatenessNanos;
+
+	private boolean anchored = false;
+	private long anchorNanos;
+	private long anchorTimeStampMs;
+	private int reanchorCount = 0;
+
+	public MediaClock(long maxLatenessMs) {
+		this.maxLatenessNanos = TimeUnit.MILLISECONDS.toNanos(maxLatenessMs);
+	}
+
+	/**
+	 * @return the time in {@link System#nanoTime()} that frame with given timestamp should be released.
+	 * First call anchors the clock to now.
+	 */
+	public long getDeadline(long timeStampMs) {
+		if (!anchored) {
+			anchorNanos = System.nanoTime();
+			anchorTimeStampMs = timeStampMs;
+			anchored = true;
+		}
+		return anchorNanos + TimeUnit.MILLISECONDS.toNanos(timeStampMs - anchorTimeStampMs);
+	}
+
+	/**
+	 * Called when a frame is released. Lateness is measured against the current anchor, so after a stall
+	 * the clock is moved forward once even though frames of both audio and video are late.
+	 * @return lateness of the frame in nanoseconds
+	 */
+	public long onRelease(long timeStampMs, long nowNanos) {
+		long lateness = nowNanos - getDeadline(timeStampMs);
+		if (lateness > maxLatenessNanos) {
+			anchorNanos += lateness;
+			reanchorCount++;
+		}
+		return lateness;
+	}
+
+	/**
+	 * @return number of times the clock is moved forward because of late frames
+	 */
+	public int getReanchorCount() {
+		return reanchorCount;
+	}
+}
@@ -0,0 +1,89 @@
+package io.antmedia.webrtctest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.webrtc.NaluIndex;
+
+/**
+ * Finds the NAL unit boundaries of Annex-B frames.
+ *
+ * Boundaries are kept in a primitive array as (startOffset, payloadStartOffset, payloadSize) triplets
+ * so that they can be computed once while demuxing and stored with the frame.
+ */
+public class NaluIndexer {
+
+	public static final int FIELDS_PER_NALU = 3;
+
+	private static final int NALU_SHORT_START_SEQUENCE_SIZE = 3;
+
+	private static final int[] EMPTY = new int[0];
+
+	private NaluIndexer() {
+		//utility class
+	}
+
+	/**
+	 * Scans the buffer from 0 to its limit. Position of the buffer is not changed.
+	 * @return triplets of startOffset, payloadStartOffset, payloadSize for each NAL unit
+	 */
+	public static int[] findNaluIndices(ByteBuffer buffer) {
+
+		int[] indices = EMPTY;
+		int count = 0;
+
+		if (buffer.limit() >= NALU_SHORT_START_SEQUENCE_SIZE) {
+			int end = buffer.limit() - NALU_SHORT_START_SEQUENCE_SIZE;
+
+			for (int i = 0; i < end;) {
+				if (buffer.get(i+2) > 1) {
+					i += 3;
+				}
+				else if (buffer.get(i+2) == 1 && buffer.get(i+1) == 0 && buffer.get(i) == 0) {
+					// We found a start sequence, now check if it was a 3 of 4 byte one.
+					int startOffset = i;
+					if (startOffset > 0 && buffer.get(startOffset - 1) == 0) {
+						startOffset--;
+					}
+					if (count >= 1) {
+						indices[(count-1)*FIELDS_PER_NALU + 2] = startOffset - indices[(count-1)*FIELDS_PER_NALU + 1];
+					}
+
+					if ((count+1) * FIELDS_PER_NALU > indices.length) {
+						indices = Arrays.copyOf(indices, Math.max(4, count * 2) * FIELDS_PER_NALU);
+					}
+					indices[count*FIELDS_PER_NALU] = startOffset;
+					indices[count*FIELDS_PER_NALU + 1] = i + 3;
+					count++;
+					i += 3;
+				}
+				else {
+					++i;
+				}
+			}
+		}
+
+		if (count >= 1) {
+			indices[(count-1)*FIELDS_PER_NALU + 2] = buffer.limit() - indices[(count-1)*FIELDS_PER_NALU + 1];
+		}
+
+		return indices.length == count * FIELDS_PER_NALU ? indices : Arrays.copyOf(indices, count * FIELDS_PER_NALU);
+	}
+
+	/**
+	 * @return an unmodifiable list that is built once and passed to the encoder for every send. 
+	 * Fields of {@link NaluIndex} are public but they must not be changed
+	 */
+	public static List<NaluIndex> toNaluIndexList(int[] indices) {
+		if (indices.length == 0) {
+			return Collections.emptyList();
+		}
+		NaluIndex[] naluIndices = new NaluIndex[indices.length / FIELDS_PER_NALU];
+		for (int i = 0; i < naluIndices.length; i++) {
+			naluIndices[i] = new NaluIndex(indices[i*FIELDS_PER_NALU], indices[i*FIELDS_PER_NALU + 1], indices[i*FIELDS_PER_NALU + 2]);
+		}
+		return Collections.unmodifiableList(Arrays.asList(naluIndices));
+	}
+}
@@ -0,0 +1,12 @@
+package io.antmedia.webrtctest;
+
+public enum PacingMode {
+	/**
+	 * Video frames are sent at a fixed frame rate and audio frames every 20ms
+	 */
+	FIXED,
+	/**
+	 * Every frame is sent at its timestamp against a clock that is shared by audio and video
+	 */
+	PTS
+}
@@ -0,0 +1,220 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webrtc.PeerConnectionFactory;
+import org.webrtc.PeerConnectionFactory.Options;
+import org.webrtc.audio.JavaAudioDeviceModule;
+
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoDecoderFactory;
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoEncoderFactory;
+import io.antmedia.webrtc.VideoCodec;
+import io.antmedia.webrtc.api.IAudioRecordListener;
+import io.antmedia.webrtc.api.IAudioTrackListener;
+
+/**
+ * Keeps a small number of peer connection factories that are shared by all clients.
+ *
+ * Each factory has its own signalling, worker and network threads in native side, so that
+ * creating one factory for every client hits thread and memory limits for high loads.
+ * Clients are striped to the factories in round robin order.
+ */
+public class PeerConnectionFactoryPool {
+
+	private static Logger logger = LoggerFactory.getLogger(PeerConnectionFactoryPool.class);
+
+	private static boolean initialized = false;
+
+	/**
+	 * Loopback adapters are ignored unless the server is on the same host, e.g. the loopback server
+	 */
+	private static volatile boolean loopbackNetworkEnabled = false;
+
+	private PeerConnectionFactory[] factories;
+	private VirtualVideoEncoderFactory[] encoderFactories;
+	private VirtualVideoDecoderFactory[] decoderFactories;
+	private JavaAudioDeviceModule[] adms;
+
+	private AtomicInteger nextIndex = new AtomicInteger();
+	
+	/**
+	 * Number of clients that use the factories. Factories are disposed
+	 * after the pool is closed and last client releases it 
+	 */
+	private AtomicInteger users = new AtomicInteger();
+	
+	private volatile boolean closed = false;
+	
+	private final ResourceTracker resources = new ResourceTracker("shared factories");
+
+	public PeerConnectionFactoryPool(Settings settings)
+	{
+		int size = settings.peerConnectionFactoryPoolSize;
+
+		logger.info("Creating {} shared peer connection factories. Before -> threads:{} rss:{}KB", size,
+				StatManager.getThreadCount(), StatManager.getProcessRssKb());
+
+		initialize();
+
+		factories = new PeerConnectionFactory[size];
+		encoderFactories = new VirtualVideoEncoderFactory[size];
+		decoderFactories = new VirtualVideoDecoderFactory[size];
+		adms = new JavaAudioDeviceModule[size];
+
+		for (int i = 0; i < size; i++)
+		{
+			encoderFactories[i] = new VirtualVideoEncoderFactory(settings.codec == VideoCodec.H264, settings.codec == VideoCodec.VP8, settings.codec == VideoCodec.H265, true);
+			decoderFactories[i] = new VirtualVideoDecoderFactory(settings.codec == VideoCodec.H264, settings.codec == VideoCodec.VP8, settings.codec == VideoCodec.H265, true);
+			adms[i] = createAudioDeviceModule(settings, "shared-" + i);
+			factories[i] = createFactory(adms[i], encoderFactories[i], decoderFactories[i]);
+			int index = i;
+			resources.register(ResourceTracker.Kind.AUDIO_DEVICE, "adm " + i, () -> {
+				adms[index].release();
+				adms[index] = null;
+			});
+			resources.register(ResourceTracker.Kind.FACTORY, "factory " + i, () -> {
+				factories[index].dispose();
+				factories[index] = null;
+			});
+		}
+
+		logger.info("Shared peer connection factories are created. After -> threads:{} rss:{}KB",
+				StatManager.getThreadCount(), StatManager.getProcessRssKb());
+	}
+
+	/**
+	 * Initializes the native library once for the process
+	 */
+	public static synchronized void initialize() {
+		if (!initialized) {
+			PeerConnectionFactory.initialize(
+					PeerConnectionFactory.InitializationOptions.builder()
+					.setFieldTrials(null)
+					.createInitializationOptions());
+			initialized = true;
+		}
+	}
+
+	public static void setLoopbackNetworkEnabled(boolean enabled) {
+		loopbackNetworkEnabled = enabled;
+	}
+
+	public static JavaAudioDeviceModule createAudioDeviceModule(Settings settings, String streamId)
+	{
+		return createAudioDeviceModule(settings.isPublishing(), streamId);
+	}
+
+	/**
+	 * @param sending enables AudioRecord for sending streams, otherwise AudioTrack is enabled for receiving streams
+	 */
+	public static JavaAudioDeviceModule createAudioDeviceModule(boolean sending, String streamId)
+	{
+		if(sending) {
+			return (JavaAudioDeviceModule)JavaAudioDeviceModule.builder(null)
+					.setUseHardwareAcousticEchoCanceler(false)
+					.setUseHardwareNoiseSuppressor(false)
+					.setAudioRecordErrorCallback(null)
+					.setAudioTrackErrorCallback(null)
+					.setAudioRecordListener(new IAudioRecordListener() {
+						@Override
+						public void audioRecordStoppped() {
+						}
+						@Override
+						public void audioRecordStarted() {
+						}
+					})
+					.createAudioDeviceModule();
+		}
+
+		// in receiving stream only Audio Track should be enabled
+		// in sending stream only AudioRecord should be enabled
+		return (JavaAudioDeviceModule)
+				JavaAudioDeviceModule.builder(null)
+				.setUseHardwareAcousticEchoCanceler(false)
+				.setUseHardwareNoiseSuppressor(false)
+				.setAudioRecordErrorCallback(null)
+				.setAudioTrackErrorCallback(null)
+				.setAudioTrackListener(new IAudioTrackListener() {
+					public void playoutStarted() {
+						logger.info("starting playout for stream {}", streamId);
+					}
+
+					public void playoutStopped() {
+						logger.info("stopping playout for stream {}", streamId);
+
+					}
+				})
+				.createAudioDeviceModule();
+	}
+
+	public static PeerConnectionFactory createFactory(JavaAudioDeviceModule adm, VirtualVideoEncoderFactory encoderFactory,
+			VirtualVideoDecoderFactory decoderFactory)
+	{
+		PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
+		options.disableNetworkMonitor = true;
+		options.networkIgnoreMask = loopbackNetworkEnabled ? 0 : Options.ADAPTER_TYPE_LOOPBACK;
+
+		return  PeerConnectionFactory.builder()
+				.setOptions(options)
+				.setAudioDeviceModule(adm)
+				.setVideoEncoderFactory(encoderFactory)
+				.setVideoDecoderFactory(decoderFactory)
+				.createPeerConnectionFactory();
+	}
+
+	/**
+	 * @return index of the factory that next client should use
+	 */
+	public int nextIndex() {
+		return Math.floorMod(nextIndex.getAndIncrement(), factories.length);
+	}
+
+	public PeerConnectionFactory getFactory(int index) {
+		return factories[index];
+	}
+
+	public VirtualVideoEncoderFactory getEncoderFactory(int index) {
+		return encoderFactories[index];
+	}
+
+	public VirtualVideoDecoderFactory getDecoderFactory(int index) {
+		return decoderFactories[index];
+	}
+
+	public JavaAudioDeviceModule getAudioDeviceModule(int index) {
+		return adms[index];
+	}
+
+	public int size() {
+		return factories.length;
+	}
+
+	public void retain() {
+		users.incrementAndGet();
+	}
+	
+	public void release() {
+		if (users.decrementAndGet() == 0 && closed) {
+			dispose();
+		}
+	}
+	
+	/**
+	 * Closes the pool. Factories are disposed immediately if there is no client using them
+	 */
+	public void close() {
+		closed = true;
+		if (users.get() == 0) {
+			dispose();
+		}
+	}
+
+	private synchronized void dispose() {
+		//factories are disposed before the adms
+		resources.releaseAll();
+		logger.info("Shared peer connection factories are disposed");
+	}
+
+}
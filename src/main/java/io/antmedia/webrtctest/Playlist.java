@@ -0,0 +1,79 @@
+package io.antmedia.webrtctest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sources that publishers are mapped to. 
+ * 
+ * Each line of the playlist file is a source optionally followed by its weight, like "video720p.mp4 3". 
+ * Lines that start with # are ignored. Sources are selected in smooth weighted round robin order, 
+ * so a source with weight 3 gets 3 of every N publishers and they're not consecutive. 
+ * If all weights are 1, it's plain round robin.
+ */
+public class Playlist {
+
+	private final List<String> sources = new ArrayList<>();
+	private final List<Integer> weights = new ArrayList<>();
+	private int[] currentWeights;
+	private int totalWeight = 0;
+
+	public static Playlist load(String file) throws IOException {
+		Playlist playlist = new Playlist();
+		for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int weight = 1;
+			int separator = line.lastIndexOf(' ');
+			if (separator > 0) {
+				try {
+					weight = Integer.parseInt(line.substring(separator + 1));
+					line = line.substring(0, separator).trim();
+				}
+				catch (NumberFormatException e) {
+					//last token is a part of the source
+				}
+			}
+			if (weight <= 0) {
+				throw new IOException("Weight should be positive in playlist line: " + line);
+			}
+			playlist.add(line, weight);
+		}
+		if (playlist.sources.isEmpty()) {
+			throw new IOException("Playlist does not have any source: " + file);
+		}
+		return playlist;
+	}
+
+	public void add(String source, int weight) {
+		sources.add(source);
+		weights.add(weight);
+		totalWeight += weight;
+		currentWeights = new int[sources.size()];
+	}
+
+	/**
+	 * @return source of the next publisher
+	 */
+	public String next() {
+		int selected = 0;
+		for (int i = 0; i < sources.size(); i++) {
+			currentWeights[i] += weights.get(i);
+			if (currentWeights[i] > currentWeights[selected]) {
+				selected = i;
+			}
+		}
+		currentWeights[selected] -= totalWeight;
+		return sources.get(selected);
+	}
+
+	public List<String> getSources() {
+		return sources;
+	}
+}
@@ -0,0 +1,191 @@
+package io.antmedia.webrtctest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the clients at the rate of an arrival model while keeping at most a number of handshakes in flight.
+ *
+ * A handshake is in flight from the start of the client until it's completed or it times out. If there is no
+ * arrival model, next client is started as soon as there is room in the window, so window 1 connects the
+ * clients one by one. Achieved and target arrival rates are reported every second.
+ *
+ * Arrivals are triggered when the expected arrival count of the model passes a threshold. Thresholds are
+ * consecutive integers for evenly spaced arrivals and sums of exponential random values for poisson arrivals,
+ * which makes a poisson process whose rate follows the model.
+ */
+public class RampController {
+
+	private static Logger logger = LoggerFactory.getLogger(RampController.class);
+
+	private static final long TICK_MS = 10;
+
+	/**
+	 * Handshake leaves the window after this time, so that a stuck client does not stall the ramp
+	 */
+	public static final long HANDSHAKE_TIMEOUT_MS = 30000;
+
+	private final List<WebRTCManager> managers;
+	private final int window;
+	private final ArrivalModel model;
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "ramp");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private ScheduledFuture<?> tickTask;
+
+	/**
+	 * Start time of the handshakes in flight
+	 */
+	private final Map<WebRTCManager, Long> inFlight = new ConcurrentHashMap<>();
+
+	private final LatencyHistogram handshakeTime = new LatencyHistogram("handshake", "ms");
+
+	private StatManager statManager;
+
+	private final AtomicBoolean started = new AtomicBoolean(false);
+
+	private long startNanos;
+	private int nextIndex = 0;
+	private double nextThreshold = 0;
+	private int timedOut = 0;
+
+	private long currentSecond = 0;
+	private int arrivalsInSecond = 0;
+	private double expectedAtSecondStart = 0;
+
+	/**
+	 * @param model is null to start clients as soon as there is room in the window
+	 */
+	public RampController(List<WebRTCManager> managers, int window, ArrivalModel model) {
+		this.managers = managers;
+		this.window = Math.max(1, window);
+		this.model = model;
+	}
+
+	/**
+	 * Starts the ramp once, later calls do not reset it or schedule another tick
+	 */
+	public synchronized void start() {
+		if (!started.compareAndSet(false, true)) {
+			return;
+		}
+		startNanos = System.nanoTime();
+		if (model != null && model.isPoisson()) {
+			nextThreshold = nextExponential();
+		}
+		logger.info("Ramp is started for {} clients with {} handshakes in flight and arrival model {}", managers.size(), window,
+				model != null ? model : "none");
+		tickTask = executor.scheduleAtFixedRate(this::tick, 0, TICK_MS, TimeUnit.MILLISECONDS);
+	}
+
+	private static double nextExponential() {
+		return -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+	}
+
+	private synchronized void tick() {
+		try {
+			long now = System.nanoTime();
+			double elapsed = (now - startNanos) / 1e9;
+			reportSeconds(elapsed);
+			expireHandshakes(now);
+
+			while (nextIndex < managers.size() && inFlight.size() < window
+					&& (model == null || model.getExpectedArrivals(elapsed) >= nextThreshold))
+			{
+				WebRTCManager manager = managers.get(nextIndex++);
+				inFlight.put(manager, now);
+				arrivalsInSecond++;
+				if (model != null) {
+					nextThreshold += model.isPoisson() ? nextExponential() : 1;
+				}
+				manager.start();
+			}
+
+			if (nextIndex == managers.size() && inFlight.isEmpty() && tickTask != null) {
+				reportSecond(currentSecond, elapsed);
+				logger.info("ramp completed :\t{} clients in {}s timed out:{} {}", managers.size(), (long) elapsed, timedOut, handshakeTime);
+				tickTask.cancel(false);
+				tickTask = null;
+			}
+		}
+		catch (Exception e) {
+			logger.error("Ramp tick failed {}", e.getMessage());
+		}
+	}
+
+	private void expireHandshakes(long now) {
+		long timeout = TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_TIMEOUT_MS);
+		inFlight.entrySet().removeIf(entry -> {
+			if (now - entry.getValue() > timeout) {
+				logger.warn("Handshake of stream {} is timed out, it's removed from the ramp window", entry.getKey().getStreamId());
+				timedOut++;
+				return true;
+			}
+			return false;
+		});
+	}
+
+	/**
+	 * Reports the seconds that are completed until the given time
+	 */
+	private void reportSeconds(double elapsed) {
+		while (elapsed >= currentSecond + 1) {
+			reportSecond(currentSecond, currentSecond + 1);
+			arrivalsInSecond = 0;
+			currentSecond++;
+		}
+	}
+
+	private void reportSecond(long second, double end) {
+		double target = -1;
+		if (model != null && end > second) {
+			double expected = model.getExpectedArrivals(end);
+			target = (expected - expectedAtSecondStart) / (end - second);
+			expectedAtSecondStart = expected;
+		}
+		logger.info("ramp :\tsecond:{} target:{}/s achieved:{}/s in flight:{} started:{}/{}", second,
+				target < 0 ? "-" : String.format("%.1f", target), arrivalsInSecond, inFlight.size(), nextIndex, managers.size());
+		if (statManager != null) {
+			statManager.reportRamp(second, target, arrivalsInSecond, inFlight.size(), nextIndex);
+		}
+	}
+
+	/**
+	 * Called when the handshake of the client is completed, either connected or failed
+	 */
+	public void onCompleted(WebRTCManager manager) {
+		Long start = inFlight.remove(manager);
+		if (start != null) {
+			handshakeTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			if (model == null && !executor.isShutdown()) {
+				//start the next one without waiting for the tick
+				executor.execute(this::tick);
+			}
+		}
+	}
+
+	public LatencyHistogram getHandshakeTime() {
+		return handshakeTime;
+	}
+
+	public void setStatManager(StatManager statManager) {
+		this.statManager = statManager;
+	}
+
+	public void stop() {
+		executor.shutdownNow();
+	}
+}
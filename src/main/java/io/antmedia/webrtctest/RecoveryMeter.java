@@ -0,0 +1,51 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time to recover of the connections that are lost in recovery mode.
+ * Values are kept for the whole run because disconnections are rare, for instance a server restart or failover.
+ */
+public class RecoveryMeter {
+
+	private final LongAdder disconnections = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LatencyHistogram iceRestartRecovery = new LatencyHistogram("recovered by ice restart", "ms");
+	private final LatencyHistogram resignalRecovery = new LatencyHistogram("recovered by re-signalling", "ms");
+
+	public void onDisconnected() {
+		disconnections.increment();
+	}
+
+	/**
+	 * @param timeToRecoverMs is the time from the disconnection to connected state
+	 */
+	public void onRecovered(boolean byIceRestart, long timeToRecoverMs) {
+		(byIceRestart ? iceRestartRecovery : resignalRecovery).record(timeToRecoverMs);
+	}
+
+	public void onFailed() {
+		failures.increment();
+	}
+
+	public long getDisconnections() {
+		return disconnections.sum();
+	}
+
+	public long getFailures() {
+		return failures.sum();
+	}
+
+	public LatencyHistogram getIceRestartRecovery() {
+		return iceRestartRecovery;
+	}
+
+	public LatencyHistogram getResignalRecovery() {
+		return resignalRecovery;
+	}
+
+	@Override
+	public String toString() {
+		return "disconnections:" + getDisconnections() + " failed:" + getFailures() + " | " + iceRestartRecovery + " | " + resignalRecovery;
+	}
+}
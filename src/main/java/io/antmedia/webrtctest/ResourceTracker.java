@@ -0,0 +1,207 @@
+package io.antmedia.webrtctest;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Native and threaded resources of an owner, e.g. a client, that are released in a fixed order.
+ *
+ * Resources are released by their kind in the order of {@link Kind}, and the ones of the same kind are released
+ * in reverse order of registration. A resource that is registered after the owner is released is released
+ * immediately, so a late callback cannot leak it. Live resources of all owners are counted by kind for the leak report.
+ */
+public class ResourceTracker {
+
+	private static Logger logger = LoggerFactory.getLogger(ResourceTracker.class);
+
+	/**
+	 * Kinds of resources in their release order
+	 */
+	public enum Kind {
+		SIGNALLING,
+		CLIENT,
+		THREAD,
+		DATA_CHANNEL,
+		PEER_CONNECTION,
+		MEDIA_SOURCE,
+		CODEC,
+		FACTORY,
+		AUDIO_DEVICE
+	}
+
+	private static final AtomicLongArray live = new AtomicLongArray(Kind.values().length);
+
+	private static final LongAdder failedReleases = new LongAdder();
+
+	private static Thread shutdownHook;
+
+	/**
+	 * A registered resource. It can be released before its owner, e.g. when the peer connection is re-created
+	 */
+	public class Resource {
+		private final Kind kind;
+		private final String name;
+		private final Runnable releaser;
+
+		private Resource(Kind kind, String name, Runnable releaser) {
+			this.kind = kind;
+			this.name = name;
+			this.releaser = releaser;
+		}
+
+		/**
+		 * Releases the resource if it's not released yet
+		 */
+		public void release() {
+			boolean removed;
+			synchronized (ResourceTracker.this) {
+				removed = resources.remove(this);
+			}
+			if (removed) {
+				run(this);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return kind + " " + name;
+		}
+	}
+
+	private final String owner;
+
+	private final List<Resource> resources = new ArrayList<>();
+
+	private boolean released = false;
+
+	public ResourceTracker(String owner) {
+		this.owner = owner;
+	}
+
+	/**
+	 * Registers the resource, it's released by the releaser when the owner is released
+	 */
+	public Resource register(Kind kind, String name, Runnable releaser) {
+		Resource resource = new Resource(kind, name, releaser);
+		live.incrementAndGet(kind.ordinal());
+		boolean releaseNow;
+		synchronized (this) {
+			releaseNow = released;
+			if (!releaseNow) {
+				resources.add(resource);
+			}
+		}
+		if (releaseNow) {
+			logger.info("{} of {} is registered after it's released, releasing it now", resource, owner);
+			run(resource);
+		}
+		return resource;
+	}
+
+	/**
+	 * Releases the resources of the kinds, e.g. to re-create them. Owner can register the same kinds again
+	 */
+	public void release(Kind... kinds) {
+		List<Resource> toRelease = new ArrayList<>();
+		synchronized (this) {
+			for (Kind kind : kinds) {
+				for (Resource resource : resources) {
+					if (resource.kind == kind) {
+						toRelease.add(resource);
+					}
+				}
+			}
+			resources.removeAll(toRelease);
+		}
+		runInOrder(toRelease);
+	}
+
+	/**
+	 * Releases all resources of the owner in order. Resources that are registered later are released immediately
+	 */
+	public void releaseAll() {
+		List<Resource> toRelease;
+		synchronized (this) {
+			released = true;
+			toRelease = new ArrayList<>(resources);
+			resources.clear();
+		}
+		runInOrder(toRelease);
+	}
+
+	private void runInOrder(List<Resource> toRelease) {
+		//stable sort keeps the registration order in a kind, it's reversed below
+		toRelease.sort((first, second) -> Integer.compare(second.kind.ordinal(), first.kind.ordinal()));
+		for (int i = toRelease.size() - 1; i >= 0; i--) {
+			run(toRelease.get(i));
+		}
+	}
+
+	private void run(Resource resource) {
+		try {
+			logger.debug("Releasing {} of {}", resource, owner);
+			resource.releaser.run();
+			live.decrementAndGet(resource.kind.ordinal());
+		}
+		catch (RuntimeException e) {
+			//it's counted as live and reported as a leak
+			failedReleases.increment();
+			logger.warn("Cannot release {} of {} {}", resource, owner, e.toString());
+		}
+	}
+
+	/**
+	 * @return number of resources that are registered and not released yet
+	 */
+	public synchronized int size() {
+		return resources.size();
+	}
+
+	public static long getLiveCount(Kind kind) {
+		return live.get(kind.ordinal());
+	}
+
+	public static long getFailedReleaseCount() {
+		return failedReleases.sum();
+	}
+
+	/**
+	 * @return live resources of all owners by kind, direct buffers and threads of the process
+	 */
+	public static String getLeakReport() {
+		StringBuilder report = new StringBuilder();
+		for (Kind kind : Kind.values()) {
+			report.append(kind.name().toLowerCase()).append(':').append(getLiveCount(kind)).append(' ');
+		}
+		report.append("failed releases:").append(getFailedReleaseCount());
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				report.append(" direct buffers:").append(pool.getCount())
+					.append(" direct bytes:").append(pool.getMemoryUsed());
+			}
+		}
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		report.append(" threads:").append(threadBean.getThreadCount())
+			.append(" daemon:").append(threadBean.getDaemonThreadCount())
+			.append(" peak:").append(threadBean.getPeakThreadCount());
+		return report.toString();
+	}
+
+	/**
+	 * Logs the leak report when the process exits. It's installed once for the process
+	 */
+	public static synchronized void installShutdownHook() {
+		if (shutdownHook == null) {
+			shutdownHook = new Thread(() -> System.out.println("leaks at exit :\t" + getLeakReport()), "leak-report");
+			Runtime.getRuntime().addShutdownHook(shutdownHook);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package io.antmedia.webrtctest;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a client retries after the server rejects its publish or play request.
+ *
+ * Delays are exponential with full jitter, so rejected clients do not retry in lockstep. Retries of each
+ * rejection reason are limited by a token bucket, so that an overloaded server is not hammered by retries,
+ * and a client gives up after the maximum number of attempts. Rejections and time to admission are counted
+ * per reason to see where the server starts shedding load.
+ */
+public class RetryPolicy {
+
+	/**
+	 * Returned when client should give up
+	 */
+	public static final long GIVE_UP = -1;
+
+	/**
+	 * Counters of a rejection reason
+	 */
+	public static class ReasonStats {
+		private final String reason;
+		private final LongAdder rejections = new LongAdder();
+		private final LongAdder retries = new LongAdder();
+		private final LongAdder throttled = new LongAdder();
+		private final LongAdder gaveUp = new LongAdder();
+		private final LatencyHistogram timeToAdmission;
+
+		private final double budgetPerSecond;
+		private double tokens;
+		private long lastRefillNanos = System.nanoTime();
+
+		private ReasonStats(String reason, double budgetPerSecond) {
+			this.reason = reason;
+			this.budgetPerSecond = budgetPerSecond;
+			//one second of budget can be used at once
+			this.tokens = budgetPerSecond;
+			timeToAdmission = new LatencyHistogram(reason + " time to admission", "ms");
+		}
+
+		private synchronized boolean tryAcquire() {
+			long now = System.nanoTime();
+			tokens = Math.min(budgetPerSecond, tokens + (now - lastRefillNanos) * budgetPerSecond / TimeUnit.SECONDS.toNanos(1));
+			lastRefillNanos = now;
+			if (tokens >= 1) {
+				tokens -= 1;
+				return true;
+			}
+			return false;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		public long getRejections() {
+			return rejections.sum();
+		}
+
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		public long getThrottled() {
+			return throttled.sum();
+		}
+
+		public long getGaveUp() {
+			return gaveUp.sum();
+		}
+
+		/**
+		 * Time from the first rejection of a client to its admission. Count of it is the number of admitted clients
+		 */
+		public LatencyHistogram getTimeToAdmission() {
+			return timeToAdmission;
+		}
+
+		@Override
+		public String toString() {
+			return reason + " rejected:" + getRejections() + " retried:" + getRetries() + " throttled:" + getThrottled()
+					+ " gave up:" + getGaveUp() + " | " + timeToAdmission;
+		}
+	}
+
+	private final long baseDelayMs;
+	private final long maxDelayMs;
+	private final int maxAttempts;
+	private final double budgetPerSecond;
+
+	private final Map<String, ReasonStats> reasons = new ConcurrentHashMap<>();
+
+	public RetryPolicy(Settings settings) {
+		this(settings.retryBaseDelayMs, settings.retryMaxDelayMs, settings.retryMaxAttempts, settings.retryBudget);
+	}
+
+	/**
+	 * @param budgetPerSecond is the number of retries per second for each reason
+	 */
+	public RetryPolicy(long baseDelayMs, long maxDelayMs, int maxAttempts, double budgetPerSecond) {
+		this.baseDelayMs = baseDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.maxAttempts = maxAttempts;
+		this.budgetPerSecond = budgetPerSecond;
+	}
+
+	private ReasonStats getStats(String reason) {
+		return reasons.computeIfAbsent(reason, key -> new ReasonStats(key, budgetPerSecond));
+	}
+
+	/**
+	 * Records the rejection
+	 * @param attempts is the number of retries that the client has already made
+	 * @return delay before the next retry in milliseconds or {@link #GIVE_UP}
+	 */
+	public long onRejection(String reason, int attempts) {
+		ReasonStats stats = getStats(reason);
+		stats.rejections.increment();
+		if (attempts >= maxAttempts) {
+			stats.gaveUp.increment();
+			return GIVE_UP;
+		}
+		return getDelayMs(attempts);
+	}
+
+	/**
+	 * @return full jitter delay, a random value up to the exponential backoff of the attempt
+	 */
+	public long getDelayMs(int attempts) {
+		long backoff = baseDelayMs << Math.min(attempts, 30);
+		if (backoff <= 0 || backoff > maxDelayMs) {
+			backoff = maxDelayMs;
+		}
+		return ThreadLocalRandom.current().nextLong(backoff + 1);
+	}
+
+	/**
+	 * Takes a retry from the budget of the reason
+	 * @return false if budget is used up, client should wait for another delay
+	 */
+	public boolean tryRetry(String reason) {
+		ReasonStats stats = getStats(reason);
+		if (stats.tryAcquire()) {
+			stats.retries.increment();
+			return true;
+		}
+		stats.throttled.increment();
+		return false;
+	}
+
+	/**
+	 * Records the admission of a client that is rejected before
+	 */
+	public void onAdmitted(String reason, long timeToAdmissionMs) {
+		getStats(reason).timeToAdmission.record(timeToAdmissionMs);
+	}
+
+	public Iterable<ReasonStats> getReasonStats() {
+		return reasons.values();
+	}
+}
@@ -4,7 +4,7 @@ import org.webrtc.Logging.Severity;
 
 import io.antmedia.webrtc.VideoCodec;
 
-public class Settings {
+public class Settings implements Cloneable {
 
 	String webSockAdr = "localhost";
 	public String streamId = "myStream";
@@ -28,8 +28,137 @@ public class Settings {
 	public String roomId = "";
 	public String roomMode = "legacy";
 	public String mainTrack = null;
+	
+	/**
+	 * Number of peer connection factories shared by all clients. 
+	 * If it's 0, every client creates its own factory
+	 */
+	public int peerConnectionFactoryPoolSize = 0;
+	
+	/**
+	 * Directory to keep demuxed source files. If it's null, source file is demuxed in every run
+	 */
+	public String mediaCacheDirectory = null;
+	
+	/**
+	 * Number of threads that send the frames of all publishers
+	 */
+	public int pacerThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Number of GOPs that demux can be ahead of the publishers in streaming mode.
+	 * If it's 0, whole source file is demuxed into memory
+	 */
+	public int streamingGops = 0;
+	
+	/**
+	 * How publishers decide when to send the frames
+	 */
+	public PacingMode pacingMode = PacingMode.FIXED;
+	
+	/**
+	 * How the key frames of the publishers are spread over the GOP
+	 */
+	public StartPhase startPhase = StartPhase.NONE;
+	
+	/**
+	 * File that maps the publishers to sources. If it's null, all publishers use stream source
+	 */
+	public String playlist = null;
+	
+	/**
+	 * Number of websocket sessions that carry the signalling of all streams. 
+	 * If it's 0, every client has its own websocket
+	 */
+	public int signallingSessions = 0;
+	
+	/**
+	 * Maximum number of handshakes in flight while clients are connected
+	 */
+	public int rampWindow = 1;
+	
+	/**
+	 * Arrival rate of the clients. If it's null, clients are started as soon as there is room in the ramp window
+	 */
+	public ArrivalModel arrivalModel = null;
+	
+	/**
+	 * Backoff of the first retry after the server rejects a client. It doubles with every attempt
+	 */
+	public long retryBaseDelayMs = 500;
+	
+	public long retryMaxDelayMs = 30000;
+	
+	/**
+	 * Client gives up after this number of retries
+	 */
+	public int retryMaxAttempts = 20;
+	
+	/**
+	 * Number of retries per second that are allowed for each rejection reason
+	 */
+	public double retryBudget = 20;
+	
+	/**
+	 * Recover lost connections with ice restart and then re-signalling instead of stopping the client
+	 */
+	public boolean recovery = false;
+	
+	/**
+	 * Port of the loopback server that is started in the process, 0 to use a real server
+	 */
+	public int loopbackPort = 0;
+	
+	/**
+	 * File of the scripted rejections and delays of the loopback server
+	 */
+	public String loopbackScript = null;
+	
+	/**
+	 * How local ice candidates are signalled
+	 */
+	public CandidateMode candidateMode = CandidateMode.TRICKLE;
+	
+	/**
+	 * Maximum wait for ice gathering in non-trickle mode
+	 */
+	public long candidateWindowMs = 5000;
+	
+	/**
+	 * Runs the signalling of each client in its own mailbox on virtual threads instead of the shared lanes
+	 */
+	public boolean virtualThreads = false;
 
 	
+	/**
+	 * @return true if clients send media, i.e. publishers and participants. It decides the role of the client everywhere
+	 */
+	public boolean isPublishing() {
+		return mode == Mode.PUBLISHER || mode == Mode.PARTICIPANT;
+	}
+	
+	/**
+	 * @return a copy of the settings for another source
+	 */
+	public Settings withStreamSource(String source) {
+		try {
+			Settings copy = (Settings) clone();
+			copy.streamSource = source;
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Points the clients to the loopback server
+	 */
+	public void useLoopbackServer() {
+		webSockAdr = "localhost";
+		port = loopbackPort;
+		isSequre = false;
+	}
+	
 	void printUsage() {
 	    System.out.println("WebRTC Test Tool for Ant Media Server v0.2\n");
 	    System.out.println("Flag \t Name         \t Default   \t Description                 ");
@@ -38,7 +167,7 @@ public class Settings {
 	    System.out.println("q    \t Sequrity     \t false     \t true(wss) or false(ws)      ");
 	    System.out.println("l    \t Log Level    \t 3         \t 0:VERBOSE,1:INFO,2:WARNING,3:ERROR,4:NONE");
 	    System.out.println("i    \t Stream Id    \t myStream  \t id for stream               ");
-	    System.out.println("f    \t File Name    \t test.mp4  \t Source file* for publisher output file for player");
+	    System.out.println("f    \t File Name    \t test.mp4  \t Source file* or synthetic:bitrate=..,fps=..,gop=..,width=..,height=.. for publisher output file for player");
 	    System.out.println("m    \t Mode         \t player    \t publisher | player | participant");
 	    System.out.println("u    \t Show GUI     \t true      \t true or false               ");
 	    System.out.println("p    \t Port         \t 5080      \t websocket port number       ");
@@ -51,6 +180,20 @@ public class Settings {
 	    System.out.println("o    \t RoomId       \t room1     \t id for room                 ");
 	    System.out.println("e    \t RoomMode     \t legacy    \t legacy | mcu | multitrack   ");
 	    System.out.println("t    \t MainTrack    \t Null      \t id for maintrack            ");
+	    System.out.println("F    \t Factories    \t 0         \t number of shared peer connection factories, 0 for one factory per client");
+	    System.out.println("C    \t Media Cache  \t null      \t directory to cache demuxed source file");
+	    System.out.println("W    \t Pacer Threads\t cores     \t number of threads that send the frames of all publishers");
+	    System.out.println("S    \t Streaming GOPs\t 0        \t number of GOPs to keep in memory while demuxing, 0 to demux whole file");
+	    System.out.println("P    \t Playlist     \t null      \t file with a source and optional weight in each line, publishers are mapped to them");
+	    System.out.println("M    \t Mux Sessions \t 0         \t number of websocket sessions shared by all streams, 0 for one websocket per client");
+	    System.out.println("A    \t Start Phase  \t none      \t none, random or spread to spread key frames of the publishers over the GOP");
+	    System.out.println("T    \t Pacing       \t fixed     \t fixed (frame rate and 20ms audio) or pts (frame timestamps)");
+	    System.out.println("Y    \t Retry        \t 500:30000:20:20 \t base delay ms:max delay ms:max attempts:retries per second for each rejection reason");
+	    System.out.println("E    \t Recovery     \t false     \t true to recover lost connections with ice restart or re-signalling");
+	    System.out.println("I    \t Candidates   \t trickle   \t trickle or nontrickle[:max gathering ms] to send candidates in the description");
+	    System.out.println("V    \t Virtual      \t false     \t true to run the signalling of each client on virtual threads, needs Java 21");
+	    System.out.println("L    \t Loopback     \t 0         \t port[:script] of the embedded server to test without a real server, 0 to use the server address");
+	    System.out.println("R    \t Ramp         \t 1         \t handshakes in flight[:constant:rate | :linear:from:to:seconds | :poisson:rate | :step:ratexseconds,...]");
 
 	}
 
@@ -142,6 +285,94 @@ public class Settings {
 	    else if(flag.charAt(1) == 't') {
 	        mainTrack = value;
 	    }
+	    else if(flag.charAt(1) == 'F') {
+	        peerConnectionFactoryPoolSize = Integer.parseInt(value);
+	    }
+	    else if(flag.charAt(1) == 'C') {
+	        mediaCacheDirectory = value;
+	    }
+	    else if(flag.charAt(1) == 'W') {
+	        pacerThreads = Integer.parseInt(value);
+	    }
+	    else if(flag.charAt(1) == 'S') {
+	        streamingGops = Integer.parseInt(value);
+	    }
+	    else if(flag.charAt(1) == 'P') {
+	        playlist = value;
+	    }
+	    else if(flag.charAt(1) == 'M') {
+	        signallingSessions = Integer.parseInt(value);
+	    }
+	    else if(flag.charAt(1) == 'A') {
+	        if(value.contentEquals("random")) {
+	        	startPhase = StartPhase.RANDOM;
+	        }
+	        else if(value.contentEquals("spread")) {
+	        	startPhase = StartPhase.SPREAD;
+	        }
+	        else if(value.contentEquals("none")) {
+	        	startPhase = StartPhase.NONE;
+	        }
+	        else {
+	        	return false;
+	        }
+	    }
+	    else if(flag.charAt(1) == 'T') {
+	        if(value.contentEquals("pts")) {
+	        	pacingMode = PacingMode.PTS;
+	        }
+	        else if(value.contentEquals("fixed")) {
+	        	pacingMode = PacingMode.FIXED;
+	        }
+	        else {
+	        	return false;
+	        }
+	    }
+	    else if(flag.charAt(1) == 'R') {
+	        int separator = value.indexOf(':');
+	        try {
+	        	rampWindow = Integer.parseInt(separator < 0 ? value : value.substring(0, separator));
+	        	arrivalModel = separator < 0 ? null : ArrivalModel.parse(value.substring(separator + 1));
+	        }
+	        catch (IllegalArgumentException e) {
+	        	System.err.println(e.getMessage());
+	        	return false;
+	        }
+	    }
+	    else if(flag.charAt(1) == 'E') {
+	        recovery = Boolean.parseBoolean(value);
+	    }
+	    else if(flag.charAt(1) == 'I') {
+	        String[] candidates = value.split(":");
+	        if (candidates[0].contentEquals("trickle")) {
+	        	candidateMode = CandidateMode.TRICKLE;
+	        }
+	        else if (candidates[0].contentEquals("nontrickle")) {
+	        	candidateMode = CandidateMode.NON_TRICKLE;
+	        	candidateWindowMs = candidates.length > 1 ? Long.parseLong(candidates[1]) : 5000;
+	        }
+	        else {
+	        	return false;
+	        }
+	    }
+	    else if(flag.charAt(1) == 'V') {
+	        virtualThreads = Boolean.parseBoolean(value);
+	    }
+	    else if(flag.charAt(1) == 'L') {
+	        int separator = value.indexOf(':');
+	        loopbackPort = Integer.parseInt(separator < 0 ? value : value.substring(0, separator));
+	        loopbackScript = separator < 0 ? null : value.substring(separator + 1);
+	    }
+	    else if(flag.charAt(1) == 'Y') {
+	        String[] retry = value.split(":");
+	        if (retry.length != 4) {
+	        	return false;
+	        }
+	        retryBaseDelayMs = Long.parseLong(retry[0]);
+	        retryMaxDelayMs = Long.parseLong(retry[1]);
+	        retryMaxAttempts = Integer.parseInt(retry[2]);
+	        retryBudget = Double.parseDouble(retry[3]);
+	    }
 	    else {
 	        return false;
 	    }
@@ -179,6 +410,21 @@ public class Settings {
 	    	System.out.println("- room mode:" + roomMode);
 	    }
 	    System.out.println("- main track:" + mainTrack);
+	    System.out.println("- shared factories:" + peerConnectionFactoryPoolSize);
+	    System.out.println("- media cache:" + mediaCacheDirectory);
+	    System.out.println("- pacer threads:" + pacerThreads);
+	    System.out.println("- streaming gops:" + streamingGops);
+	    System.out.println("- pacing:" + pacingMode);
+	    System.out.println("- start phase:" + startPhase);
+	    System.out.println("- playlist:" + playlist);
+	    System.out.println("- signalling sessions:" + signallingSessions);
+	    System.out.println("- ramp window:" + rampWindow);
+	    System.out.println("- arrival model:" + arrivalModel);
+	    System.out.println("- recovery:" + recovery);
+	    System.out.println("- candidates:" + candidateMode + (candidateMode != CandidateMode.TRICKLE ? " " + candidateWindowMs + "ms" : ""));
+	    System.out.println("- virtual threads:" + virtualThreads);
+	    System.out.println("- loopback server:" + (loopbackPort > 0 ? loopbackPort + " script:" + loopbackScript : "none"));
+	    System.out.println("- retry:" + retryBaseDelayMs + "ms to " + retryMaxDelayMs + "ms, " + retryMaxAttempts + " attempts, " + retryBudget + "/s for each reason");
 
 	}
 
@@ -0,0 +1,67 @@
+package io.antmedia.webrtctest;
+
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+import org.glassfish.tyrus.container.grizzly.client.GrizzlyClientProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One Tyrus client runtime that is shared by all signalling endpoints.
+ * 
+ * A container per client means selector and worker threads and buffers per client, which does not scale 
+ * to thousands of clients. Container uses a shared Grizzly transport whose threads are sized to the number of cores. 
+ * It's reference counted, it's shut down after the last endpoint releases it.
+ */
+public class SharedWebSocketContainer {
+
+	private static Logger logger = LoggerFactory.getLogger(SharedWebSocketContainer.class);
+
+	/**
+	 * Shared transport is stopped if there is no connection for this time
+	 */
+	private static final int IDLE_TIMEOUT_SECONDS = 30;
+
+	private static ClientManager clientManager;
+	private static int referenceCount = 0;
+
+	private SharedWebSocketContainer() {
+		//utility class
+	}
+
+	/**
+	 * @return the shared client. Each call should be matched with a {@link #release()}
+	 */
+	public static synchronized ClientManager acquire() {
+		if (clientManager == null) {
+			int cores = Runtime.getRuntime().availableProcessors();
+			clientManager = ClientManager.createClient();
+			clientManager.getProperties().put(ClientProperties.SHARED_CONTAINER, true);
+			clientManager.getProperties().put(ClientProperties.SHARED_CONTAINER_IDLE_TIMEOUT, IDLE_TIMEOUT_SECONDS);
+			clientManager.getProperties().put(GrizzlyClientProperties.SELECTOR_THREAD_POOL_CONFIG,
+					ThreadPoolConfig.defaultConfig().setPoolName("websocket-selector").setCorePoolSize(cores).setMaxPoolSize(cores));
+			clientManager.getProperties().put(GrizzlyClientProperties.WORKER_THREAD_POOL_CONFIG,
+					ThreadPoolConfig.defaultConfig().setPoolName("websocket-worker").setCorePoolSize(cores).setMaxPoolSize(cores));
+			logger.info("Shared websocket container is created with {} selector and worker threads", cores);
+		}
+		referenceCount++;
+		return clientManager;
+	}
+
+	public static synchronized void release() {
+		if (referenceCount == 0) {
+			return;
+		}
+		referenceCount--;
+		if (referenceCount == 0) {
+			clientManager.shutdown();
+			clientManager = null;
+			logger.info("Shared websocket container is shut down");
+		}
+	}
+
+	public static synchronized int getReferenceCount() {
+		return referenceCount;
+	}
+}
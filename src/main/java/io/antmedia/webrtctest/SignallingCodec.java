@@ -0,0 +1,351 @@
+package io.antmedia.webrtctest;
+
+import io.antmedia.websocket.WebSocketConstants;
+
+/**
+ * Decodes and encodes the signalling messages without building a generic JSON tree.
+ *
+ * Incoming messages are scanned once and only the fields that the tester uses are extracted into a reusable
+ * {@link Message}. Outbound ping, takeCandidate and takeConfiguration messages are written from prebuilt templates
+ * into a per thread buffer, so that the only allocation is the final string that is sent.
+ */
+public class SignallingCodec {
+
+	/**
+	 * Fields of an incoming message. It's reused for every message of a session, so values should be
+	 * copied out before next message is decoded.
+	 */
+	public static class Message {
+		private String command;
+		private String streamId;
+		private String definition;
+		private String type;
+		private String sdp;
+		private String candidateId;
+		private String candidateSdp;
+		private long candidateLabel;
+		private final StringBuilder unescaped = new StringBuilder();
+
+		private void clear() {
+			command = null;
+			streamId = null;
+			definition = null;
+			type = null;
+			sdp = null;
+			candidateId = null;
+			candidateSdp = null;
+			candidateLabel = 0;
+		}
+
+		public String getCommand() {
+			return command;
+		}
+
+		public String getStreamId() {
+			return streamId;
+		}
+
+		public String getDefinition() {
+			return definition;
+		}
+
+		public String getType() {
+			return type;
+		}
+
+		public String getSdp() {
+			return sdp;
+		}
+
+		public String getCandidateId() {
+			return candidateId;
+		}
+
+		public String getCandidateSdp() {
+			return candidateSdp;
+		}
+
+		public long getCandidateLabel() {
+			return candidateLabel;
+		}
+	}
+
+	private static final String PING_MESSAGE = "{\"" + WebSocketConstants.COMMAND + "\":\"" + WebSocketConstants.PING_COMMAND + "\"}";
+
+	private static final String CANDIDATE_PREFIX = "{\"" + WebSocketConstants.COMMAND + "\":\"" + WebSocketConstants.TAKE_CANDIDATE_COMMAND
+			+ "\",\"" + WebSocketConstants.CANDIDATE_LABEL + "\":";
+	private static final String CANDIDATE_ID_FIELD = ",\"" + WebSocketConstants.CANDIDATE_ID + "\":\"";
+	private static final String CANDIDATE_SDP_FIELD = "\",\"" + WebSocketConstants.CANDIDATE_SDP + "\":\"";
+
+	private static final String CONFIGURATION_PREFIX = "{\"" + WebSocketConstants.COMMAND + "\":\"" + WebSocketConstants.TAKE_CONFIGURATION_COMMAND
+			+ "\",\"" + WebSocketConstants.TYPE + "\":\"";
+	private static final String SDP_FIELD = "\",\"" + WebSocketConstants.SDP + "\":\"";
+
+	private static final String STREAM_ID_FIELD = "\",\"" + WebSocketConstants.STREAM_ID + "\":\"";
+	private static final String END = "\"}";
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+	private SignallingCodec() {
+	}
+
+	public static String encodePing() {
+		return PING_MESSAGE;
+	}
+
+	public static String encodeTakeCandidate(long sdpMLineIndex, String sdpMid, String sdp, String streamId) {
+		StringBuilder buffer = buffer();
+		buffer.append(CANDIDATE_PREFIX).append(sdpMLineIndex).append(CANDIDATE_ID_FIELD);
+		appendEscaped(buffer, sdpMid);
+		buffer.append(CANDIDATE_SDP_FIELD);
+		appendEscaped(buffer, sdp);
+		buffer.append(STREAM_ID_FIELD);
+		appendEscaped(buffer, streamId);
+		return buffer.append(END).toString();
+	}
+
+	public static String encodeTakeConfiguration(String description, String type, String streamId) {
+		StringBuilder buffer = buffer();
+		buffer.append(CONFIGURATION_PREFIX);
+		appendEscaped(buffer, type);
+		buffer.append(SDP_FIELD);
+		appendEscaped(buffer, description);
+		buffer.append(STREAM_ID_FIELD);
+		appendEscaped(buffer, streamId);
+		return buffer.append(END).toString();
+	}
+
+	private static StringBuilder buffer() {
+		StringBuilder buffer = buffers.get();
+		buffer.setLength(0);
+		return buffer;
+	}
+
+	private static void appendEscaped(StringBuilder buffer, String value) {
+		if (value == null) {
+			return;
+		}
+		int length = value.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c != '"' && c != '\\' && c >= 0x20) {
+				continue;
+			}
+			buffer.append(value, start, i);
+			start = i + 1;
+			switch (c) {
+			case '"': buffer.append("\\\""); break;
+			case '\\': buffer.append("\\\\"); break;
+			case '\n': buffer.append("\\n"); break;
+			case '\r': buffer.append("\\r"); break;
+			case '\t': buffer.append("\\t"); break;
+			case '\b': buffer.append("\\b"); break;
+			case '\f': buffer.append("\\f"); break;
+			default:
+				buffer.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+			}
+		}
+		buffer.append(value, start, length);
+	}
+
+	/**
+	 * Scans the top level fields of the message into given holder. Unknown fields and nested values are skipped.
+	 * @return false if message is not a JSON object
+	 */
+	public static boolean decode(String text, Message message) {
+		message.clear();
+		int length = text.length();
+		int i = skipWhitespace(text, 0);
+		if (i >= length || text.charAt(i) != '{') {
+			return false;
+		}
+		i++;
+
+		while (true) {
+			i = skipWhitespace(text, i);
+			if (i >= length) {
+				return false;
+			}
+			char c = text.charAt(i);
+			if (c == '}') {
+				return true;
+			}
+			if (c == ',') {
+				i++;
+				continue;
+			}
+			if (c != '"') {
+				return false;
+			}
+			int keyStart = i + 1;
+			int keyEnd = text.indexOf('"', keyStart);
+			if (keyEnd < 0) {
+				return false;
+			}
+			i = skipWhitespace(text, keyEnd + 1);
+			if (i >= length || text.charAt(i) != ':') {
+				return false;
+			}
+			i = skipWhitespace(text, i + 1);
+			if (i >= length) {
+				return false;
+			}
+
+			if (text.charAt(i) == '"') {
+				int valueEnd = stringEnd(text, i + 1);
+				if (valueEnd < 0) {
+					return false;
+				}
+				setString(text, keyStart, keyEnd, i + 1, valueEnd, message);
+				i = valueEnd + 1;
+			}
+			else if (isKey(text, keyStart, keyEnd, WebSocketConstants.CANDIDATE_LABEL)) {
+				long value = 0;
+				boolean negative = text.charAt(i) == '-';
+				if (negative) {
+					i++;
+				}
+				while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+					value = value * 10 + (text.charAt(i) - '0');
+					i++;
+				}
+				message.candidateLabel = negative ? -value : value;
+			}
+			else {
+				i = skipValue(text, i);
+				if (i < 0) {
+					return false;
+				}
+			}
+		}
+	}
+
+	private static void setString(String text, int keyStart, int keyEnd, int valueStart, int valueEnd, Message message) {
+		//only the values that are used are materialized
+		if (isKey(text, keyStart, keyEnd, WebSocketConstants.COMMAND)) {
+			message.command = value(text, valueStart, valueEnd, message);
+		}
+		else if (isKey(text, keyStart, keyEnd, WebSocketConstants.STREAM_ID)) {
+			message.streamId = value(text, valueStart, valueEnd, message);
+		}
+		else if (isKey(text, keyStart, keyEnd, WebSocketConstants.DEFINITION)) {
+			message.definition = value(text, valueStart, valueEnd, message);
+		}
+		else if (isKey(text, keyStart, keyEnd, WebSocketConstants.TYPE)) {
+			message.type = value(text, valueStart, valueEnd, message);
+		}
+		else if (isKey(text, keyStart, keyEnd, WebSocketConstants.SDP)) {
+			message.sdp = value(text, valueStart, valueEnd, message);
+		}
+		else if (isKey(text, keyStart, keyEnd, WebSocketConstants.CANDIDATE_ID)) {
+			message.candidateId = value(text, valueStart, valueEnd, message);
+		}
+		else if (isKey(text, keyStart, keyEnd, WebSocketConstants.CANDIDATE_SDP)) {
+			message.candidateSdp = value(text, valueStart, valueEnd, message);
+		}
+	}
+
+	private static boolean isKey(String text, int keyStart, int keyEnd, String key) {
+		return keyEnd - keyStart == key.length() && text.regionMatches(keyStart, key, 0, key.length());
+	}
+
+	/**
+	 * @return index of the closing quote of the string that starts at given index or -1
+	 */
+	private static int stringEnd(String text, int i) {
+		int length = text.length();
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			}
+			else if (c == '"') {
+				return i;
+			}
+			else {
+				i++;
+			}
+		}
+		return -1;
+	}
+
+	private static String value(String text, int start, int end, Message message) {
+		int escape = text.indexOf('\\', start);
+		if (escape < 0 || escape >= end) {
+			return text.substring(start, end);
+		}
+
+		StringBuilder unescaped = message.unescaped;
+		unescaped.setLength(0);
+		unescaped.append(text, start, escape);
+		int i = escape;
+		while (i < end) {
+			char c = text.charAt(i);
+			if (c != '\\') {
+				unescaped.append(c);
+				i++;
+				continue;
+			}
+			char e = text.charAt(i + 1);
+			switch (e) {
+			case 'n': unescaped.append('\n'); break;
+			case 'r': unescaped.append('\r'); break;
+			case 't': unescaped.append('\t'); break;
+			case 'b': unescaped.append('\b'); break;
+			case 'f': unescaped.append('\f'); break;
+			case 'u':
+				unescaped.append((char) Integer.parseInt(text.substring(i + 2, i + 6), 16));
+				i += 4;
+				break;
+			default:
+				//quote, backslash and slash
+				unescaped.append(e);
+			}
+			i += 2;
+		}
+		return unescaped.toString();
+	}
+
+	/**
+	 * Skips a number, literal, object or array
+	 * @return index after the value or -1 if it's malformed
+	 */
+	private static int skipValue(String text, int i) {
+		int length = text.length();
+		int depth = 0;
+		while (i < length) {
+			char c = text.charAt(i);
+			if (c == '"') {
+				i = stringEnd(text, i + 1);
+				if (i < 0) {
+					return -1;
+				}
+			}
+			else if (c == '{' || c == '[') {
+				depth++;
+			}
+			else if (c == '}' || c == ']') {
+				if (depth == 0) {
+					return i;
+				}
+				depth--;
+			}
+			else if (c == ',' && depth == 0) {
+				return i;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	private static int skipWhitespace(String text, int i) {
+		int length = text.length();
+		while (i < length && Character.isWhitespace(text.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+}
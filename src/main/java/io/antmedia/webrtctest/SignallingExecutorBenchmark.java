@@ -0,0 +1,109 @@
+package io.antmedia.webrtctest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the shared platform thread lanes with the virtual thread mailboxes for signalling.
+ *
+ * Each emulated client runs a state machine of steps in its own executor like {@link WebRTCManager} does.
+ * A step spins on the cpu, e.g. to parse and build messages, then blocks, e.g. in a websocket write or a latch,
+ * and then posts the next step. Blocking steps hold a lane thread, but they only hold a virtual thread.
+ *
+ * Usage: SignallingExecutorBenchmark [clients] [steps] [block ms] [cpu micros]
+ */
+public class SignallingExecutorBenchmark {
+
+	private final int clients;
+	private final int steps;
+	private final long blockMs;
+	private final long cpuNanos;
+
+	/**
+	 * Clients that are in a step at the moment and the maximum of it
+	 */
+	private final AtomicInteger activeClients = new AtomicInteger();
+	private final AtomicInteger maxActiveClients = new AtomicInteger();
+
+	public SignallingExecutorBenchmark(int clients, int steps, long blockMs, long cpuMicros) {
+		this.clients = clients;
+		this.steps = steps;
+		this.blockMs = blockMs;
+		this.cpuNanos = TimeUnit.MICROSECONDS.toNanos(cpuMicros);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int steps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		long blockMs = args.length > 2 ? Long.parseLong(args[2]) : 5;
+		long cpuMicros = args.length > 3 ? Long.parseLong(args[3]) : 50;
+
+		int carriers = Runtime.getRuntime().availableProcessors();
+		System.out.println("clients:" + clients + " steps:" + steps + " block:" + blockMs + "ms cpu:" + cpuMicros + "us carriers:" + carriers);
+
+		StripedExecutor lanes = new StripedExecutor("benchmark", carriers);
+		new SignallingExecutorBenchmark(clients, steps, blockMs, cpuMicros).run("platform", carriers, lanes::getLane);
+		lanes.shutdown();
+
+		if (Mailbox.isVirtualThreadSupported()) {
+			new SignallingExecutorBenchmark(clients, steps, blockMs, cpuMicros).run("virtual", carriers, client -> Mailbox.newVirtual());
+		}
+		else {
+			System.out.println("virtual: not supported by Java " + System.getProperty("java.version"));
+		}
+	}
+
+	/**
+	 * Runs all clients to the end with the executors of the factory and prints the results
+	 */
+	public void run(String mode, int carriers, IntFunction<Executor> executorFactory) throws InterruptedException {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		threadBean.resetPeakThreadCount();
+		CountDownLatch finished = new CountDownLatch(clients);
+
+		long cpuStart = StatManager.getProcessCpuTime();
+		long start = System.nanoTime();
+		for (int i = 0; i < clients; i++) {
+			Executor executor = executorFactory.apply(i);
+			executor.execute(() -> step(executor, 0, finished));
+		}
+		finished.await();
+		long wallNanos = System.nanoTime() - start;
+		long cpuNanosUsed = StatManager.getProcessCpuTime() - cpuStart;
+
+		double seconds = wallNanos / 1e9;
+		String utilization = cpuStart < 0 ? "n/a" : (100 * cpuNanosUsed / (wallNanos * carriers)) + "%";
+		System.out.println(mode + ": wall:" + String.format("%.2f", seconds) + "s"
+				+ " clients/s:" + String.format("%.1f", clients / seconds)
+				+ " peak platform threads:" + threadBean.getPeakThreadCount()
+				+ " carrier utilization:" + utilization
+				+ " max concurrent clients:" + maxActiveClients.get());
+	}
+
+	private void step(Executor executor, int step, CountDownLatch finished) {
+		maxActiveClients.accumulateAndGet(activeClients.incrementAndGet(), Math::max);
+		try {
+			long spinUntil = System.nanoTime() + cpuNanos;
+			while (System.nanoTime() < spinUntil) {
+				Thread.onSpinWait();
+			}
+			Thread.sleep(blockMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			activeClients.decrementAndGet();
+		}
+		if (step + 1 < steps) {
+			executor.execute(() -> step(executor, step + 1, finished));
+		}
+		else {
+			finished.countDown();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package io.antmedia.webrtctest;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A few websocket sessions that carry the signalling of many streams.
+ * 
+ * Ant Media signalling messages have the stream id, so one session can be used by many managers and 
+ * incoming messages are routed to the manager of their stream. It's used when only media plane is stressed 
+ * and a websocket per stream would be an unnecessary load on the server and the client.
+ */
+public class SignallingSessionPool {
+
+	private static Logger logger = LoggerFactory.getLogger(SignallingSessionPool.class);
+
+	private final List<WebsocketClientEndpoint> endpoints = new ArrayList<>();
+	
+	/**
+	 * Stream ids of each session. A session cannot carry two streams with the same id, for instance players of the same stream
+	 */
+	private final List<Set<String>> streamIds = new ArrayList<>();
+	
+	private final Settings settings;
+	
+	/**
+	 * Sends pings of all sessions in the pool
+	 */
+	private final KeepAliveScheduler keepAliveScheduler;
+
+	private int nextIndex = 0;
+
+	public SignallingSessionPool(Settings settings, int sessionCount, KeepAliveScheduler keepAliveScheduler) {
+		this.settings = settings;
+		this.keepAliveScheduler = keepAliveScheduler;
+		for (int i = 0; i < sessionCount; i++) {
+			addEndpoint();
+		}
+		logger.info("Signalling of all streams is multiplexed over {} websocket sessions", sessionCount);
+	}
+
+	private void addEndpoint() {
+		endpoints.add(new WebsocketClientEndpoint(settings, keepAliveScheduler));
+		streamIds.add(new HashSet<>());
+	}
+
+	/**
+	 * @return the endpoint of the stream. Streams are distributed to the sessions in round robin order. 
+	 * If all sessions already carry a stream with the same id, a new session is added
+	 */
+	public synchronized WebsocketClientEndpoint nextEndpoint(String streamId) {
+		for (int i = 0; i < endpoints.size(); i++) {
+			int index = (nextIndex + i) % endpoints.size();
+			if (streamIds.get(index).add(streamId)) {
+				nextIndex = (index + 1) % endpoints.size();
+				return endpoints.get(index);
+			}
+		}
+		logger.info("All sessions carry stream {}, adding session {}", streamId, endpoints.size() + 1);
+		addEndpoint();
+		streamIds.get(endpoints.size() - 1).add(streamId);
+		return endpoints.get(endpoints.size() - 1);
+	}
+
+	public synchronized int getSessionCount() {
+		return endpoints.size();
+	}
+
+	/**
+	 * Closes all sessions
+	 */
+	public synchronized void close() {
+		for (WebsocketClientEndpoint endpoint : endpoints) {
+			endpoint.close();
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Websocket message counts of all clients.
+ */
+public class SignallingStats {
+
+	private final LongAdder messagesSent = new LongAdder();
+	private final LongAdder messagesReceived = new LongAdder();
+	private final LongAdder candidatesSent = new LongAdder();
+	private final LongAdder candidatesReceived = new LongAdder();
+
+	void onSent(int messages, int candidates) {
+		messagesSent.add(messages);
+		candidatesSent.add(candidates);
+	}
+
+	void onReceived(boolean candidate) {
+		messagesReceived.increment();
+		if (candidate) {
+			candidatesReceived.increment();
+		}
+	}
+
+	public long getMessagesSent() {
+		return messagesSent.sum();
+	}
+
+	public long getMessagesReceived() {
+		return messagesReceived.sum();
+	}
+
+	public long getCandidatesSent() {
+		return candidatesSent.sum();
+	}
+
+	public long getCandidatesReceived() {
+		return candidatesReceived.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "sent:" + getMessagesSent() + " received:" + getMessagesReceived() + " candidates sent:" + getCandidatesSent()
+				+ " received:" + getCandidatesReceived();
+	}
+}
@@ -0,0 +1,99 @@
+package io.antmedia.webrtctest;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Frame sources shared by the publishers. Each distinct source is demuxed or generated once and 
+ * it's kept while at least one publisher uses it.
+ */
+public class SourceCache {
+
+	private static Logger logger = LoggerFactory.getLogger(SourceCache.class);
+
+	public static class Entry {
+		private final IFrameSource source;
+		private final Settings settings;
+		private int referenceCount = 0;
+
+		private Entry(IFrameSource source, Settings settings) {
+			this.source = source;
+			this.settings = settings;
+		}
+
+		public IFrameSource getSource() {
+			return source;
+		}
+
+		/**
+		 * @return settings of the source. They're updated by the source, for instance if it does not have video
+		 */
+		public Settings getSettings() {
+			return settings;
+		}
+	}
+
+	private final Settings settings;
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	public SourceCache(Settings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Returns the cached source or creates and starts it. Caller should release it when it's done
+	 * @return null if source cannot be initialized
+	 */
+	public synchronized Entry acquire(String streamSource) {
+		Entry entry = entries.get(streamSource);
+		if (entry == null) {
+			Settings sourceSettings = streamSource.equals(settings.streamSource) ? settings : settings.withStreamSource(streamSource);
+			IFrameSource source = SyntheticSource.isSynthetic(streamSource) ? new SyntheticSource(sourceSettings) : new FileReader(sourceSettings);
+			if (!source.init()) {
+				logger.error("Cannot initialize source {}", streamSource);
+				return null;
+			}
+			source.start();
+			entry = new Entry(source, sourceSettings);
+			entries.put(streamSource, entry);
+		}
+		entry.referenceCount++;
+		return entry;
+	}
+
+	/**
+	 * Releases the source. It's stopped and its frames are released after the last publisher releases it
+	 */
+	public synchronized void release(IFrameSource source) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.source == source) {
+				entry.referenceCount--;
+				if (entry.referenceCount == 0) {
+					iterator.remove();
+					source.stop();
+				}
+				return;
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Stops all sources
+	 */
+	public synchronized void close() {
+		for (Entry entry : entries.values()) {
+			entry.source.stop();
+		}
+		entries.clear();
+	}
+}
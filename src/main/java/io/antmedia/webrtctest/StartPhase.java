@@ -0,0 +1,16 @@
+package io.antmedia.webrtctest;
+
+public enum StartPhase {
+	/**
+	 * All publishers start from the first frame as soon as they're connected
+	 */
+	NONE,
+	/**
+	 * Each publisher starts at a random point of the GOP
+	 */
+	RANDOM,
+	/**
+	 * Publishers are spread evenly across the GOP
+	 */
+	SPREAD
+}
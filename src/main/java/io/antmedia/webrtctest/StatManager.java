@@ -1,11 +1,15 @@
 package io.antmedia.webrtctest;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -31,9 +35,24 @@ public class StatManager {
 	private static final String CONNECTED = "connected";
 	private static final String SYSTEM_CPU_LOAD = "system_cpu_load";
 	private static final String INSTANCE_ID = "instance_id";
+	private static final String PROC_STATUS = "/proc/self/status";
+	private static final String VM_RSS = "VmRSS:";
 	
-	private ArrayList<WebRTCClientEmulator> streamManagers = new ArrayList<>();
-	ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(3);
+	private static final String RAMP_SECOND = "ramp_second";
+	private static final String TARGET_ARRIVAL_RATE = "target_arrival_rate";
+	private static final String ACHIEVED_ARRIVAL_RATE = "achieved_arrival_rate";
+	private static final String HANDSHAKES_IN_FLIGHT = "handshakes_in_flight";
+	private static final String STARTED_CLIENTS = "started_clients";
+	
+	/**
+	 * Clients complete their handshakes in their own threads while stats are logged
+	 */
+	private CopyOnWriteArrayList<WebRTCClientEmulator> streamManagers = new CopyOnWriteArrayList<>();
+	
+	/**
+	 * Reused for the frame metrics of each client, stats are logged in one thread
+	 */
+	private final FrameMetrics.Snapshot snapshot = new FrameMetrics.Snapshot();
 	private Logger logger = LoggerFactory.getLogger(StatManager.class);
 
 	private boolean streamsRunning = true;
@@ -43,6 +62,20 @@ public class StatManager {
 	private ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
 	private String kafkaBrokers;
 	
+	private FramePacer framePacer;
+	
+	private BitrateMeter bitrateMeter;
+	
+	private KeepAliveScheduler keepAliveScheduler;
+	
+	private RetryPolicy retryPolicy;
+	
+	private RecoveryMeter recoveryMeter;
+	
+	private HandshakeStats handshakeStats;
+	
+	private SignallingStats signallingStats;
+	
 	public StatManager(String kafkaBrokers) {
 		this.kafkaBrokers = kafkaBrokers;
 	}
@@ -70,6 +103,10 @@ public class StatManager {
 				
 			}
 		}, 10, 10, TimeUnit.SECONDS);
+		
+		if (bitrateMeter != null) {
+			executorService.scheduleAtFixedRate(bitrateMeter::sample, BitrateMeter.WINDOW_MS, BitrateMeter.WINDOW_MS, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	public void stop() {
@@ -90,14 +127,21 @@ public class StatManager {
 		int activeConnections = 0;
 		Integer systemCpuLoad = getSystemCpuLoad();
 		int numberOfClientsForFPSCalculation = 0;
+		long totalBytes = 0;
+		long totalKeyFrames = 0;
+		long maxGapMs = 0;
 		for (WebRTCClientEmulator streamManager : streamManagers) 
 		{
+			FrameMetrics.Snapshot frameSnapshot = streamManager.getMetrics().read(snapshot);
+			totalBytes += frameSnapshot.getBytes();
+			totalKeyFrames += frameSnapshot.getKeyFrames();
+			maxGapMs = Math.max(maxGapMs, frameSnapshot.getMaxGapMs());
 			if (!streamManager.isStarted() ||   //if stream is not started, assume that it is running
 					(streamManager.isRunning() && !streamsRunningLocal)) {
 				//if one stream is running, no need to enter again
 				streamsRunningLocal = true;
 			}
-			int fp = streamManager.getFramePeriod();
+			int fp = frameSnapshot.getFramePeriod();
 			if (fp != -1) {
 				min = min < fp ? min : fp;
 				max = max < fp ? fp : max;
@@ -116,7 +160,7 @@ public class StatManager {
 				jsonObject = new JSONObject();
 				jsonObject.put(VIDEO_FRAME_PERIOD, fp);
 				jsonObject.put(CLIENT_TYPE, streamManager instanceof WebRTCPublisher ? "publisher" : "player");
-				jsonObject.put(TOTAL_VIDEO_FRAME_COUNT, streamManager.getCount());
+				jsonObject.put(TOTAL_VIDEO_FRAME_COUNT, frameSnapshot.getFrames());
 				jsonObject.put(CLIENT_ID, streamManager.hashCode());
 				jsonObject.put(CONNECTED, streamManager.isRunning());
 				jsonObject.put(SYSTEM_CPU_LOAD, systemCpuLoad);
@@ -147,12 +191,203 @@ public class StatManager {
 		}
 		
 		logger.info("stats :\tNumber of Clients:{} Active Connections:{} Dropped Connections:{} Received Min frame period:{}ms, Max frame period: {}ms, Mean frame period:{}ms, cpu load: %{} time: {} hash: {}", streamManagers.size(), activeConnections, droppedConnections, min, max, mean, systemCpuLoad, System.currentTimeMillis()/1000, hashCode());
+		
+		logger.info("frames :\tBytes:{} Key frames:{} Max frame gap:{}ms", totalBytes, totalKeyFrames, maxGapMs);
+		
+		if (!streamManagers.isEmpty()) {
+			int threadCount = getThreadCount();
+			long rssKb = getProcessRssKb();
+			logger.info("resources :\tThreads:{} RSS:{}KB Threads per connection:{} RSS per connection:{}KB", threadCount, rssKb, 
+					threadCount/streamManagers.size(), rssKb/streamManagers.size());
+		}
+		
+		logger.info("live resources :\t{}", ResourceTracker.getLeakReport());
+		
+		if (framePacer != null) {
+			LatencyHistogram tickLateness = framePacer.getTickLateness();
+			LatencyHistogram taskLateness = framePacer.getTaskLateness();
+			logger.info("pacing :\t{} | {}", tickLateness, taskLateness);
+			tickLateness.reset();
+			taskLateness.reset();
+		}
+		
+		logPtsPacing();
+		
+		if (bitrateMeter != null) {
+			LatencyHistogram windowBitrate = bitrateMeter.getWindowBitrate();
+			long meanBitrate = windowBitrate.getMean();
+			logger.info("send bitrate :\t{} peak to mean:{}", windowBitrate, meanBitrate == 0 ? 0 : (double) windowBitrate.getMax() / meanBitrate);
+			windowBitrate.reset();
+		}
+		
+		logSignalling();
+		
+		if (signallingStats != null) {
+			int clients = streamManagers.size();
+			logger.info("signalling messages :\t{} per client sent:{} received:{}", signallingStats,
+					clients == 0 ? "-" : String.format("%.1f", (double) signallingStats.getMessagesSent() / clients),
+					clients == 0 ? "-" : String.format("%.1f", (double) signallingStats.getMessagesReceived() / clients));
+		}
+		
+		if (retryPolicy != null) {
+			for (RetryPolicy.ReasonStats reasonStats : retryPolicy.getReasonStats()) {
+				logger.info("rejections :\t{}", reasonStats);
+			}
+		}
+		
+		if (recoveryMeter != null) {
+			logger.info("recovery :\t{}", recoveryMeter);
+		}
+		
+		logHandshakePhases();
+	}
+	
+	/**
+	 * Logs the phases that are reached by a client since the last log. Histograms are reset so that 
+	 * each log shows the handshakes of the last period, e.g. during a connection storm
+	 */
+	private void logHandshakePhases() {
+		if (handshakeStats == null) {
+			return;
+		}
+		for (HandshakeTimeline.Phase phase : HandshakeTimeline.Phase.values()) {
+			LatencyHistogram fromStart = handshakeStats.getFromStart(phase);
+			if (fromStart.getCount() == 0) {
+				continue;
+			}
+			LatencyHistogram fromPrevious = handshakeStats.getFromPrevious(phase);
+			logger.info("handshake :\t{} | {}", fromStart, fromPrevious);
+			fromStart.reset();
+			fromPrevious.reset();
+		}
+	}
+	
+	/**
+	 * Logs the pong round trip times and the session that has the highest smoothed round trip time
+	 */
+	private void logSignalling() {
+		if (keepAliveScheduler == null) {
+			return;
+		}
+		LatencyHistogram pongRtt = keepAliveScheduler.getPongRtt();
+		KeepAliveScheduler.Session worst = keepAliveScheduler.getWorstSession();
+		logger.info("signalling :	{} sessions:{} pings sent:{} skipped:{} lost:{} worst smoothed rtt:{}ms max rtt:{}ms", pongRtt, 
+				keepAliveScheduler.getSessionCount(), keepAliveScheduler.getSentPings(), keepAliveScheduler.getSkippedPings(),
+				keepAliveScheduler.getLostPings(),
+				worst != null ? worst.getSmoothedRttMs() : -1, worst != null ? worst.getMaxRttMs() : -1);
+		pongRtt.reset();
+	}
+	
+	/**
+	 * Logs the publisher that has the worst p99 lateness and the one that has the worst p99 A/V skew in pts pacing mode
+	 */
+	private void logPtsPacing() {
+		WebRTCPublisher worstLateness = null;
+		WebRTCPublisher worstSkew = null;
+		for (WebRTCClientEmulator streamManager : streamManagers) {
+			if (streamManager instanceof WebRTCPublisher) {
+				WebRTCPublisher publisher = (WebRTCPublisher) streamManager;
+				if (publisher.getPtsLateness().getCount() == 0) {
+					continue;
+				}
+				if (worstLateness == null || publisher.getPtsLateness().getValueAtPercentile(99) > worstLateness.getPtsLateness().getValueAtPercentile(99)) {
+					worstLateness = publisher;
+				}
+				if (worstSkew == null || publisher.getAvSkew().getValueAtPercentile(99) > worstSkew.getAvSkew().getValueAtPercentile(99)) {
+					worstSkew = publisher;
+				}
+			}
+		}
+		if (worstLateness != null) {
+			logger.info("pts pacing :\tworst {} | worst {}", worstLateness.getPtsLateness(), worstSkew.getAvSkew());
+		}
 	}
 
 
+	public void setFramePacer(FramePacer framePacer) {
+		this.framePacer = framePacer;
+	}
+	
+	public void setBitrateMeter(BitrateMeter bitrateMeter) {
+		this.bitrateMeter = bitrateMeter;
+	}
+	
+	public void setKeepAliveScheduler(KeepAliveScheduler keepAliveScheduler) {
+		this.keepAliveScheduler = keepAliveScheduler;
+	}
+	
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+	
+	public void setRecoveryMeter(RecoveryMeter recoveryMeter) {
+		this.recoveryMeter = recoveryMeter;
+	}
+	
+	public void setHandshakeStats(HandshakeStats handshakeStats) {
+		this.handshakeStats = handshakeStats;
+	}
+	
+	public void setSignallingStats(SignallingStats signallingStats) {
+		this.signallingStats = signallingStats;
+	}
+
 	public void addStreamManager(WebRTCClientEmulator streamManager) {
-		if (!streamManagers.contains(streamManager)) {
-			streamManagers.add(streamManager);
+		streamManagers.addIfAbsent(streamManager);
+	}
+	
+	/**
+	 * Sends the arrival rates of a second of the ramp to kafka
+	 * @param target is -1 if there is no arrival model
+	 */
+	@SuppressWarnings("unchecked")
+	public void reportRamp(long second, double target, int achieved, int inFlight, int started) {
+		if (producer == null) {
+			return;
+		}
+		JSONObject jsonObject = new JSONObject();
+		jsonObject.put(CLIENT_TYPE, "ramp");
+		jsonObject.put(RAMP_SECOND, second);
+		jsonObject.put(TARGET_ARRIVAL_RATE, target);
+		jsonObject.put(ACHIEVED_ARRIVAL_RATE, achieved);
+		jsonObject.put(HANDSHAKES_IN_FLIGHT, inFlight);
+		jsonObject.put(STARTED_CLIENTS, started);
+		jsonObject.put(INSTANCE_ID, instanceId);
+		producer.send(new ProducerRecord<>(TOPIC_NAME, jsonObject.toJSONString()));
+	}
+	
+	public static int getThreadCount() {
+		return ManagementFactory.getThreadMXBean().getThreadCount();
+	}
+	
+	/**
+	 * @return resident set size of the process in KB or -1 if it's not available on this platform
+	 */
+	public static long getProcessRssKb() {
+		try {
+			for (String line : Files.readAllLines(Paths.get(PROC_STATUS), StandardCharsets.UTF_8)) {
+				if (line.startsWith(VM_RSS)) {
+					return Long.parseLong(line.substring(VM_RSS.length()).replace("kB", "").trim());
+				}
+			}
+		} catch (IOException | NumberFormatException e) {
+			//not linux or not accessible
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return cpu time of the process in nanoseconds or -1 if it's not supported by the jvm
+	 */
+	public static long getProcessCpuTime() {
+
+		try {
+			OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+			//method of the public interface is accessible, implementation class is not exported in newer jdks
+			Method m = Class.forName("com.sun.management.OperatingSystemMXBean").getMethod("getProcessCpuTime");
+			return (Long)m.invoke(osBean);
+		} catch (Exception e) {
+			return -1;
 		}
 	}
 	
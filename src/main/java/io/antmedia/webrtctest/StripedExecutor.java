@@ -0,0 +1,71 @@
+package io.antmedia.webrtctest;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Fixed set of serial lanes that run the signalling of all clients.
+ *
+ * Each key, e.g. a stream id, is hashed to one lane and tasks of a lane run one at a time in order, so a client
+ * sees the same ordering as it would with its own single thread executor. Thread count depends on the number
+ * of cores instead of the number of clients. Tasks should not block, because they delay the other keys of their lane.
+ */
+public class StripedExecutor {
+
+	private static StripedExecutor shared;
+
+	private final ScheduledThreadPoolExecutor[] lanes;
+
+	public StripedExecutor(String name, int laneCount) {
+		lanes = new ScheduledThreadPoolExecutor[Math.max(1, laneCount)];
+		for (int i = 0; i < lanes.length; i++) {
+			String threadName = name + "-" + i;
+			lanes[i] = new ScheduledThreadPoolExecutor(1, runnable -> {
+				Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			});
+			//timeouts are mostly cancelled, they are not kept in the queue until their time
+			lanes[i].setRemoveOnCancelPolicy(true);
+		}
+	}
+
+	/**
+	 * @return the executor that is shared in the process with a lane for each core
+	 */
+	public static synchronized StripedExecutor getShared() {
+		if (shared == null) {
+			shared = new StripedExecutor("signalling", Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	/**
+	 * @return the lane of the key. Same key is always mapped to the same lane
+	 */
+	public ScheduledExecutorService getLane(Object key) {
+		int hash = key.hashCode();
+		return lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)];
+	}
+
+	public int size() {
+		return lanes.length;
+	}
+
+	/**
+	 * @return number of tasks waiting in all lanes
+	 */
+	public int getQueuedTaskCount() {
+		int count = 0;
+		for (ScheduledThreadPoolExecutor lane : lanes) {
+			count += lane.getQueue().size();
+		}
+		return count;
+	}
+
+	public void shutdown() {
+		for (ScheduledThreadPoolExecutor lane : lanes) {
+			lane.shutdown();
+		}
+	}
+}
@@ -0,0 +1,562 @@
+package io.antmedia.webrtctest;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import org.bytedeco.ffmpeg.avcodec.*;
+import org.bytedeco.ffmpeg.avutil.*;
+import org.bytedeco.javacpp.BytePointer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.antmedia.webrtc.VideoCodec;
+
+/**
+ * Generates encoded frames instead of reading a file, so that scale tests do not need media files and
+ * there is no file I/O and demux at startup. It's used with a source like
+ * synthetic:bitrate=1000,fps=30,gop=60,width=640,height=360,duration=60
+ *
+ * H264 frames are built bit by bit. IDR frames are gray intra 16x16 macroblocks with SPS and PPS,
+ * P frames skip all macroblocks, and both are padded to the target size with filler data NAL units.
+ * VP8 frames are encoded from noise with libvpx because VP8 does not have filler data, so their sizes
+ * follow the rate control of the encoder. Audio frames are 20ms Opus silence.
+ *
+ * Only one GOP of payloads is generated. Frames of the following GOPs share the same buffers.
+ */
+public class SyntheticSource implements IFrameSource {
+
+	public static final String PREFIX = "synthetic";
+
+	private static final long AUDIO_FRAME_DURATION_MS = 20;
+	private static final byte[] OPUS_SILENCE = {(byte)0xF8, (byte)0xFF, (byte)0xFE};
+	private static final byte[] START_CODE = {0, 0, 0, 1};
+
+	private static final int NAL_SPS = 0x67;
+	private static final int NAL_PPS = 0x68;
+	private static final int NAL_IDR = 0x65;
+	private static final int NAL_NON_IDR = 0x41;
+	private static final int NAL_FILLER = 0x0C;
+	private static final int LOG2_MAX_FRAME_NUM = 16;
+
+	private Logger logger = LoggerFactory.getLogger(SyntheticSource.class);
+
+	private Settings settings;
+
+	private int bitrateKbps = 1000;
+	private int fps = 30;
+	private int gop = 60;
+	private int width = 640;
+	private int height = 360;
+	private int durationSeconds = 60;
+	/**
+	 * Size of IDR frames relative to P frames
+	 */
+	private int keyFrameRatio = 4;
+
+	private List<FileReader.Frame> videoFrames = new ArrayList<>();
+	private List<FileReader.Frame> audioFrames = new ArrayList<>();
+
+	public SyntheticSource(Settings settings) {
+		this.settings = settings;
+	}
+
+	public static boolean isSynthetic(String streamSource) {
+		return streamSource != null && streamSource.startsWith(PREFIX);
+	}
+
+	@Override
+	public boolean init()
+	{
+		if (!parseParameters(settings.streamSource)) {
+			return false;
+		}
+
+		long startTime = System.currentTimeMillis();
+		List<ByteBuffer> gopPayloads;
+		if (settings.audioOnly) {
+			gopPayloads = new ArrayList<>();
+		}
+		else if (settings.codec == VideoCodec.H264) {
+			gopPayloads = generateH264Gop();
+		}
+		else if (settings.codec == VideoCodec.VP8) {
+			gopPayloads = generateVP8Gop();
+		}
+		else {
+			logger.error("Synthetic source does not support {}", settings.codec);
+			return false;
+		}
+
+		if (gopPayloads == null) {
+			return false;
+		}
+
+		if (!gopPayloads.isEmpty()) {
+			List<int[]> naluIndices = new ArrayList<>();
+			for (ByteBuffer payload : gopPayloads) {
+				naluIndices.add(settings.codec == VideoCodec.H264 ? NaluIndexer.findNaluIndices(payload) : FileReader.NO_NALU);
+			}
+			int frameCount = durationSeconds * fps;
+			for (int i = 0; i < frameCount; i++) {
+				int index = i % gop;
+				//consecutive IDR frames must have different idr_pic_id, they're in every other GOP template
+				int payloadIndex = (gop == 1 && (i / gop) % 2 == 1) ? gopPayloads.size() - 1 : index;
+				long timeStamp = Math.round(i * 1000.0 / fps);
+				videoFrames.add(new FileReader.Frame(gopPayloads.get(payloadIndex), timeStamp, index == 0, naluIndices.get(payloadIndex)));
+			}
+		}
+
+		ByteBuffer silence = ByteBuffer.allocateDirect(OPUS_SILENCE.length);
+		silence.put(OPUS_SILENCE);
+		long audioFrameCount = durationSeconds * 1000 / AUDIO_FRAME_DURATION_MS;
+		for (int i = 0; i < audioFrameCount; i++) {
+			audioFrames.add(new FileReader.Frame(silence, i * AUDIO_FRAME_DURATION_MS, false));
+		}
+
+		logger.info("Synthetic source is generated in {}ms. {}x{} {}fps {}kbps gop:{} video frames:{} audio frames:{}",
+				System.currentTimeMillis() - startTime, width, height, fps, bitrateKbps, gop, videoFrames.size(), audioFrames.size());
+		return true;
+	}
+
+	/**
+	 * Parses synthetic:key=value,key=value
+	 */
+	boolean parseParameters(String streamSource)
+	{
+		String parameters = streamSource.substring(PREFIX.length());
+		if (parameters.startsWith(":")) {
+			parameters = parameters.substring(1);
+		}
+		try {
+			for (String parameter : parameters.split(",")) {
+				if (parameter.isEmpty()) {
+					continue;
+				}
+				String[] keyValue = parameter.split("=");
+				int value = Integer.parseInt(keyValue[1]);
+				switch (keyValue[0]) {
+				case "bitrate": bitrateKbps = value; break;
+				case "fps": fps = value; break;
+				case "gop": gop = value; break;
+				case "width": width = value; break;
+				case "height": height = value; break;
+				case "duration": durationSeconds = value; break;
+				case "keyratio": keyFrameRatio = value; break;
+				default:
+					logger.error("Unknown synthetic source parameter: {}", keyValue[0]);
+					return false;
+				}
+			}
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			logger.error("Synthetic source parameters are not valid: {}", streamSource);
+			return false;
+		}
+
+		if (bitrateKbps <= 0 || fps <= 0 || gop <= 0 || durationSeconds <= 0 || keyFrameRatio <= 0
+				|| width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0 || gop >= (1 << LOG2_MAX_FRAME_NUM)) {
+			logger.error("Synthetic source parameters are out of range: {}", streamSource);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return payloads of one GOP. If GOP has one frame, there is one more IDR with another idr_pic_id
+	 */
+	private List<ByteBuffer> generateH264Gop()
+	{
+		long gopBytes = (long) bitrateKbps * 1000 / 8 * gop / fps;
+		int pFrameSize = (int) (gopBytes / (gop - 1 + keyFrameRatio));
+		int keyFrameSize = pFrameSize * keyFrameRatio;
+
+		int mbWidth = (width + 15) / 16;
+		int mbHeight = (height + 15) / 16;
+
+		byte[] sps = nal(NAL_SPS, createSps(mbWidth, mbHeight));
+		byte[] pps = nal(NAL_PPS, createPps());
+
+		List<ByteBuffer> payloads = new ArrayList<>();
+		payloads.add(createIdrFrame(sps, pps, mbWidth * mbHeight, 0, keyFrameSize));
+		for (int frameNum = 1; frameNum < gop; frameNum++) {
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			frame.write(START_CODE, 0, START_CODE.length);
+			byte[] slice = nal(NAL_NON_IDR, createPSlice(mbWidth * mbHeight, frameNum));
+			frame.write(slice, 0, slice.length);
+			payloads.add(toDirectBuffer(frame, pFrameSize));
+		}
+		if (gop == 1) {
+			payloads.add(createIdrFrame(sps, pps, mbWidth * mbHeight, 1, keyFrameSize));
+		}
+		return payloads;
+	}
+
+	private ByteBuffer createIdrFrame(byte[] sps, byte[] pps, int mbCount, int idrPicId, int size) {
+		ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		frame.write(START_CODE, 0, START_CODE.length);
+		frame.write(sps, 0, sps.length);
+		frame.write(START_CODE, 0, START_CODE.length);
+		frame.write(pps, 0, pps.length);
+		frame.write(START_CODE, 0, START_CODE.length);
+		byte[] slice = nal(NAL_IDR, createIdrSlice(mbCount, idrPicId));
+		frame.write(slice, 0, slice.length);
+		return toDirectBuffer(frame, size);
+	}
+
+	/**
+	 * Pads the frame with a filler data NAL unit up to the size and copies it to a direct buffer
+	 */
+	private static ByteBuffer toDirectBuffer(ByteArrayOutputStream frame, int size) {
+		//start code, header and trailing bits
+		int fillerPayload = size - frame.size() - START_CODE.length - 2;
+		if (fillerPayload > 0) {
+			frame.write(START_CODE, 0, START_CODE.length);
+			frame.write(NAL_FILLER);
+			for (int i = 0; i < fillerPayload; i++) {
+				frame.write(0xFF);
+			}
+			frame.write(0x80);
+		}
+		byte[] bytes = frame.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.rewind();
+		return buffer;
+	}
+
+	/**
+	 * Constrained baseline SPS. Frame number is 16 bits so that it does not wrap in a GOP and
+	 * picture order count is derived from it because there is no B frame
+	 */
+	private byte[] createSps(int mbWidth, int mbHeight) {
+		BitWriter writer = new BitWriter();
+		writer.writeBits(66, 8); //profile_idc baseline
+		writer.writeBits(0xC0, 8); //constraint_set0_flag and constraint_set1_flag
+		writer.writeBits(getLevel(mbWidth * mbHeight), 8);
+		writer.writeUE(0); //seq_parameter_set_id
+		writer.writeUE(LOG2_MAX_FRAME_NUM - 4);
+		writer.writeUE(2); //pic_order_cnt_type
+		writer.writeUE(1); //max_num_ref_frames
+		writer.writeBits(0, 1); //gaps_in_frame_num_value_allowed_flag
+		writer.writeUE(mbWidth - 1);
+		writer.writeUE(mbHeight - 1);
+		writer.writeBits(1, 1); //frame_mbs_only_flag
+		writer.writeBits(1, 1); //direct_8x8_inference_flag
+		int cropRight = (mbWidth * 16 - width) / 2;
+		int cropBottom = (mbHeight * 16 - height) / 2;
+		if (cropRight > 0 || cropBottom > 0) {
+			writer.writeBits(1, 1); //frame_cropping_flag
+			writer.writeUE(0);
+			writer.writeUE(cropRight);
+			writer.writeUE(0);
+			writer.writeUE(cropBottom);
+		}
+		else {
+			writer.writeBits(0, 1);
+		}
+		writer.writeBits(0, 1); //vui_parameters_present_flag
+		writer.writeTrailingBits();
+		return writer.toByteArray();
+	}
+
+	private static int getLevel(int mbCount) {
+		if (mbCount <= 1620) {
+			return 30;
+		}
+		else if (mbCount <= 3600) {
+			return 31;
+		}
+		else if (mbCount <= 8192) {
+			return 40;
+		}
+		return 51;
+	}
+
+	private byte[] createPps() {
+		BitWriter writer = new BitWriter();
+		writer.writeUE(0); //pic_parameter_set_id
+		writer.writeUE(0); //seq_parameter_set_id
+		writer.writeBits(0, 1); //entropy_coding_mode_flag CAVLC
+		writer.writeBits(0, 1); //bottom_field_pic_order_in_frame_present_flag
+		writer.writeUE(0); //num_slice_groups_minus1
+		writer.writeUE(0); //num_ref_idx_l0_default_active_minus1
+		writer.writeUE(0); //num_ref_idx_l1_default_active_minus1
+		writer.writeBits(0, 1); //weighted_pred_flag
+		writer.writeBits(0, 2); //weighted_bipred_idc
+		writer.writeSE(0); //pic_init_qp_minus26
+		writer.writeSE(0); //pic_init_qs_minus26
+		writer.writeSE(0); //chroma_qp_index_offset
+		writer.writeBits(1, 1); //deblocking_filter_control_present_flag
+		writer.writeBits(0, 1); //constrained_intra_pred_flag
+		writer.writeBits(0, 1); //redundant_pic_cnt_present_flag
+		writer.writeTrailingBits();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Every macroblock is I_16x16 with DC prediction and without residual, so picture is gray
+	 */
+	private byte[] createIdrSlice(int mbCount, int idrPicId) {
+		BitWriter writer = new BitWriter();
+		writer.writeUE(0); //first_mb_in_slice
+		writer.writeUE(7); //slice_type I
+		writer.writeUE(0); //pic_parameter_set_id
+		writer.writeBits(0, LOG2_MAX_FRAME_NUM); //frame_num
+		writer.writeUE(idrPicId);
+		writer.writeBits(0, 1); //no_output_of_prior_pics_flag
+		writer.writeBits(0, 1); //long_term_reference_flag
+		writer.writeSE(0); //slice_qp_delta
+		writer.writeUE(1); //disable_deblocking_filter_idc
+		for (int i = 0; i < mbCount; i++) {
+			writer.writeUE(3); //mb_type I_16x16_2_0_0
+			writer.writeUE(0); //intra_chroma_pred_mode DC
+			writer.writeSE(0); //mb_qp_delta
+			writer.writeBits(1, 1); //coeff_token of Intra16x16DCLevel with no coefficient
+		}
+		writer.writeTrailingBits();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Every macroblock is skipped, so picture is the same as the reference
+	 */
+	private byte[] createPSlice(int mbCount, int frameNum) {
+		BitWriter writer = new BitWriter();
+		writer.writeUE(0); //first_mb_in_slice
+		writer.writeUE(5); //slice_type P
+		writer.writeUE(0); //pic_parameter_set_id
+		writer.writeBits(frameNum, LOG2_MAX_FRAME_NUM);
+		writer.writeBits(0, 1); //num_ref_idx_active_override_flag
+		writer.writeBits(0, 1); //ref_pic_list_modification_flag_l0
+		writer.writeBits(0, 1); //adaptive_ref_pic_marking_mode_flag
+		writer.writeSE(0); //slice_qp_delta
+		writer.writeUE(1); //disable_deblocking_filter_idc
+		writer.writeUE(mbCount); //mb_skip_run
+		writer.writeTrailingBits();
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Adds the header and emulation prevention bytes to the RBSP
+	 */
+	private static byte[] nal(int header, byte[] rbsp) {
+		ByteArrayOutputStream nal = new ByteArrayOutputStream(rbsp.length + 16);
+		nal.write(header);
+		int zeros = 0;
+		for (byte b : rbsp) {
+			if (zeros == 2 && (b & 0xFF) <= 3) {
+				nal.write(3);
+				zeros = 0;
+			}
+			nal.write(b);
+			zeros = b == 0 ? zeros + 1 : 0;
+		}
+		return nal.toByteArray();
+	}
+
+	/**
+	 * Encodes noise frames with libvpx at the target bitrate
+	 * @return payloads of one GOP or null if encoder is not available
+	 */
+	private List<ByteBuffer> generateVP8Gop()
+	{
+		AVCodec codec = avcodec_find_encoder(AV_CODEC_ID_VP8);
+		if (codec == null) {
+			logger.error("VP8 encoder is not available for synthetic source");
+			return null;
+		}
+
+		AVCodecContext context = avcodec_alloc_context3(codec);
+		context.width(width);
+		context.height(height);
+		context.pix_fmt(AV_PIX_FMT_YUV420P);
+		context.time_base(av_make_q(1, fps));
+		context.framerate(av_make_q(fps, 1));
+		context.bit_rate(bitrateKbps * 1000L);
+		context.gop_size(gop);
+		context.keyint_min(gop);
+
+		AVDictionary options = new AVDictionary(null);
+		av_dict_set(options, "deadline", "realtime", 0);
+		av_dict_set(options, "lag-in-frames", "0", 0);
+		int ret = avcodec_open2(context, codec, options);
+		av_dict_free(options);
+		if (ret < 0) {
+			logger.error("Cannot open VP8 encoder for synthetic source");
+			avcodec_free_context(context);
+			return null;
+		}
+
+		List<ByteBuffer> payloads = new ArrayList<>();
+		AVFrame picture = av_frame_alloc();
+		picture.format(AV_PIX_FMT_YUV420P);
+		picture.width(width);
+		picture.height(height);
+		av_frame_get_buffer(picture, 32);
+		AVPacket pkt = av_packet_alloc();
+
+		Random random = new Random(1);
+		byte[] row = new byte[width];
+		for (int i = 0; i < gop; i++)
+		{
+			av_frame_make_writable(picture);
+			for (int plane = 0; plane < 3; plane++) {
+				int planeWidth = plane == 0 ? width : width / 2;
+				int planeHeight = plane == 0 ? height : height / 2;
+				BytePointer data = picture.data(plane);
+				for (int y = 0; y < planeHeight; y++) {
+					for (int x = 0; x < planeWidth; x++) {
+						row[x] = (byte) (128 + random.nextInt(32) - 16);
+					}
+					data.position((long) y * picture.linesize(plane)).put(row, 0, planeWidth);
+				}
+				data.position(0);
+			}
+			picture.pts(i);
+			avcodec_send_frame(context, picture);
+			receivePackets(context, pkt, payloads);
+		}
+		avcodec_send_frame(context, null);
+		receivePackets(context, pkt, payloads);
+
+		av_packet_free(pkt);
+		av_frame_free(picture);
+		avcodec_free_context(context);
+
+		if (payloads.size() != gop) {
+			logger.error("VP8 encoder returned {} frames for a GOP of {}", payloads.size(), gop);
+			return null;
+		}
+		return payloads;
+	}
+
+	private static void receivePackets(AVCodecContext context, AVPacket pkt, List<ByteBuffer> payloads) {
+		while (avcodec_receive_packet(context, pkt) == 0) {
+			ByteBuffer data = ByteBuffer.allocateDirect(pkt.size());
+			data.put(pkt.data().position(0).limit(pkt.size()).asByteBuffer());
+			data.rewind();
+			payloads.add(data);
+			av_packet_unref(pkt);
+		}
+	}
+
+	@Override
+	public void start() {
+		//all frames are generated in init
+	}
+
+	@Override
+	public void stop() {
+		//nothing is running
+	}
+
+	@Override
+	public IFrameCursor openVideoCursor(int keyFrameIndex) {
+		int startIndex = keyFrameIndex * gop < videoFrames.size() ? keyFrameIndex * gop : 0;
+		return new FrameListCursor(videoFrames, startIndex, () -> true);
+	}
+
+	@Override
+	public IFrameCursor openAudioCursor(int keyFrameIndex) {
+		int startIndex = 0;
+		if (keyFrameIndex * gop < videoFrames.size()) {
+			startIndex = KeyFrameTable.findFrameIndex(audioFrames, videoFrames.get(keyFrameIndex * gop).timeStamp);
+		}
+		return new FrameListCursor(audioFrames, startIndex, () -> true);
+	}
+
+	@Override
+	public int getKeyFrameCount() {
+		return (videoFrames.size() + gop - 1) / gop;
+	}
+
+	@Override
+	public long getGopDurationMs() {
+		return Math.round(gop * 1000.0 / fps);
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public double getFrameRate() {
+		return fps;
+	}
+
+	@Override
+	public long getLoopDurationMs() {
+		return durationSeconds * 1000L;
+	}
+
+	@Override
+	public boolean hasVideo() {
+		return !videoFrames.isEmpty();
+	}
+
+	@Override
+	public boolean hasAudio() {
+		return true;
+	}
+
+	/**
+	 * Writes the bits of the RBSP most significant bit first
+	 */
+	static class BitWriter {
+		private ByteArrayOutputStream out = new ByteArrayOutputStream();
+		private int current = 0;
+		private int bitCount = 0;
+
+		void writeBits(long value, int count) {
+			for (int i = count - 1; i >= 0; i--) {
+				current = (current << 1) | (int) ((value >>> i) & 1);
+				bitCount++;
+				if (bitCount == 8) {
+					out.write(current);
+					current = 0;
+					bitCount = 0;
+				}
+			}
+		}
+
+		/**
+		 * Unsigned Exp-Golomb code
+		 */
+		void writeUE(long value) {
+			long codeNum = value + 1;
+			int length = 63 - Long.numberOfLeadingZeros(codeNum);
+			writeBits(0, length);
+			writeBits(codeNum, length + 1);
+		}
+
+		/**
+		 * Signed Exp-Golomb code
+		 */
+		void writeSE(long value) {
+			writeUE(value > 0 ? 2 * value - 1 : -2 * value);
+		}
+
+		void writeTrailingBits() {
+			writeBits(1, 1);
+			while (bitCount != 0) {
+				writeBits(0, 1);
+			}
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+	}
+}
@@ -2,12 +2,13 @@ package io.antmedia.webrtctest;
 
 public abstract class WebRTCClientEmulator {
 	protected WebRTCManager manager;
-	long count = 0;
-	long totalDt = 0;
-	long last;
-	boolean firstFrame = true;
-	private boolean isRunning;
-	private boolean isStarted = false;
+	
+	/**
+	 * Frames that are sent or received. It's written in the sending or decoding thread and read by the stats
+	 */
+	private final FrameMetrics metrics = new FrameMetrics();
+	private volatile boolean isRunning;
+	private volatile boolean isStarted = false;
 
 	public void start() { 
 		isStarted = true;
@@ -20,28 +21,27 @@ public abstract class WebRTCClientEmulator {
 	public void setManager(WebRTCManager manager) {
 		this.manager = manager;
 	}
+	
+	/**
+	 * @return mean time between frames in ms or -1 if there is not any frame yet
+	 */
 	public int getFramePeriod() {
-		if(count != 0) {
-			return (int) (totalDt/count);
-		} 
-		return -1;
+		return metrics.read().getFramePeriod();
 	}
 
-	protected void update() {
-		long now = System.currentTimeMillis();
-		if(firstFrame) {
-			firstFrame = false;
-			count = 0;
-		}
-		else {
-			totalDt += (now - last);
-			count++;
-		}
-		last = now;
+	/**
+	 * Records a video frame. It's called by one thread at a time and it does not allocate
+	 */
+	protected void update(int frameBytes, boolean isKeyFrame) {
+		metrics.record(System.currentTimeMillis(), frameBytes, isKeyFrame);
 	}
 	
 	public long getCount() {
-		return count;
+		return metrics.read().getFrames();
+	}
+	
+	public FrameMetrics getMetrics() {
+		return metrics;
 	}
 	
 	public boolean isRunning() {
@@ -6,11 +6,16 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,7 +37,7 @@ import org.webrtc.PeerConnection.Observer;
 import org.webrtc.PeerConnection.SdpSemantics;
 import org.webrtc.PeerConnection.SignalingState;
 import org.webrtc.PeerConnectionFactory;
-import org.webrtc.PeerConnectionFactory.Options;
+import org.webrtc.RTCStatsReport;
 import org.webrtc.RtpReceiver;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
@@ -43,13 +48,12 @@ import org.webrtc.audio.JavaAudioDeviceModule;
 import org.webrtc.audio.WebRtcAudioRecord;
 import org.webrtc.audio.WebRtcAudioTrack;
 
+import io.antmedia.enterprise.webrtc.codec.CodecBinding;
 import io.antmedia.enterprise.webrtc.codec.VirtualVideoDecoder;
 import io.antmedia.enterprise.webrtc.codec.VirtualVideoDecoderFactory;
 import io.antmedia.enterprise.webrtc.codec.VirtualVideoEncoder;
 import io.antmedia.enterprise.webrtc.codec.VirtualVideoEncoderFactory;
 import io.antmedia.webrtc.VideoCodec;
-import io.antmedia.webrtc.api.IAudioRecordListener;
-import io.antmedia.webrtc.api.IAudioTrackListener;
 
 
 public class WebRTCManager implements Observer, SdpObserver {
@@ -71,7 +75,22 @@ public class WebRTCManager implements Observer, SdpObserver {
 	private WebRtcAudioRecord audioRecord;
 	private VirtualVideoDecoderFactory decoderFactory;
 	private IWebRTCEventListerner listener;
-	private volatile boolean isStopped  = false;
+	private final AtomicBoolean stopped = new AtomicBoolean(false);
+	
+	/**
+	 * Completed when ice is connected for the first time, completed exceptionally if it's stopped before
+	 */
+	private final CompletableFuture<Void> connectFuture = new CompletableFuture<>();
+	
+	/**
+	 * Completed after the resources are released in the signalling thread
+	 */
+	private final CompletableFuture<Void> stopFuture = new CompletableFuture<>();
+	
+	/**
+	 * Native and threaded resources of this client, they're released in order when it's stopped
+	 */
+	private final ResourceTracker resources;
 	private boolean descriptionReady = false;
 	Queue<IceCandidate> iceCandidateQueue = new ConcurrentLinkedQueue<>();
 	private boolean connected = false;
@@ -85,7 +104,10 @@ public class WebRTCManager implements Observer, SdpObserver {
 
 	public static final String AUDIO_TRACK_ID = "ARDAMSa";
 
-	private ScheduledExecutorService signallingExecutor = Executors.newSingleThreadScheduledExecutor();
+	/**
+	 * Lane of the stream in the shared striped executor, signalling of the stream runs in order in it
+	 */
+	private ScheduledExecutorService signallingExecutor;
 	private Settings settings;
 
 	private DataChannel dataChannel;
@@ -96,147 +118,353 @@ public class WebRTCManager implements Observer, SdpObserver {
 
 	private boolean firstPongMessageReceived = false;
 
-	private boolean tryAgain = false;
+	private RetryPolicy retryPolicy;
+	
+	/**
+	 * Reason of the last rejection or null if the server has not rejected this client
+	 */
+	private String rejectionReason = null;
+	
+	private long firstRejectionNanos;
+	
+	private int retryAttempts = 0;
+	
+	private boolean admitted = false;
+	
+	private enum RecoveryPhase {
+		NONE, ICE_RESTART, RESIGNAL
+	}
+	
+	private static final long ICE_RESTART_TIMEOUT_MS = 5000;
+	
+	private static final long RESIGNAL_TIMEOUT_MS = 30000;
+	
+	private static final int MAX_RESIGNAL_ATTEMPTS = 3;
+	
+	/**
+	 * Timeout of the blocking control methods that wait for the signalling thread
+	 */
+	public static final long DEFAULT_CONTROL_TIMEOUT_MS = 10000;
+	
+	private RecoveryMeter recoveryMeter;
+	
+	private HandshakeStats handshakeStats;
+	
+	private volatile HandshakeTimeline timeline;
+	
+	/**
+	 * Client is started once, by the ramp or by {@link #connectAsync(long)} whichever is first
+	 */
+	private final AtomicBoolean started = new AtomicBoolean(false);
+	
+	private RecoveryPhase recoveryPhase = RecoveryPhase.NONE;
+	
+	private long recoveryStartNanos;
+	
+	private int resignalAttempts = 0;
+	
+	/**
+	 * Type of the local description that waits for the end of ice gathering in non-trickle mode
+	 */
+	private String pendingDescriptionType;
+	
+	private int gatheringGeneration = 0;
+	
+	/**
+	 * Incremented for every recovery step, so that timeouts of the previous steps are ignored
+	 */
+	private int recoveryGeneration = 0;
+	
+	/**
+	 * Shared factories. If it's null, this manager creates its own factory
+	 */
+	private PeerConnectionFactoryPool factoryPool;
+	
+	private int factoryIndex = -1;
+	
+	private volatile VirtualVideoEncoder encoder;
+	
+	private volatile VirtualVideoDecoder decoder;
+	
+	private IPacketListener decoderListener;
+	
+	private Consumer<VirtualVideoEncoder> encoderClaim = this::bindEncoder;
+	
+	private Consumer<VirtualVideoDecoder> decoderClaim = this::bindDecoder;
+	
+	/**
+	 * Binding key of the current peer connection in the shared factory, null if factory is not shared
+	 */
+	private volatile String codecKey;
 
 	public WebRTCManager(String streamId, Settings settings) 
 	{
 		this.settings = settings;
 		this.setStreamId(streamId);
+		signallingExecutor = createSignallingExecutor(streamId, settings);
+		resources = new ResourceTracker(streamId);
 
 		websocket = new WebsocketClientEndpoint(settings);
 		websocket.setManager(this);
+		resources.register(ResourceTracker.Kind.SIGNALLING, "websocket", websocket::close);
+	}
+	
+	/**
+	 * Creates a manager whose signalling is multiplexed with other streams over a shared websocket session
+	 */
+	public WebRTCManager(String streamId, Settings settings, WebsocketClientEndpoint sharedWebsocket) 
+	{
+		this.settings = settings;
+		this.setStreamId(streamId);
+		signallingExecutor = createSignallingExecutor(streamId, settings);
+		resources = new ResourceTracker(streamId);
+
+		websocket = sharedWebsocket;
+		//session is shared by other streams
+		resources.register(ResourceTracker.Kind.SIGNALLING, "shared websocket", () -> websocket.removeManager(this));
+	}
+	
+	/**
+	 * @return a mailbox on virtual threads in virtual thread mode, otherwise the lane of the stream in the shared executor
+	 */
+	private ScheduledExecutorService createSignallingExecutor(String streamId, Settings settings) {
+		if (settings.virtualThreads) {
+			if (Mailbox.isVirtualThreadSupported()) {
+				return Mailbox.newVirtual();
+			}
+			logger.warn("Virtual threads are not supported, signalling of {} runs in the shared lanes", streamId);
+		}
+		return StripedExecutor.getShared().getLane(streamId);
 	}
 	
 	public void webSocketOpened() {
-		signallingExecutor.scheduleWithFixedDelay(() -> {
-			websocket.sendPingMessage();
-			
-		}, 0, 3, TimeUnit.SECONDS);
+		markPhase(HandshakeTimeline.Phase.WEBSOCKET_OPEN);
+		if (websocket.isMultiplexed()) {
+			//session is already open and pinged by the keep alive scheduler, stream can start now
+			pongMessageReceived();
+		}
+		//otherwise first ping is sent when session is opened and stream starts with its pong
 	}
 	
 	public void pongMessageReceived() 
 	{
-		//start process after getting first pong message
-		if (!firstPongMessageReceived || tryAgain ) 
-		{
-			logger.info("Pong message received and starting process for stream:{}", getStreamId());
-			firstPongMessageReceived = true;
-			if(settings.mode == Mode.PUBLISHER) {
-				websocket.sendPublish(getStreamId());
-			}
-			else if(settings.mode == Mode.PLAYER){
-				websocket.sendPlay(getStreamId());
+		signallingExecutor.execute(() -> {
+			if (isStopped()) {
+				return;
 			}
-			else if(settings.mode == Mode.PARTICIPANT){
-				websocket.sendJoinTheRoom(getStreamId(), settings.roomId, settings.roomMode);
+			//start process after getting first pong message
+			if (!firstPongMessageReceived) 
+			{
+				logger.info("Pong message received and starting process for stream:{}", getStreamId());
+				markPhase(HandshakeTimeline.Phase.FIRST_PONG);
+				firstPongMessageReceived = true;
+				sendStartRequest();
 			}
+		});
+	}
+	
+	private void sendStartRequest() {
+		markPhase(HandshakeTimeline.Phase.REQUEST_SENT);
+		if(settings.mode == Mode.PUBLISHER) {
+			websocket.sendPublish(getStreamId());
+		}
+		else if(settings.mode == Mode.PLAYER){
+			websocket.sendPlay(getStreamId());
+		}
+		else if(settings.mode == Mode.PARTICIPANT){
+			websocket.sendJoinTheRoom(getStreamId(), settings.roomId, settings.roomMode);
 		}
-		tryAgain = false;
 	}
 	
-	public void setTryagain(boolean tryAgain) {
-		this.tryAgain = tryAgain;
+	/**
+	 * Called when server rejects the request of this client with a reason that can be retried. 
+	 * Request is sent again after the backoff of the retry policy or client gives up after the maximum attempts
+	 */
+	public void onRejected(String reason) {
+		signallingExecutor.execute(() -> {
+			if (isStopped()) {
+				return;
+			}
+			if (rejectionReason == null) {
+				firstRejectionNanos = System.nanoTime();
+			}
+			rejectionReason = reason;
+			long delay = retryPolicy.onRejection(reason, retryAttempts);
+			if (delay == RetryPolicy.GIVE_UP) {
+				logger.warn("Giving up stream:{} after {} retries, last rejection:{}", getStreamId(), retryAttempts, reason);
+				stop();
+				listener.onCompleted(WebRTCManager.this);
+				return;
+			}
+			scheduleRetry(delay);
+		});
+	}
+	
+	private void scheduleRetry(long delayMs) {
+		signallingExecutor.schedule(() -> {
+			if (isStopped()) {
+				return;
+			}
+			if (!retryPolicy.tryRetry(rejectionReason)) {
+				//retry budget of the reason is used up, wait for another backoff without counting an attempt
+				scheduleRetry(retryPolicy.getDelayMs(retryAttempts));
+				return;
+			}
+			retryAttempts++;
+			logger.info("Retrying stream:{} attempt:{} after rejection:{}", getStreamId(), retryAttempts, rejectionReason);
+			sendStartRequest();
+		}, delayMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Called when server accepts the request and starts the negotiation
+	 */
+	public void onAdmitted() {
+		markPhase(HandshakeTimeline.Phase.OFFER_RECEIVED);
+		signallingExecutor.execute(() -> {
+			if (admitted) {
+				return;
+			}
+			admitted = true;
+			if (rejectionReason != null) {
+				retryPolicy.onAdmitted(rejectionReason, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstRejectionNanos));
+			}
+		});
 	}
 
 	private void initPeerConnection() {
 
 		signallingExecutor.execute(() -> {
 			createMediaConstraintsInternal();
-			peerConnectionFactory = createPeerConnectionFactory();
+			if (factoryPool != null) {
+				useSharedPeerConnectionFactory();
+			}
+			else {
+				peerConnectionFactory = createPeerConnectionFactory();
+				resources.register(ResourceTracker.Kind.AUDIO_DEVICE, "adm", adm::release);
+				PeerConnectionFactory factory = peerConnectionFactory;
+				resources.register(ResourceTracker.Kind.FACTORY, "factory", () -> {
+					factory.dispose();
+					peerConnectionFactory = null;
+				});
+			}
 
-			List<IceServer> iceServers = new ArrayList<>();
-			iceServers.add(IceServer.builder(stunServerUri).createIceServer());
-			PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+			createPeerConnection();
+		});
+	}
+	
+	/**
+	 * Creates the peer connection and the local tracks with the current factory. It's called again with
+	 * the same factory when the session is re-signalled
+	 */
+	private void createPeerConnection() {
+		List<IceServer> iceServers = new ArrayList<>();
+		iceServers.add(IceServer.builder(stunServerUri).createIceServer());
+		PeerConnection.RTCConfiguration rtcConfig = new PeerConnection.RTCConfiguration(iceServers);
+
+		rtcConfig.enableDtlsSrtp = true;
+		rtcConfig.disableIpv6 = true;
+		rtcConfig.sdpSemantics = settings.mainTrack != null ? SdpSemantics.UNIFIED_PLAN : SdpSemantics.PLAN_B;
+
+		//rtcConfig.tcpCandidatePolicy = TcpCandidatePolicy.ENABLED; 
+
+		logger.info("Creating peerconnection hascode:{} time:{}" , WebRTCManager.this.hashCode(), System.currentTimeMillis());
+		peerConnection = peerConnectionFactory.createPeerConnection(rtcConfig, WebRTCManager.this);
+		PeerConnection connection = peerConnection;
+		resources.register(ResourceTracker.Kind.PEER_CONNECTION, "peer connection", () -> {
+			connection.dispose();
+			if (peerConnection == connection) {
+				peerConnection = null;
+			}
+		});
 
-			rtcConfig.enableDtlsSrtp = true;
-			rtcConfig.disableIpv6 = true;
-			rtcConfig.sdpSemantics = settings.mainTrack != null ? SdpSemantics.UNIFIED_PLAN : SdpSemantics.PLAN_B;
 
-			//rtcConfig.tcpCandidatePolicy = TcpCandidatePolicy.ENABLED; 
 
-			logger.info("Creating peerconnection hascode:{} time:{}" , WebRTCManager.this.hashCode(), System.currentTimeMillis());
-			peerConnection = peerConnectionFactory.createPeerConnection(rtcConfig, WebRTCManager.this);
+		if (settings.isPublishing()) {
+			//why ARDAMS is used
+		
+			List<String> mediaStreamLabels = Collections.singletonList("ARDAMS");
 
+			//instantiate video source
+			VideoSource videoSource = peerConnectionFactory.createVideoSource(false);
+			resources.register(ResourceTracker.Kind.MEDIA_SOURCE, "video source", videoSource::dispose);
+			capturerObserver = videoSource.getCapturerObserver();
 
+			//by normal app, video capturer started immediately after creating creating peer connection
 
-			if (webRTCClientEmulator instanceof WebRTCPublisher) {
-				//why ARDAMS is used
-			
-				List<String> mediaStreamLabels = Collections.singletonList("ARDAMS");
 
-				//instantiate video source
-				VideoSource videoSource = peerConnectionFactory.createVideoSource(false);
-				capturerObserver = videoSource.getCapturerObserver();
+			/**
+			 *  It seems that we do not need custom video capturer technically
+			 *  because video capturer call capturerObserver's below functions.
+			 *  We can call below functions in WebRTCClient. 
+			 *  
+			 *  capturerObserver.onCapturerStarted(success)
+			 *  capturerObserver.onCapturerStopped();
+			 *  capturerObserver.onFrameCaptured(frame);
+			 */
 
-				//by normal app, video capturer started immediately after creating creating peer connection
+			VideoTrack videoTrack = peerConnectionFactory.createVideoTrack(VIDEO_TRACK_ID+streamId, videoSource);
 
+			peerConnection.addTrack(videoTrack, mediaStreamLabels);
 
-				/**
-				 *  It seems that we do not need custom video capturer technically
-				 *  because video capturer call capturerObserver's below functions.
-				 *  We can call below functions in WebRTCClient. 
-				 *  
-				 *  capturerObserver.onCapturerStarted(success)
-				 *  capturerObserver.onCapturerStopped();
-				 *  capturerObserver.onFrameCaptured(frame);
-				 */
+			audioSource = peerConnectionFactory.createAudioSource(audioConstraints);
+			AudioSource source = audioSource;
+			resources.register(ResourceTracker.Kind.MEDIA_SOURCE, "audio source", () -> {
+				source.dispose();
+				if (audioSource == source) {
+					audioSource = null;
+				}
+			});
+			AudioTrack localAudioTrack = peerConnectionFactory.createAudioTrack(AUDIO_TRACK_ID+streamId, audioSource);
 
-				VideoTrack videoTrack = peerConnectionFactory.createVideoTrack(VIDEO_TRACK_ID+streamId, videoSource);
-
-				peerConnection.addTrack(videoTrack, mediaStreamLabels);
-
-				audioSource = peerConnectionFactory.createAudioSource(audioConstraints);
-				AudioTrack localAudioTrack = peerConnectionFactory.createAudioTrack(AUDIO_TRACK_ID+streamId, audioSource);
-
-				peerConnection.addTrack(localAudioTrack, mediaStreamLabels);
-
-				capturerObserver = videoSource.getCapturerObserver();
-				
-				if(settings.dataChannel) {
-					this.dataChannel = peerConnection.createDataChannel(streamId, new DataChannel.Init());
-
-					dataChannel.registerObserver(new DataChannel.Observer() {
-						@Override
-						public void onStateChange() {
-							logger.info("DataChannel State Change for stream Id {} state", streamId);
-							signallingExecutor.execute(()-> {
-								if (isStopped()) {
-									logger.info("Returning onState change because streaming has been stopeed for stream:{}", streamId);
-									return;
-								}
-								if(WebRTCManager.this.dataChannel != null && WebRTCManager.this.dataChannel.state() == State.CLOSED) {
-									WebRTCManager.this.dataChannel = null;
-								}
-							});
-							
-						}
+			peerConnection.addTrack(localAudioTrack, mediaStreamLabels);
 
-						@Override
-						public void onMessage(Buffer buffer) {
-							logger.debug("DataChannel message received stream Id {}", streamId);
-							byte[] data = new byte[buffer.data.capacity()];
-							buffer.data.get(data);
-							listener.onDataChannelMessage(new String(data));
-						}
+			capturerObserver = videoSource.getCapturerObserver();
+			
+			if(settings.dataChannel) {
+				this.dataChannel = peerConnection.createDataChannel(streamId, new DataChannel.Init());
+				registerDataChannel(dataChannel);
 
-						@Override
-						public void onBufferedAmountChange(long previousAmount) {
-							logger.debug("DataChannel Buffered Amount Change Id {}", streamId);
-						}
-					});
-				}
-			}
+				dataChannel.registerObserver(new DataChannel.Observer() {
+					@Override
+					public void onStateChange() {
+						logger.info("DataChannel State Change for stream Id {} state", streamId);
+						signallingExecutor.execute(()-> {
+							if (isStopped()) {
+								logger.info("Returning onState change because streaming has been stopeed for stream:{}", streamId);
+								return;
+							}
+							if(WebRTCManager.this.dataChannel != null && WebRTCManager.this.dataChannel.state() == State.CLOSED) {
+								WebRTCManager.this.dataChannel = null;
+							}
+						});
+						
+					}
 
-			Logging.enableLogToDebugOutput(settings.logLevel);
+					@Override
+					public void onMessage(Buffer buffer) {
+						logger.debug("DataChannel message received stream Id {}", streamId);
+						byte[] data = new byte[buffer.data.capacity()];
+						buffer.data.get(data);
+						listener.onDataChannelMessage(new String(data));
+					}
 
-		});
+					@Override
+					public void onBufferedAmountChange(long previousAmount) {
+						logger.debug("DataChannel Buffered Amount Change Id {}", streamId);
+					}
+				});
+			}
+		}
+
+		Logging.enableLogToDebugOutput(settings.logLevel);
 	}
 
 	public void setRemoteDescription(SessionDescription sdp) {
 		System.out.println("******************\nsetRemoteDescription\n"+sdp.description+"\n**************************");
 		signallingExecutor.execute(() -> {
 			if (peerConnection != null) {
-				peerConnection.setRemoteDescription(WebRTCManager.this, sdp);
+				peerConnection.setRemoteDescription(WebRTCManager.this, bindCodecs(sdp));
 			}
 			else {
 				logger.warn("Peer connection is null. It cannot add ice candidate for stream Id {}", getStreamId());
@@ -246,68 +474,104 @@ public class WebRTCManager implements Observer, SdpObserver {
 
 
 	private PeerConnectionFactory createPeerConnectionFactory(){
-		PeerConnectionFactory.initialize(
-				PeerConnectionFactory.InitializationOptions.builder()
-				.setFieldTrials(null)
-				.createInitializationOptions());
-
+		PeerConnectionFactoryPool.initialize();
 		
 		encoderFactory = new VirtualVideoEncoderFactory(settings.codec == VideoCodec.H264, settings.codec == VideoCodec.VP8, settings.codec == VideoCodec.H265);
 
 		decoderFactory = new VirtualVideoDecoderFactory(settings.codec == VideoCodec.H264, settings.codec == VideoCodec.VP8, settings.codec == VideoCodec.H265); 
+		
+		bindEncoder(encoderFactory.getEncoder());
+		bindDecoder(decoderFactory.getDecoder());
 
-		PeerConnectionFactory.Options options = new PeerConnectionFactory.Options();
-		options.disableNetworkMonitor = true;
-		options.networkIgnoreMask = Options.ADAPTER_TYPE_LOOPBACK;
-
-		if(settings.mode == Mode.PUBLISHER || settings.mode == Mode.PARTICIPANT) {
-			adm = (JavaAudioDeviceModule)JavaAudioDeviceModule.builder(null)
-					.setUseHardwareAcousticEchoCanceler(false)
-					.setUseHardwareNoiseSuppressor(false)
-					.setAudioRecordErrorCallback(null)
-					.setAudioTrackErrorCallback(null)
-					.setAudioRecordListener(new IAudioRecordListener() {
-						@Override
-						public void audioRecordStoppped() {
-						}
-						@Override
-						public void audioRecordStarted() {
-						}
-					})
-					.createAudioDeviceModule();
-
+		adm = PeerConnectionFactoryPool.createAudioDeviceModule(settings, streamId);
+		
+		if(settings.isPublishing()) {
 			audioRecord = adm.getAudioRecord();
 		}
 		else {
-			// in receiving stream only Audio Track should be enabled
-			// in sending stream only AudioRecord should be enabled 
-			adm = (JavaAudioDeviceModule)
-					JavaAudioDeviceModule.builder(null)
-					.setUseHardwareAcousticEchoCanceler(false)
-					.setUseHardwareNoiseSuppressor(false)
-					.setAudioRecordErrorCallback(null)
-					.setAudioTrackErrorCallback(null)
-					.setAudioTrackListener(new IAudioTrackListener() {
-						public void playoutStarted() {
-							logger.info("starting playout for stream {}", streamId);
-						}
-
-						public void playoutStopped() {
-							logger.info("stopping playout for stream {}", streamId);
-
-						}
-					})
-					.createAudioDeviceModule();
-
 			webRtcAudioTrack = adm.getAudioTrack();
 		}
 
-		return  PeerConnectionFactory.builder()
-				.setOptions(options)
-				.setAudioDeviceModule(adm)
-				.setVideoEncoderFactory(encoderFactory)
-				.setVideoDecoderFactory(decoderFactory)
-				.createPeerConnectionFactory();
+		return PeerConnectionFactoryPool.createFactory(adm, encoderFactory, decoderFactory);
+	}
+	
+	/**
+	 * Uses one of the shared factories. Encoder and decoder are bound to this connection 
+	 * when libwebrtc creates them for the connection
+	 */
+	private void useSharedPeerConnectionFactory() {
+		factoryPool.retain();
+		//factory and adm are shared, they are disposed by the pool
+		resources.register(ResourceTracker.Kind.FACTORY, "shared factory", () -> {
+			peerConnectionFactory = null;
+			factoryPool.release();
+		});
+		factoryIndex = factoryPool.nextIndex();
+		peerConnectionFactory = factoryPool.getFactory(factoryIndex);
+		encoderFactory = factoryPool.getEncoderFactory(factoryIndex);
+		decoderFactory = factoryPool.getDecoderFactory(factoryIndex);
+		adm = factoryPool.getAudioDeviceModule(factoryIndex);
+		
+		if (settings.isPublishing()) {
+			audioRecord = adm.getAudioRecord();
+		}
+		else {
+			webRtcAudioTrack = adm.getAudioTrack();
+		}
+		claimCodecs();
+	}
+	
+	/**
+	 * Waits for the encoder or decoder that shared factory creates for the peer connection. Descriptions are tagged
+	 * with the key of the connection before they're set, so that factory binds the codec to this connection
+	 */
+	private void claimCodecs() {
+		//each peer connection has its own key, so a late codec of the previous one is not bound after re-signalling
+		String key = CodecBinding.newKey();
+		codecKey = key;
+		if (settings.isPublishing()) {
+			encoderFactory.claimEncoder(key, encoderClaim);
+			resources.register(ResourceTracker.Kind.CODEC, "encoder claim " + key, () -> encoderFactory.cancelClaim(key));
+		}
+		else {
+			decoderFactory.claimDecoder(key, decoderClaim);
+			resources.register(ResourceTracker.Kind.CODEC, "decoder claim " + key, () -> decoderFactory.cancelClaim(key));
+		}
+	}
+	
+	/**
+	 * @return the description tagged with the binding key of the peer connection if factory is shared
+	 */
+	private SessionDescription bindCodecs(SessionDescription sdp) {
+		String key = codecKey;
+		return key == null ? sdp : new SessionDescription(sdp.type, CodecBinding.tag(sdp.description, key));
+	}
+	
+	private void bindEncoder(VirtualVideoEncoder encoder) {
+		this.encoder = encoder;
+	}
+	
+	private void bindDecoder(VirtualVideoDecoder decoder) {
+		signallingExecutor.execute(() -> {
+			this.decoder = decoder;
+			decoder.setFirstFrameCallback(() -> markPhase(HandshakeTimeline.Phase.FIRST_FRAME));
+			if (decoderListener != null) {
+				decoder.subscribe(decoderListener);
+			}
+		});
+	}
+	
+	/**
+	 * Subscribes the listener to the decoder of this connection. If decoder is not created yet,
+	 * it's subscribed when it's created
+	 */
+	public void subscribeDecoder(IPacketListener listener) {
+		signallingExecutor.execute(() -> {
+			decoderListener = listener;
+			if (decoder != null) {
+				decoder.subscribe(listener);
+			}
+		});
 	}
 
 	public void createOffer() {
@@ -359,68 +623,31 @@ public class WebRTCManager implements Observer, SdpObserver {
 		return capturerObserver;
 	}
 
-	public synchronized void stop() {
-		if (isStopped) {
+	public void stop() {
+		if (!stopped.compareAndSet(false, true)) {
 			logger.info("WebRTCManager is already stopped. Hash:{}", WebRTCManager.this.hashCode());
 			return;
 		}
-		isStopped = true;
+		connectFuture.completeExceptionally(new IllegalStateException("Stream " + streamId + " is stopped before it's connected"));
 
 		signallingExecutor.execute(() -> {
 			try {
-				websocket.close();
 				logger.info("WebRTCManager stopping. Hash: {}", WebRTCManager.this.hashCode());
-				
-				webRTCClientEmulator.stop();
-				
-				logger.info("Checking data channel for stream: {}", streamId);
-				try {
-					//it may throw exception and it effects the closing scenario
-					if(dataChannel != null ) {
-						logger.info("data channel state: {} for stream id: {}", dataChannel.state(), streamId);
-						dataChannel.close();
-						dataChannel.dispose();
-						dataChannel = null;
-					}
-				}
-				catch(Exception e) {
-					e.printStackTrace();
-				}
-				
-				if (peerConnection != null) {
-					logger.info("Closing and disposing peer connection for stream Id {} for {}", streamId, this.hashCode());
-					peerConnection.dispose();
-					peerConnection = null;
-				}
-	
-				if (peerConnectionFactory != null) {
-					logger.info("Closing peer connection factory for {}", streamId);
-					peerConnectionFactory.dispose();
-					peerConnectionFactory = null;
-				}
-				
-				if (audioSource != null) {
-					logger.info("Disposing audio source for stream Id {}", streamId);
-					audioSource.dispose();
-					audioSource = null;
-				}
-				
-				logger.info("Releasing adm for stream: {}", streamId);
-				adm.release();
-				
+				//websocket, client, data channel, peer connection, sources, codec claims, factory and adm in order
+				resources.releaseAll();
 				logger.info("WebRTCManager stopping leaving for {} Hash: {}", streamId, WebRTCManager.this.hashCode());
 			}
 			catch (Exception e) {
 				e.printStackTrace();
 			}
+			finally {
+				stopFuture.complete(null);
+			}
 		});
-		
-		//TODO: Re-enable this. However when it's shutdown, tests are crashing
-		//signallingExecutor.shutdown();
 	}
 
 	public VirtualVideoEncoder getEncoder() {
-		return encoderFactory.getEncoder();
+		return encoder;
 	}
 
 	@Override
@@ -448,7 +675,8 @@ public class WebRTCManager implements Observer, SdpObserver {
 							iterator.remove();
 						}
 						descriptionReady = true;
-						websocket.sendSDPConfiguration(sdp.description, "answer", getStreamId());
+						markPhase(HandshakeTimeline.Phase.LOCAL_DESCRIPTION_SET);
+						sendLocalDescription(sdp, "answer");
 					}
 
 					@Override
@@ -465,7 +693,7 @@ public class WebRTCManager implements Observer, SdpObserver {
 					public void onCreateFailure(String error) {
 						// no need
 					}
-				}, sdp);
+				}, bindCodecs(sdp));
 			}
 			else  {  //this is webrtc publisher
 
@@ -473,7 +701,8 @@ public class WebRTCManager implements Observer, SdpObserver {
 					@Override
 					public void onSetSuccess() {
 						logger.info("local SDP is set");
-						websocket.sendSDPConfiguration(sdp.description, "offer", getStreamId());
+						markPhase(HandshakeTimeline.Phase.LOCAL_DESCRIPTION_SET);
+						sendLocalDescription(sdp, "offer");
 					}
 					@Override
 					public void onSetFailure(String error) {
@@ -483,21 +712,64 @@ public class WebRTCManager implements Observer, SdpObserver {
 					public void onCreateSuccess(SessionDescription sdp) {}
 					@Override
 					public void onCreateFailure(String error) {}
-				}, sdp);
+				}, bindCodecs(sdp));
 			}
 			logger.info("1 onCreateSuccess for {}", getStreamId());
 		});
 	}
 
+	/**
+	 * Sends the local description. In non-trickle mode, it's sent with the candidates in it after ice gathering 
+	 * is completed or the gathering window is over
+	 */
+	private void sendLocalDescription(SessionDescription sdp, String type) {
+		if (settings.candidateMode != CandidateMode.NON_TRICKLE) {
+			//an answer may copy the binding key from the tagged offer
+			websocket.sendSDPConfiguration(CodecBinding.strip(sdp.description), type, getStreamId());
+			return;
+		}
+		signallingExecutor.execute(() -> {
+			if (peerConnection == null) {
+				return;
+			}
+			pendingDescriptionType = type;
+			int generation = ++gatheringGeneration;
+			if (peerConnection.iceGatheringState() == IceGatheringState.COMPLETE) {
+				sendGatheredDescription();
+				return;
+			}
+			signallingExecutor.schedule(() -> {
+				if (generation == gatheringGeneration && pendingDescriptionType != null) {
+					logger.warn("Ice gathering of stream {} is not completed in {}ms, description is sent with the gathered candidates", 
+							getStreamId(), settings.candidateWindowMs);
+					sendGatheredDescription();
+				}
+			}, settings.candidateWindowMs, TimeUnit.MILLISECONDS);
+		});
+	}
+	
+	/**
+	 * Sends the current local description that has the gathered candidates. Runs in signalling thread
+	 */
+	private void sendGatheredDescription() {
+		String type = pendingDescriptionType;
+		pendingDescriptionType = null;
+		SessionDescription localDescription = peerConnection != null ? peerConnection.getLocalDescription() : null;
+		if (type != null && localDescription != null) {
+			//binding keys are local to this process
+			websocket.sendSDPConfiguration(CodecBinding.strip(localDescription.description), type, getStreamId());
+		}
+	}
+	
 	@Override
 	public void onSetSuccess() {
 		signallingExecutor.execute(() -> {
 			logger.info("onSetSuccess for {}", getStreamId());
-			if(webRTCClientEmulator instanceof WebRTCPlayer)  //  sdp.type == Type.OFFER) 
+			if(!settings.isPublishing())  //  sdp.type == Type.OFFER) 
 			{
 				peerConnection.createAnswer(this, sdpMediaConstraints);
 			}
-			else if (webRTCClientEmulator instanceof WebRTCPublisher) {
+			else {
 				for (Iterator<IceCandidate> iterator = iceCandidateQueue.iterator(); iterator.hasNext();) {
 					IceCandidate iceCandidate = iterator.next();
 
@@ -519,6 +791,11 @@ public class WebRTCManager implements Observer, SdpObserver {
 
 	@Override
 	public void onSetFailure(String error) {
+		if (recoveryPhase != RecoveryPhase.NONE) {
+			logger.warn("Cannot set remote description while recovering stream {} error:{}", getStreamId(), error);
+			signallingExecutor.execute(this::resignal);
+			return;
+		}
 		logger.info("!!!!!!!!!!!\n!!!!!!!!!!! Cannot set remote description: {} Exiting the app" , error);	
 		
 		System.exit(1);
@@ -533,6 +810,10 @@ public class WebRTCManager implements Observer, SdpObserver {
 	public void onIceConnectionChange(IceConnectionState newState) {
 		signallingExecutor.execute(() -> {
 			logger.info("0 onIceConnectionChange {}  instance:{} time:{}" , newState, WebRTCManager.this.hashCode(), System.currentTimeMillis());
+			if (recoveryPhase != RecoveryPhase.NONE) {
+				onIceConnectionChangeInRecovery(newState);
+				return;
+			}
 			if (newState == IceConnectionState.CONNECTED) {
 
 				if (connected) {
@@ -540,14 +821,16 @@ public class WebRTCManager implements Observer, SdpObserver {
 					return;
 				}
 				connected  = true;
+				markPhase(HandshakeTimeline.Phase.ICE_CONNECTED);
 				//
 				webRTCClientEmulator.start();
-				listener.onCompleted();
+				connectFuture.complete(null);
+				listener.onCompleted(WebRTCManager.this);
 				/* We comment out the below block and make it available both publisher and player above - 
 				 * mekya
 				if(settings.mode == Mode.PLAYER) {
 					streamManager.start();
-					listener.onCompleted();
+					listener.onCompleted(WebRTCManager.this);
 				}
 				*/
 			}
@@ -558,22 +841,176 @@ public class WebRTCManager implements Observer, SdpObserver {
 				/*
 				if(settings.mode == Mode.PUBLISHER) {
 					streamManager.start();
-		 			listener.onCompleted();
+		 			listener.onCompleted(WebRTCManager.this);
 				}
 				*/
 			}
+			else if (connected && settings.recovery && !isStopped() 
+					&& (newState == IceConnectionState.DISCONNECTED || newState == IceConnectionState.FAILED)) 
+			{
+				startRecovery();
+			}
 			else if (newState == IceConnectionState.DISCONNECTED || newState == IceConnectionState.FAILED
 					|| newState == IceConnectionState.CLOSED) 
 			{	
 				webRTCClientEmulator.stop();
 				stop();
-				listener.onCompleted();
+				listener.onCompleted(WebRTCManager.this);
 			}
 			logger.info("1 onIceConnectionChange {} instance:{}" , newState, WebRTCManager.this.hashCode());
 		});
 
 	}
 
+	/**
+	 * Connection is lost, first ICE is restarted on the same peer connection. Runs in signalling thread
+	 */
+	private void startRecovery() {
+		recoveryMeter.onDisconnected();
+		recoveryStartNanos = System.nanoTime();
+		recoveryPhase = RecoveryPhase.ICE_RESTART;
+		int generation = ++recoveryGeneration;
+		logger.warn("Connection of stream {} is lost, restarting ice", getStreamId());
+		
+		peerConnection.restartIce();
+		if (settings.isPublishing()) {
+			//publisher is the offerer, new offer carries the new ice credentials
+			peerConnection.createOffer(WebRTCManager.this, sdpMediaConstraints);
+		}
+		//player is the answerer, its ice agent keeps checking the existing candidates until timeout
+		signallingExecutor.schedule(() -> {
+			if (generation == recoveryGeneration && recoveryPhase == RecoveryPhase.ICE_RESTART) {
+				resignal();
+			}
+		}, ICE_RESTART_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Starts over with a fresh peer connection and a new publish or play request for the same stream id.
+	 * Factory, emulator and stats are kept. Runs in signalling thread
+	 */
+	private void resignal() {
+		if (isStopped()) {
+			return;
+		}
+		if (resignalAttempts >= MAX_RESIGNAL_ATTEMPTS) {
+			logger.warn("Stream {} cannot be recovered after {} re-signalling attempts", getStreamId(), resignalAttempts);
+			recoveryMeter.onFailed();
+			recoveryPhase = RecoveryPhase.NONE;
+			webRTCClientEmulator.stop();
+			stop();
+			listener.onCompleted(WebRTCManager.this);
+			return;
+		}
+		resignalAttempts++;
+		recoveryPhase = RecoveryPhase.RESIGNAL;
+		int generation = ++recoveryGeneration;
+		logger.warn("Re-signalling stream {} attempt:{}", getStreamId(), resignalAttempts);
+		
+		disposePeerConnection();
+		descriptionReady = false;
+		iceCandidateQueue.clear();
+		pendingDescriptionType = null;
+		gatheringGeneration++;
+		if (factoryPool != null) {
+			//old claim is released through the tracker so that it's not counted as live
+			resources.release(ResourceTracker.Kind.CODEC);
+			claimCodecs();
+		}
+		createPeerConnection();
+		
+		if (websocket.isOpen()) {
+			websocket.sendStop(getStreamId());
+			sendStartRequest();
+		}
+		else {
+			//server may be restarted, stream starts again with the first pong of the new session
+			firstPongMessageReceived = false;
+			websocket.reconnect();
+		}
+		
+		signallingExecutor.schedule(() -> {
+			if (generation == recoveryGeneration && recoveryPhase == RecoveryPhase.RESIGNAL) {
+				resignal();
+			}
+		}, RESIGNAL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+	
+	private void onIceConnectionChangeInRecovery(IceConnectionState newState) {
+		if (newState == IceConnectionState.CONNECTED || newState == IceConnectionState.COMPLETED) {
+			long timeToRecoverMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recoveryStartNanos);
+			logger.info("Stream {} is recovered by {} in {}ms", getStreamId(), recoveryPhase, timeToRecoverMs);
+			recoveryMeter.onRecovered(recoveryPhase == RecoveryPhase.ICE_RESTART, timeToRecoverMs);
+			recoveryPhase = RecoveryPhase.NONE;
+			resignalAttempts = 0;
+			recoveryGeneration++;
+		}
+		else if (newState == IceConnectionState.FAILED && recoveryPhase == RecoveryPhase.ICE_RESTART) {
+			//no need to wait for the timeout
+			resignal();
+		}
+		//closed state of the disposed connection and other changes are ignored while re-signalling
+	}
+	
+	/**
+	 * Called when server finishes the stream. It's recovered in recovery mode, otherwise client stops
+	 */
+	public void onStreamFinished() {
+		signallingExecutor.execute(() -> {
+			if (settings.recovery && connected && !isStopped() && recoveryPhase == RecoveryPhase.NONE) {
+				recoveryMeter.onDisconnected();
+				recoveryStartNanos = System.nanoTime();
+				resignal();
+			}
+			else if (recoveryPhase == RecoveryPhase.NONE) {
+				stop();
+			}
+		});
+	}
+	
+	private void disposePeerConnection() {
+		resources.release(ResourceTracker.Kind.DATA_CHANNEL, ResourceTracker.Kind.PEER_CONNECTION, ResourceTracker.Kind.MEDIA_SOURCE);
+	}
+	
+	/**
+	 * Data channel is closed and disposed before its peer connection
+	 */
+	private void registerDataChannel(DataChannel channel) {
+		resources.register(ResourceTracker.Kind.DATA_CHANNEL, "data channel", () -> {
+			channel.close();
+			channel.dispose();
+			if (dataChannel == channel) {
+				dataChannel = null;
+			}
+		});
+	}
+	
+	private void markPhase(HandshakeTimeline.Phase phase) {
+		HandshakeTimeline currentTimeline = timeline;
+		if (currentTimeline != null) {
+			currentTimeline.mark(phase);
+		}
+	}
+	
+	public HandshakeTimeline getTimeline() {
+		return timeline;
+	}
+	
+	public void setHandshakeStats(HandshakeStats handshakeStats) {
+		this.handshakeStats = handshakeStats;
+	}
+	
+	/**
+	 * Counts the messages of the websocket of this manager. Shared websockets are set by all of their managers
+	 */
+	public void setSignallingStats(SignallingStats signallingStats) {
+		websocket.setSignallingStats(signallingStats);
+	}
+	
+	public void setRecoveryMeter(RecoveryMeter recoveryMeter) {
+		this.recoveryMeter = recoveryMeter;
+	}
+
 	@Override
 	public void onIceConnectionReceivingChange(boolean receiving) {
 		logger.info("onIceConnectionReceivingChange new state: {}" , receiving);
@@ -582,14 +1019,25 @@ public class WebRTCManager implements Observer, SdpObserver {
 	@Override
 	public void onIceGatheringChange(IceGatheringState newState) {
 		logger.info("onIceGatheringChange new state: {}" , newState);
+		if (newState == IceGatheringState.COMPLETE) {
+			signallingExecutor.execute(() -> {
+				if (settings.candidateMode == CandidateMode.NON_TRICKLE && pendingDescriptionType != null) {
+					sendGatheredDescription();
+				}
+			});
+		}
 	}
 
 	@Override
 	public void onIceCandidate(IceCandidate candidate) {
 		
 		signallingExecutor.execute(() -> {
-			websocket.sendTakeCandidateMessage(candidate.sdpMLineIndex,	candidate.sdpMid, candidate.sdp, getStreamId());
+			markPhase(HandshakeTimeline.Phase.FIRST_CANDIDATE);
 			logger.info("onIceCandidate candidate: {}" , candidate);
+			if (settings.candidateMode == CandidateMode.TRICKLE) {
+				websocket.sendTakeCandidateMessage(candidate.sdpMLineIndex,	candidate.sdpMid, candidate.sdp, getStreamId());
+			}
+			//candidates are in the local description in non-trickle mode
 		});
 		
 	}
@@ -623,6 +1071,7 @@ public class WebRTCManager implements Observer, SdpObserver {
 		logger.info("onDataChannel for stream Id {}", getStreamId());
 		this.dataChannel = dataChannel;
 		if(settings.dataChannel) {
+			registerDataChannel(dataChannel);
 			dataChannel.registerObserver(new DataChannel.Observer() {
 				@Override
 				public void onStateChange() {
@@ -672,6 +1121,14 @@ public class WebRTCManager implements Observer, SdpObserver {
 
 	public void setStreamManager(WebRTCClientEmulator streamManager) {
 		this.webRTCClientEmulator = streamManager;		
+		resources.register(ResourceTracker.Kind.CLIENT, "client", streamManager::stop);
+	}
+
+	/**
+	 * @return resources of this client. Client emulator registers its own resources to be released with the connection
+	 */
+	public ResourceTracker getResources() {
+		return resources;
 	}
 
 	public WebRtcAudioRecord getAudioRecord() {
@@ -687,13 +1144,25 @@ public class WebRTCManager implements Observer, SdpObserver {
 	}
 
 	public void start() {
+		if (!started.compareAndSet(false, true)) {
+			logger.debug("Stream {} is already started", getStreamId());
+			return;
+		}
+		timeline = new HandshakeTimeline(handshakeStats);
 		initPeerConnection();
 
+		if (websocket.isMultiplexed()) {
+			websocket.addManager(this);
+		}
 		websocket.connect();
 	}
+	
+	public Settings getSettings() {
+		return settings;
+	}
 
 	public VirtualVideoDecoder getDecoder() {
-		return decoderFactory.getDecoder();
+		return decoder;
 	}
 
 	public WebRtcAudioTrack getAudioTrack() {
@@ -703,44 +1172,147 @@ public class WebRTCManager implements Observer, SdpObserver {
 	public void setListener(IWebRTCEventListerner listener) {
 		this.listener = listener;
 	}
+	
+	/**
+	 * Sets the scheduler that pings the websocket of this manager. Shared websockets are pinged by their pool's scheduler
+	 */
+	public void setKeepAliveScheduler(KeepAliveScheduler keepAliveScheduler) {
+		if (!websocket.isMultiplexed()) {
+			websocket.setKeepAliveScheduler(keepAliveScheduler);
+		}
+	}
+	
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+	
+	public void setFactoryPool(PeerConnectionFactoryPool factoryPool) {
+		this.factoryPool = factoryPool;
+	}
 
 	public WebRTCClientEmulator getStreamManager() {
 		return webRTCClientEmulator;
 	}
 
 	public void sendDataChannelMessage(String message) {
-		if(dataChannel != null) {
-			Buffer buffer = new Buffer(ByteBuffer.wrap(message.getBytes()), false);
-			signallingExecutor.execute(() -> dataChannel.send(buffer));
-		}
+		sendDataAsync(message, DEFAULT_CONTROL_TIMEOUT_MS);
 	}
 	
 	public boolean isStopped() {
-		return isStopped;
+		return stopped.get();
 	}
 
 	public void joinedTheRoom() {
 		websocket.sendPublish(getStreamId());
 	}
 	
+	/**
+	 * Blocking version of {@link #getTracksAsync(long)}. Returns an empty list if tracks cannot be read in time
+	 */
 	public List<String> getTrackList() {
-		ArrayList<String> tracks = new ArrayList<String>();
-		CountDownLatch latch = new CountDownLatch(1);
-		signallingExecutor.execute(() -> {
-			if(peerConnection != null) {
-				for(RtpReceiver receiver : peerConnection.getReceivers()) {
-					System.out.println("tacks"+receiver);
+		try {
+			return getTracksAsync(DEFAULT_CONTROL_TIMEOUT_MS).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.warn("Cannot get tracks of stream:{} {}", streamId, e.getCause().toString());
+		}
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Starts the client if it's not started
+	 * @return future that is completed when ice is connected. It's completed exceptionally with a {@link TimeoutException}
+	 * if it's not connected in time or with an {@link IllegalStateException} if the client is stopped before. Client is
+	 * not stopped on timeout
+	 */
+	public CompletableFuture<Void> connectAsync(long timeoutMs) {
+		start();
+		return getConnectFuture().orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @return a copy of the future that is completed when ice is connected for the first time, so that waiters cannot
+	 * complete it for the others
+	 */
+	public CompletableFuture<Void> getConnectFuture() {
+		return connectFuture.copy();
+	}
+	
+	/**
+	 * Stops the client
+	 * @return future that is completed after its peer connection and factory are released
+	 */
+	public CompletableFuture<Void> stopAsync(long timeoutMs) {
+		stop();
+		return stopFuture.copy().orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @return future of the track ids of the receivers. List is empty if there is no peer connection
+	 */
+	public CompletableFuture<List<String>> getTracksAsync(long timeoutMs) {
+		return supplyInSignallingThread(() -> {
+			List<String> tracks = new ArrayList<>();
+			if (peerConnection != null) {
+				for (RtpReceiver receiver : peerConnection.getReceivers()) {
 					tracks.add(receiver.track().id());
 				}
-				latch.countDown();
 			}
+			return tracks;
+		}, timeoutMs);
+	}
+	
+	/**
+	 * Sends the message on the data channel
+	 * @return future of the send result. It's completed exceptionally if there is no open data channel
+	 */
+	public CompletableFuture<Boolean> sendDataAsync(String message, long timeoutMs) {
+		return supplyInSignallingThread(() -> {
+			if (dataChannel == null) {
+				throw new IllegalStateException("There is no data channel for stream " + streamId);
+			}
+			return dataChannel.send(new Buffer(ByteBuffer.wrap(message.getBytes()), false));
+		}, timeoutMs);
+	}
+	
+	/**
+	 * @return future of the stats report of the peer connection. It's completed exceptionally if there is no peer connection
+	 */
+	public CompletableFuture<RTCStatsReport> getStatsAsync(long timeoutMs) {
+		CompletableFuture<RTCStatsReport> future = new CompletableFuture<>();
+		executeInSignallingThread(future, () -> {
+			if (peerConnection == null) {
+				throw new IllegalStateException("There is no peer connection for stream " + streamId);
+			}
+			//report is delivered in the signalling thread of libwebrtc
+			peerConnection.getStats(future::complete);
 		});
-		
+		return future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+	
+	private <T> CompletableFuture<T> supplyInSignallingThread(Supplier<T> supplier, long timeoutMs) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		executeInSignallingThread(future, () -> future.complete(supplier.get()));
+		return future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Runs the task in the signalling thread and completes the future exceptionally if the task fails or cannot be run
+	 */
+	private void executeInSignallingThread(CompletableFuture<?> future, Runnable task) {
 		try {
-			latch.await();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			signallingExecutor.execute(() -> {
+				try {
+					task.run();
+				}
+				catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
 		}
-		return tracks;
 	}
 }
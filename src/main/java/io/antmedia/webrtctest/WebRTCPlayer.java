@@ -2,10 +2,6 @@ package io.antmedia.webrtctest;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,7 +15,6 @@ import io.antmedia.webrtctest.filewriter.VP8Writer;
 public class WebRTCPlayer extends WebRTCClientEmulator implements IPacketListener{
 
 	protected boolean running;
-	ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(2);
 	private Logger logger = LoggerFactory.getLogger(WebRTCPlayer.class);
 
 	
@@ -27,7 +22,11 @@ public class WebRTCPlayer extends WebRTCClientEmulator implements IPacketListene
 	PlayerUI vPlayer;
 	
 	private Settings settings;
-	private ScheduledFuture<?> audioCapturerFuture;
+	
+	/**
+	 * Plays the audio of the stream, it's started only if UI is enabled
+	 */
+	private Thread audioCapturerThread;
 	private IFileWriter fileWriter;
 	
 	public WebRTCPlayer(Settings settings) {
@@ -37,12 +36,15 @@ public class WebRTCPlayer extends WebRTCClientEmulator implements IPacketListene
 	@Override
 	public void start() {
 		super.start();
-		manager.getDecoder().subscribe(this);
+		manager.subscribeDecoder(this);
 		running = true;
 		if(settings.useUI) {
 			aPlayer = new OpusPlayer();
 			aPlayer.init();
-			audioCapturerFuture = scheduledExecutorService.scheduleAtFixedRate(new AudioCapturer(), 1000, 10, TimeUnit.MILLISECONDS);
+			audioCapturerThread = new Thread(new AudioCapturer(), "audio-playout-" + manager.getStreamId());
+			audioCapturerThread.setDaemon(true);
+			audioCapturerThread.start();
+			manager.getResources().register(ResourceTracker.Kind.THREAD, audioCapturerThread.getName(), audioCapturerThread::interrupt);
 		}
 	}
 
@@ -59,7 +61,7 @@ public class WebRTCPlayer extends WebRTCClientEmulator implements IPacketListene
 
 	@Override
 	public void onEncodedImage(EncodedImage frame) {
-		update();
+		update(frame.buffer.remaining(), frame.frameType == EncodedImage.FrameType.VideoFrameKey);
 		
 		if(settings.useUI) {
 			vPlayer.play(frame);
@@ -77,6 +79,13 @@ public class WebRTCPlayer extends WebRTCClientEmulator implements IPacketListene
 
 		@Override
 		public void run() {
+			try {
+				//playout starts a while after the connection
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
 			while(running) 
 			{	
 				ByteBuffer playoutData = manager.getAudioTrack().getPlayoutData();
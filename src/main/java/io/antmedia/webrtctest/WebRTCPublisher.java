@@ -1,37 +1,57 @@
 package io.antmedia.webrtctest;
 
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.webrtc.JavaI420Buffer;
-import org.webrtc.NaluIndex;
 import org.webrtc.VideoFrame;
 
+import io.antmedia.enterprise.webrtc.codec.VirtualVideoEncoder;
+import io.antmedia.webrtctest.FramePacer.PacedTaskHandle;
+
 public class WebRTCPublisher extends WebRTCClientEmulator
 {
-	protected int fps = 24;
+	/**
+	 * Frames that are later than this are not sent in a burst, clock of the publisher is moved forward instead
+	 */
+	private static final long MAX_LATENESS_MS = 100;
+	private static final long RETRY_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+	
 	private Logger logger = LoggerFactory.getLogger(WebRTCPublisher.class);
 
 
 	private boolean started = false;
 	private JavaI420Buffer i420Buffer;
-	private FileReader reader;
-	ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(2);
-	private ScheduledFuture<?> videoSenderFuture;
-	private ScheduledFuture<?> audioSenderFuture;
+	private IFrameSource reader;
+	private FramePacer pacer;
+	private PacedTaskHandle videoSenderHandle;
+	private PacedTaskHandle audioSenderHandle;
+	private IFrameCursor videoCursor;
+	private IFrameCursor audioCursor;
 	private boolean loop;
+	private PacingMode pacingMode;
+	
+	private MediaClock clock = new MediaClock(MAX_LATENESS_MS);
+	private LatencyHistogram ptsLateness = new LatencyHistogram("pts lateness", "us");
+	private LatencyHistogram avSkew = new LatencyHistogram("a/v skew", "us");
+	private long lastVideoLateness = -1;
+	private long lastAudioLateness = -1;
+	
+	/**
+	 * Position of the first key frame in the GOP between 0 and 1, or negative to start immediately
+	 */
+	private double startPhase = -1;
+	private BitrateMeter bitrateMeter;
+	private SourceCache sourceCache;
+	private boolean sourceReleased = false;
 
-	public WebRTCPublisher(FileReader reader, boolean loop) 
+	public WebRTCPublisher(IFrameSource reader, boolean loop, FramePacer pacer, PacingMode pacingMode) 
 	{
 		this.reader = reader; 
 		this.loop = loop;
+		this.pacer = pacer;
+		this.pacingMode = pacingMode;
 	}
 
 	@Override
@@ -40,139 +60,258 @@ public class WebRTCPublisher extends WebRTCClientEmulator
 		if(started) {
 			return;
 		}
-		i420Buffer = JavaI420Buffer.allocate(reader.width, reader.height);
+		i420Buffer = JavaI420Buffer.allocate(reader.getWidth(), reader.getHeight());
+		int keyFrameIndex = startPhase >= 0 ? (int) (startPhase * reader.getKeyFrameCount()) : 0;
+		videoCursor = reader.openVideoCursor(keyFrameIndex);
+		audioCursor = reader.openAudioCursor(keyFrameIndex);
 
-		videoSenderFuture = scheduledExecutorService.scheduleAtFixedRate(new VideoSender(), 200, 1000/fps, TimeUnit.MILLISECONDS);
-		audioSenderFuture = scheduledExecutorService.scheduleAtFixedRate(new AudioSender(), 200, 20, TimeUnit.MILLISECONDS);
+		long firstDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+		if (startPhase >= 0) {
+			firstDeadline = getPhaseAlignedDeadline(firstDeadline);
+		}
+		//audio and video of the stream are in the same lane of the pacer
+		if (pacingMode == PacingMode.PTS) {
+			videoSenderHandle = pacer.schedule(manager.getStreamId(), new PtsSender(true), firstDeadline);
+			audioSenderHandle = pacer.schedule(manager.getStreamId(), new PtsSender(false), firstDeadline);
+		}
+		else {
+			videoSenderHandle = pacer.schedule(manager.getStreamId(), new VideoSender(), firstDeadline);
+			audioSenderHandle = pacer.schedule(manager.getStreamId(), new AudioSender(), firstDeadline);
+		}
 
 		started  = true;
 	}
 
-	void close()
-	{
-		scheduledExecutorService.shutdown();
-	}
-
 	@Override
 	public void stop() {
 		super.stop();
 		stopVideo();
 		stopAudio();
+		if (videoCursor != null) {
+			videoCursor.close();
+		}
+		if (audioCursor != null) {
+			audioCursor.close();
+		}
+		releaseSource();
+		releaseI420Buffer();
+		if (pacingMode == PacingMode.PTS) {
+			logger.info("Pacing of {}: {} | {} | clock moved forward {} times", manager.getStreamId(), ptsLateness, avSkew, clock.getReanchorCount());
+		}
 	}
 
-	class VideoSender implements Runnable {
-		int lastSentPacket = 0;
+	class VideoSender implements FramePacer.IPacedTask {
 		private long lastPTS;
 		private long offset = 0;
+		private long periodNanos = Math.round(TimeUnit.SECONDS.toNanos(1) / reader.getFrameRate());
 
 		@Override
-		public void run() {
-			update();
-			
-			if(lastSentPacket < getReader().videoFrames.size()) {
-				FileReader.Frame frame = getReader().videoFrames.get(lastSentPacket++);
-				frame.data.rewind();
-				List<NaluIndex> naluIndices = findNaluIndices(frame.data);
+		public long run(long deadlineNanos) {
+			FileReader.Frame frame = videoCursor.next();
+			if(frame != null) {
+				update(frame.data.limit(), frame.isKeyFrame);
 				lastPTS = frame.timeStamp*1000*1000 + offset;
-				manager.getEncoder().setEncodedFrameBuffer(frame.data, frame.isKeyFrame, lastPTS, 0, naluIndices, "0");
+				sendVideo(frame, lastPTS);
 				//VideoFrame fakeFrame = new VideoFrame(i420Buffer, 0, frame.timeStamp*1000*1000);
 				//manager.getVideoObserver().onFrameCaptured(fakeFrame);
 			}
-			else if(loop) {
-					lastSentPacket = 0;
+			else if(!videoCursor.isEndOfStream()) {
+				//demux is behind in streaming mode, skip this period
+			}
+			else if(loop && videoCursor.rewind()) {
 					offset = lastPTS;
 			}
 			else {
 				WebRTCPublisher.this.stopVideo();
+				return FramePacer.STOP;
 			}
+			return deadlineNanos + periodNanos;
 		}
 	}
 
-	class AudioSender implements Runnable {
+	class AudioSender implements FramePacer.IPacedTask {
 
-		int lastSentPacket = 0;
+		private long periodNanos = TimeUnit.MILLISECONDS.toNanos(20);
+		
 		@Override
-		public void run() {
-			if(lastSentPacket < getReader().audioFrames.size()) {
-				FileReader.Frame frame = getReader().audioFrames.get(lastSentPacket++);
-				frame.data.rewind();
-				manager.getAudioRecord().notifyEncodedData(WebRTCManager.AUDIO_TRACK_ID+manager.getStreamId(), frame.data); //20ms of audio encoded data
+		public long run(long deadlineNanos) {
+			FileReader.Frame frame = audioCursor.next();
+			if(frame != null) {
+				sendAudio(frame); //20ms of audio encoded data
 			}
-			else if(loop) {
-				lastSentPacket = 0;
+			else if(!audioCursor.isEndOfStream()) {
+				//demux is behind in streaming mode, skip this period
+			}
+			else if(loop && audioCursor.rewind()) {
+				//start from the beginning
 			}
 			else {
 				WebRTCPublisher.this.stopAudio();
+				return FramePacer.STOP;
 			}
+			return deadlineNanos + periodNanos;
 		}
 	}
 
+	/**
+	 * Releases each frame at its timestamp. Audio and video senders of the publisher share the clock
+	 */
+	class PtsSender implements FramePacer.IPacedTask {
+		private final boolean video;
+		private final IFrameCursor cursor;
+		private FileReader.Frame pending;
+		private long pendingTimeStampMs;
+		private long loopOffsetMs = 0;
+
+		PtsSender(boolean video) {
+			this.video = video;
+			this.cursor = video ? videoCursor : audioCursor;
+		}
+
+		@Override
+		public long run(long deadlineNanos) {
+			if (pending != null) {
+				release();
+			}
+
+			FileReader.Frame frame = cursor.next();
+			if (frame == null) {
+				if (!cursor.isEndOfStream()) {
+					//demux is behind in streaming mode
+					return System.nanoTime() + RETRY_PERIOD_NANOS;
+				}
+				if (!loop || !cursor.rewind()) {
+					if (video) {
+						WebRTCPublisher.this.stopVideo();
+					}
+					else {
+						WebRTCPublisher.this.stopAudio();
+					}
+					return FramePacer.STOP;
+				}
+				//audio and video move by the same duration so they stay in sync in the next loop
+				loopOffsetMs += reader.getLoopDurationMs();
+				return System.nanoTime();
+			}
+
+			pending = frame;
+			pendingTimeStampMs = frame.timeStamp + loopOffsetMs;
+			return clock.getDeadline(pendingTimeStampMs);
+		}
+
+		private void release() {
+			long lateness = clock.onRelease(pendingTimeStampMs, System.nanoTime());
+			ptsLateness.record(lateness / 1000);
+			if (video) {
+				update(pending.data.limit(), pending.isKeyFrame);
+				lastVideoLateness = lateness;
+				sendVideo(pending, TimeUnit.MILLISECONDS.toNanos(pendingTimeStampMs));
+			}
+			else {
+				lastAudioLateness = lateness;
+				sendAudio(pending);
+			}
+			if (lastVideoLateness != -1 && lastAudioLateness != -1) {
+				avSkew.record(Math.abs(lastVideoLateness - lastAudioLateness) / 1000);
+			}
+			pending = null;
+		}
+	}
+	
+	/**
+	 * Key frames of the publishers are sent at the same points of the GOP if they all start as soon as they're connected. 
+	 * First frame is delayed to the next time that is at the start phase of a GOP since the epoch of the pacer instead, 
+	 * so that key frames of the publishers are spread over the GOP regardless of when they're connected.
+	 */
+	private long getPhaseAlignedDeadline(long earliestDeadline) {
+		long gopNanos = TimeUnit.MILLISECONDS.toNanos(reader.getGopDurationMs());
+		long deadline = pacer.getEpochNanos() + (long) (startPhase * gopNanos);
+		if (deadline < earliestDeadline) {
+			deadline += (earliestDeadline - deadline + gopNanos - 1) / gopNanos * gopNanos;
+		}
+		return deadline;
+	}
+	
+	private void sendVideo(FileReader.Frame frame, long timeStampNs) {
+		VirtualVideoEncoder encoder = manager.getEncoder();
+		if (encoder != null) {
+			//encoder may not be bound yet if factory is shared
+			encoder.setEncodedFrameBuffer(frame.getView(videoSenderHandle.getLaneIndex()), frame.isKeyFrame, timeStampNs, 0, frame.naluIndices, "0");
+			if (bitrateMeter != null) {
+				bitrateMeter.record(frame.data.limit());
+			}
+		}
+	}
+	
+	private void sendAudio(FileReader.Frame frame) {
+		manager.getAudioRecord().notifyEncodedData(WebRTCManager.AUDIO_TRACK_ID+manager.getStreamId(), frame.getView(audioSenderHandle.getLaneIndex()));
+		if (bitrateMeter != null) {
+			bitrateMeter.record(frame.data.limit());
+		}
+	}
+	
+	/**
+	 * @param startPhase is between 0 and 1. It selects the key frame that publisher starts from and 
+	 * the point of the GOP that it starts at
+	 */
+	public void setStartPhase(double startPhase) {
+		this.startPhase = startPhase;
+	}
+	
+	/**
+	 * @param sourceCache is the cache that source of the publisher is acquired from. Source is released when publisher stops
+	 */
+	public void setSourceCache(SourceCache sourceCache) {
+		this.sourceCache = sourceCache;
+	}
+	
+	private synchronized void releaseI420Buffer() {
+		if (i420Buffer != null) {
+			i420Buffer.release();
+			i420Buffer = null;
+		}
+	}
+	
+	private synchronized void releaseSource() {
+		if (sourceCache != null && !sourceReleased) {
+			sourceReleased = true;
+			sourceCache.release(reader);
+		}
+	}
+	
+	public void setBitrateMeter(BitrateMeter bitrateMeter) {
+		this.bitrateMeter = bitrateMeter;
+	}
+	
+	public LatencyHistogram getPtsLateness() {
+		return ptsLateness;
+	}
+	
+	public LatencyHistogram getAvSkew() {
+		return avSkew;
+	}
+
 	public void stopAudio() {
-		if(!audioSenderFuture.isCancelled()) {
+		if(audioSenderHandle != null && !audioSenderHandle.isCancelled()) {
 			logger.info("Stopping audio streaming");
-			audioSenderFuture.cancel(true);
-			if (videoSenderFuture.isCancelled()) {
+			audioSenderHandle.cancel();
+			if (videoSenderHandle.isCancelled()) {
 				manager.stop();
 			}
 		}
 	}
 
 	public void stopVideo() {
-		if(!videoSenderFuture.isCancelled()) {
+		if(videoSenderHandle != null && !videoSenderHandle.isCancelled()) {
 			logger.info("Stopping video streaming");
-			videoSenderFuture.cancel(true);
-			if (audioSenderFuture.isCancelled()) {
+			videoSenderHandle.cancel();
+			if (audioSenderHandle.isCancelled()) {
 				manager.stop();
 			}
 		}
 	}
 	
-private List<NaluIndex> findNaluIndices(ByteBuffer buffer) {
-		
-		int kNaluShortStartSequenceSize = 3;
-		List<NaluIndex> naluSequence = new ArrayList<>();
-		
-		int size = 0;
-		if (buffer.limit() >= kNaluShortStartSequenceSize) {
-			int end = buffer.limit() - kNaluShortStartSequenceSize;
-			
-			for (int i = 0; i < end;) {
-				if (buffer.get(i+2) > 1) {
-					i += 3;
-				}
-				else if (buffer.get(i+2) == 1 && buffer.get(i+1) == 0 && buffer.get(i) == 0) {
-					// We found a start sequence, now check if it was a 3 of 4 byte one.
-					NaluIndex index = new NaluIndex(i,i+3, 0);
-					if (index.startOffset > 0 && buffer.get(index.startOffset - 1) == 0) {
-						index.startOffset--;
-					}
-					size = naluSequence.size();
-					if (size >= 1) {
-						naluSequence.get(size-1).payloadSize = index.startOffset - naluSequence.get(size-1).payloadStartOffset;
-					}
-					
-					naluSequence.add(index);
-					i += 3;
-				}
-				else {
-					++i;
-				}
-			}
-		}
-		
-		size = naluSequence.size();
-		if (size >= 1) {
-			naluSequence.get(size-1).payloadSize = buffer.limit() - naluSequence.get(size-1).payloadStartOffset;
-		}
-		else if (size == 0) {
-			logger.warn("No NAL unit found");
-		}
-		
-		
-		return naluSequence;
-	}
-
-public FileReader getReader() {
+public IFrameSource getReader() {
 	return reader;
 }
 
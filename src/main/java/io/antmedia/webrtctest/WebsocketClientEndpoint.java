@@ -3,20 +3,21 @@ package io.antmedia.webrtctest;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.websocket.ClientEndpoint;
-import javax.websocket.ContainerProvider;
 import javax.websocket.EndpointConfig;
 import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
 import javax.websocket.Session;
-import javax.websocket.WebSocketContainer;
 
 import org.glassfish.tyrus.client.ClientManager;
 import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.webrtc.IceCandidate;
@@ -30,12 +31,36 @@ import io.antmedia.websocket.WebSocketConstants;
 public class WebsocketClientEndpoint {
 
 	private static Logger logger = LoggerFactory.getLogger(WebsocketClientEndpoint.class);
-	private JSONParser jsonParser = new JSONParser();
+	private final SignallingCodec.Message decodedMessage = new SignallingCodec.Message();
 	WebRTCManager webrtcManager;
-	private Session session;
+	private volatile Session session;
 	private URI uri;
 	private ClientManager websocketClient;
 	private Settings settings;
+	private boolean containerReleased = false;
+	
+	/**
+	 * Guards the session and the sends. It's not a monitor, so that a virtual thread that is blocked 
+	 * in a send does not pin its carrier thread
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	/**
+	 * Managers of the streams in multiplexed mode. Incoming messages are routed by their stream id.
+	 * Each manager runs its signalling in its own single thread, so messages of a stream are processed in order.
+	 */
+	private final Map<String, WebRTCManager> managers = new ConcurrentHashMap<>();
+	private boolean multiplexed = false;
+	private KeepAliveScheduler keepAliveScheduler;
+	private volatile KeepAliveScheduler.Session keepAlive;
+	private volatile SignallingStats signallingStats;
+	private boolean connectRequested = false;
+	private long connectRequestNanos;
+	
+	/**
+	 * A reconnect is not requested again while a connection is pending for this long
+	 */
+	private static final long CONNECT_TIMEOUT_MS = 10000;
 
 	public WebsocketClientEndpoint(Settings settings) {
 		String unsecure = "ws://"+settings.webSockAdr+":"+settings.port+"/WebRTCAppEE/websocket";
@@ -48,18 +73,137 @@ public class WebsocketClientEndpoint {
 		
 		this.settings = settings;
 	}
+	
+	/**
+	 * Creates an endpoint that is shared by many streams
+	 */
+	public WebsocketClientEndpoint(Settings settings, KeepAliveScheduler keepAliveScheduler) {
+		this(settings);
+		this.keepAliveScheduler = keepAliveScheduler;
+		this.multiplexed = true;
+	}
+	
+	public boolean isMultiplexed() {
+		return multiplexed;
+	}
+	
+	/**
+	 * Session is pinged by the scheduler after it's opened
+	 */
+	public void setKeepAliveScheduler(KeepAliveScheduler keepAliveScheduler) {
+		this.keepAliveScheduler = keepAliveScheduler;
+	}
+	
+	public void setSignallingStats(SignallingStats signallingStats) {
+		this.signallingStats = signallingStats;
+	}
+	
+	/**
+	 * @return keep alive state of the session or null if it's not open
+	 */
+	public KeepAliveScheduler.Session getKeepAlive() {
+		return keepAlive;
+	}
+	
+	/**
+	 * Adds the manager of a stream in multiplexed mode. It's notified immediately if session is already open
+	 */
+	public void addManager(WebRTCManager manager) {
+		managers.put(manager.getStreamId(), manager);
+		if (session != null && session.isOpen()) {
+			manager.webSocketOpened();
+		}
+	}
+	
+	public void removeManager(WebRTCManager manager) {
+		managers.remove(manager.getStreamId(), manager);
+	}
+	
+	private WebRTCManager getManager(String streamId) {
+		if (isMultiplexed()) {
+			return streamId == null ? null : managers.get(streamId);
+		}
+		return webrtcManager;
+	}
 
 	public void connect() {
+		lock.lock();
 		try {
-			websocketClient = (ClientManager) ContainerProvider.getWebSocketContainer();
+			if (connectRequested) {
+				//shared session is connected by the first stream
+				return;
+			}
+			connectRequested = true;
+			connectRequestNanos = System.nanoTime();
+			websocketClient = SharedWebSocketContainer.acquire();
 			websocketClient.asyncConnectToServer(this, uri);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Connects again if the session is closed, for instance after a server restart. 
+	 * Managers are notified when the new session is opened
+	 */
+	public void reconnect() {
+		lock.lock();
+		try {
+			boolean pending = session == null && connectRequested 
+					&& System.nanoTime() - connectRequestNanos < TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MS);
+			if (pending || isOpen()) {
+				return;
+			}
+			logger.info("websocket reconnecting {}", this.hashCode());
+			if (keepAlive != null) {
+				keepAlive.cancel();
+				keepAlive = null;
+			}
+			if (websocketClient != null && !containerReleased) {
+				SharedWebSocketContainer.release();
+			}
+			containerReleased = false;
+			connectRequested = false;
+			session = null;
+			connect();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	public boolean isOpen() {
+		Session currentSession = session;
+		return currentSession != null && currentSession.isOpen();
 	}
 
+	/**
+	 * Closes the session and releases the shared container. Container is shut down after the last endpoint is closed
+	 */
 	public void close() {
-		websocketClient.shutdown();
+		lock.lock();
+		try {
+			if (keepAlive != null) {
+				keepAlive.cancel();
+			}
+			if (session != null && session.isOpen()) {
+				try {
+					session.close();
+				} catch (IOException e) {
+					logger.warn("Cannot close websocket session {}", e.getMessage());
+				}
+			}
+			if (websocketClient != null && !containerReleased) {
+				containerReleased = true;
+				SharedWebSocketContainer.release();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
 	}
 	
 	
@@ -69,7 +213,26 @@ public class WebsocketClientEndpoint {
 		logger.info("websocket opened {}", this.hashCode());
 		this.session = session;
 		
-		if (webrtcManager != null) {
+		if (keepAliveScheduler != null) {
+			//pings of all sessions are spread over the period
+			keepAlive = keepAliveScheduler.register(this);
+		}
+		if (!isMultiplexed()) {
+			//a single stream starts with the first pong, shared sessions start their streams immediately
+			if (keepAlive != null) {
+				keepAlive.ping();
+			}
+			else {
+				sendPingMessage();
+			}
+		}
+		
+		if (isMultiplexed()) {
+			for (WebRTCManager manager : managers.values()) {
+				manager.webSocketOpened();
+			}
+		}
+		else if (webrtcManager != null) {
 			webrtcManager.webSocketOpened();
 		}
 	}
@@ -93,15 +256,24 @@ public class WebsocketClientEndpoint {
 				return;
 			}
 
-			JSONObject jsonObject = (JSONObject) jsonParser.parse(message);
+			//messages of a session are delivered one at a time, so the holder is reused
+			if (!SignallingCodec.decode(message, decodedMessage)) {
+				logger.error("Received message cannot be parsed for session id: {}" , session.getId());
+				return;
+			}
 
-			String cmd = (String) jsonObject.get(WebSocketConstants.COMMAND);
+			String cmd = decodedMessage.getCommand();
 			if (cmd == null) {
 				logger.error("Received message does not contain any command for session id: {}" , session.getId());
 				return;
 			}
 
-			final String streamId = (String) jsonObject.get(WebSocketConstants.STREAM_ID);
+			SignallingStats stats = signallingStats;
+			if (stats != null) {
+				stats.onReceived(cmd.equals(WebSocketConstants.TAKE_CANDIDATE_COMMAND));
+			}
+
+			final String streamId = decodedMessage.getStreamId();
 			
 			if ((streamId == null || streamId.isEmpty()) &&
 					!cmd.equals(WebSocketConstants.PONG_COMMAND) &&
@@ -111,57 +283,78 @@ public class WebsocketClientEndpoint {
 				return;
 			}
 			
+			KeepAliveScheduler.Session keepAliveSession = keepAlive;
 			if (cmd.equals(WebSocketConstants.PONG_COMMAND)) {
-				webrtcManager.pongMessageReceived();
-			}
-			
-			if (cmd.equals(WebSocketConstants.START_COMMAND))  
-			{
-				webrtcManager.createOffer();
+				if (keepAliveSession != null) {
+					keepAliveSession.onPong();
+				}
+				if (isMultiplexed()) {
+					//pong of the session is used by all streams to retry
+					for (WebRTCManager manager : managers.values()) {
+						manager.pongMessageReceived();
+					}
+				}
+				else {
+					webrtcManager.pongMessageReceived();
+				}
+				return;
 			}
-			else if (cmd.equals(WebSocketConstants.TAKE_CONFIGURATION_COMMAND))  
-			{
-				processTakeConfigurationCommand(jsonObject, session.getId(), streamId);
+			if (keepAliveSession != null) {
+				keepAliveSession.onTraffic();
 			}
-			else if (cmd.equals(WebSocketConstants.TAKE_CANDIDATE_COMMAND)) 
-			{
-				processTakeCandidateCommand(jsonObject, session.getId(), streamId);
+			
+			if (cmd.equals(WebSocketConstants.ERROR_COMMAND) && isMultiplexed() && (streamId == null || streamId.isEmpty())) {
+				//error of the session is for all streams on it
+				logger.error("Incoming session error message:{}" , message);
+				for (WebRTCManager manager : managers.values()) {
+					processErrorCommand(manager, decodedMessage.getDefinition());
+				}
+				return;
 			}
-			else if (cmd.equals(WebSocketConstants.STOP_COMMAND)) {
-				
+			
+			WebRTCManager webrtcManager = getManager(streamId);
+			if (webrtcManager == null) {
+				logger.info("There is no manager for stream:{} command:{}", streamId, cmd);
+				return;
 			}
-			else if (cmd.equals(WebSocketConstants.PLAY_FINISHED)) {
+			
+			switch (cmd) {
+			case WebSocketConstants.START_COMMAND:
+				webrtcManager.onAdmitted();
+				webrtcManager.createOffer();
+				break;
+			case WebSocketConstants.TAKE_CONFIGURATION_COMMAND:
+				webrtcManager.onAdmitted();
+				processTakeConfigurationCommand(webrtcManager, decodedMessage);
+				break;
+			case WebSocketConstants.TAKE_CANDIDATE_COMMAND:
+				processTakeCandidateCommand(webrtcManager, decodedMessage);
+				break;
+			case WebSocketConstants.PLAY_FINISHED:
 				logger.info("play finished received from websocket {}", this.hashCode());
-				webrtcManager.stop();
-			}
-			else if (cmd.equals(WebSocketConstants.ERROR_COMMAND)) {
+				webrtcManager.onStreamFinished();
+				break;
+			case WebSocketConstants.ERROR_COMMAND:
 				logger.error("Incoming error message:{}" , message);
-				String definition = (String) jsonObject.get(WebSocketConstants.DEFINITION);
-				
-				if (WebSocketConstants.HIGH_RESOURCE_USAGE.equals(definition) || WebSocketConstants.NOT_INITIALIZED_YET.equals(definition)
-						|| WebSocketConstants.NO_STREAM_EXIST.equals(definition)) 
+				processErrorCommand(webrtcManager, decodedMessage.getDefinition());
+				break;
+			case WebSocketConstants.NOTIFICATION_COMMAND:
+				if (WebSocketConstants.JOINED_THE_ROOM.equals(decodedMessage.getDefinition())) 
 				{
-					//Set high resource usage to true to let the process try again
-					logger.info("Set try again");
-					webrtcManager.setTryagain(true);
-					
+					webrtcManager.joinedTheRoom();
 				}
-			}
-			else if (cmd.equals(WebSocketConstants.NOTIFICATION_COMMAND)) {
-				
-				String definition = (String) jsonObject.get(WebSocketConstants.DEFINITION);
-				if (definition.equals(WebSocketConstants.JOINED_THE_ROOM)) 
+				else if (WebSocketConstants.PLAY_FINISHED.equals(decodedMessage.getDefinition())) 
 				{
-					webrtcManager.joinedTheRoom();
+					//server sends play finished as a notification
+					logger.info("play finished notification received from websocket {}", this.hashCode());
+					webrtcManager.onStreamFinished();
 				}
-			}
-			else if (cmd.equals(WebSocketConstants.STREAM_INFORMATION_NOTIFICATION)) {
-			}
-			else if (cmd.equals(WebSocketConstants.PUBLISH_STARTED)) {
-			}
-			else if (cmd.equals(WebSocketConstants.PONG_COMMAND)) {
-			}
-			else {
+				break;
+			case WebSocketConstants.STOP_COMMAND:
+			case WebSocketConstants.STREAM_INFORMATION_NOTIFICATION:
+			case WebSocketConstants.PUBLISH_STARTED:
+				break;
+			default:
 				logger.info("Undefined incoming message:{} ", message);
 			}
 		}
@@ -171,10 +364,9 @@ public class WebsocketClientEndpoint {
 
 	}
 
-	@SuppressWarnings("unchecked")
 	public  void sendSDPConfiguration(String description, String type, String streamId) {
 
-		sendMessage(getSDPConfigurationJSON (description, type,  streamId).toJSONString());
+		sendMessage(SignallingCodec.encodeTakeConfiguration(description, type, streamId));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -218,6 +410,14 @@ public class WebsocketClientEndpoint {
 		sendMessage(jsonResponse.toJSONString());	
 	}
 
+	@SuppressWarnings("unchecked")
+	public void sendStop(String streamId) {
+		JSONObject jsonResponse = new JSONObject();
+		jsonResponse.put(WebSocketConstants.COMMAND, WebSocketConstants.STOP_COMMAND);
+		jsonResponse.put(WebSocketConstants.STREAM_ID, streamId);
+		sendMessage(jsonResponse.toJSONString());
+	}
+
 	@SuppressWarnings("unchecked")
 	protected  final  void sendPlay(String streamId)  {
 		JSONObject jsonResponse = new JSONObject();
@@ -231,33 +431,52 @@ public class WebsocketClientEndpoint {
 		JSONObject jsonResponse = new JSONObject();
 		jsonResponse.put(WebSocketConstants.COMMAND, WebSocketConstants.PUBLISH_COMMAND);
 		jsonResponse.put(WebSocketConstants.STREAM_ID, streamId);
-		jsonResponse.put(WebSocketConstants.VIDEO, !settings.audioOnly);
+		//settings of the stream may be different from the session in multiplexed mode
+		WebRTCManager manager = getManager(streamId);
+		Settings streamSettings = manager != null ? manager.getSettings() : settings;
+		jsonResponse.put(WebSocketConstants.VIDEO, !streamSettings.audioOnly);
 		jsonResponse.put(WebSocketConstants.AUDIO, true);
-		if(settings.mainTrack != null) {
-			jsonResponse.put(WebSocketConstants.MAIN_TRACK, settings.mainTrack);
+		if(streamSettings.mainTrack != null) {
+			jsonResponse.put(WebSocketConstants.MAIN_TRACK, streamSettings.mainTrack);
 		}
 		String jsonString = jsonResponse.toJSONString();
 		logger.info("sending publish message -> {}", jsonString);
 		sendMessage(jsonString);	
 	}
 
-	@SuppressWarnings("unchecked")
 	public void sendTakeCandidateMessage(long sdpMLineIndex, String sdpMid, String sdp, String streamId)
 	{
-		sendMessage(getTakeCandidateJSON(sdpMLineIndex, sdpMid, sdp, streamId).toJSONString());
+		onTraffic();
+		send(SignallingCodec.encodeTakeCandidate(sdpMLineIndex, sdpMid, sdp, streamId), 1);
 	}
-
-
-	@SuppressWarnings("unchecked")
+	
 	public void sendMessage(String message) {
-		synchronized (this) {
-			if (session.isOpen()) {
-				try {
-					session.getBasicRemote().sendText(message);
-				} catch (IOException e) {
-					e.printStackTrace();
+		onTraffic();
+		send(message, 0);
+	}
+	
+	private void onTraffic() {
+		KeepAliveScheduler.Session keepAliveSession = keepAlive;
+		if (keepAliveSession != null) {
+			keepAliveSession.onTraffic();
+		}
+	}
+	
+	private void send(String message, int candidates) {
+		lock.lock();
+		try {
+			if (session != null && session.isOpen()) {
+				session.getBasicRemote().sendText(message);
+				SignallingStats stats = signallingStats;
+				if (stats != null) {
+					stats.onSent(1, candidates);
 				}
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		finally {
+			lock.unlock();
 		}
 	}
 
@@ -285,9 +504,18 @@ public class WebsocketClientEndpoint {
 		return jsonResponseObject;
 	}
 
-	private void processTakeConfigurationCommand(JSONObject jsonObject, String sessionId, String streamId) {
-		String typeString = (String)jsonObject.get(WebSocketConstants.TYPE);
-		String sdpDescription = (String)jsonObject.get(WebSocketConstants.SDP);
+	private void processErrorCommand(WebRTCManager webrtcManager, String definition) {
+		if (WebSocketConstants.HIGH_RESOURCE_USAGE.equals(definition) || WebSocketConstants.NOT_INITIALIZED_YET.equals(definition)
+				|| WebSocketConstants.NO_STREAM_EXIST.equals(definition)) 
+		{
+			//retried after a backoff
+			webrtcManager.onRejected(definition);
+		}
+	}
+
+	private void processTakeConfigurationCommand(WebRTCManager webrtcManager, SignallingCodec.Message message) {
+		String typeString = message.getType();
+		String sdpDescription = message.getSdp();
 
 		SessionDescription.Type type;
 		if (typeString.equals("offer")) {
@@ -302,10 +530,10 @@ public class WebsocketClientEndpoint {
 		webrtcManager.setRemoteDescription(sdp);
 	}
 
-	private void processTakeCandidateCommand(JSONObject jsonObject, String sessionId, String streamId) {
-		String sdpMid = (String) jsonObject.get(WebSocketConstants.CANDIDATE_ID);
-		String sdp = (String) jsonObject.get(WebSocketConstants.CANDIDATE_SDP);
-		long sdpMLineIndex = (long)jsonObject.get(WebSocketConstants.CANDIDATE_LABEL);
+	private void processTakeCandidateCommand(WebRTCManager webrtcManager, SignallingCodec.Message message) {
+		String sdpMid = message.getCandidateId();
+		String sdp = message.getCandidateSdp();
+		long sdpMLineIndex = message.getCandidateLabel();
 
 		IceCandidate iceCandidate = new IceCandidate(sdpMid, (int)sdpMLineIndex, sdp);
 		webrtcManager.addIceCandidate(iceCandidate);
@@ -316,10 +544,11 @@ public class WebsocketClientEndpoint {
 		this.webrtcManager = manager;
 	}
 
+	/**
+	 * Pings are not counted as traffic, so that they're not skipped because of themselves
+	 */
 	public void sendPingMessage() {
-		JSONObject jsonResponse = new JSONObject();
-		jsonResponse.put(WebSocketConstants.COMMAND, WebSocketConstants.PING_COMMAND);
-		sendMessage(jsonResponse.toJSONString());	
+		send(SignallingCodec.encodePing(), 0);
 	}
 
 	public void sendJoinTheRoom(String streamId, String roomId, String multiTrack) {
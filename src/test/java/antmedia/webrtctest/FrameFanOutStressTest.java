@@ -0,0 +1,143 @@
+package antmedia.webrtctest;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import io.antmedia.webrtctest.FileReader;
+import io.antmedia.webrtctest.FramePacer;
+import io.antmedia.webrtctest.FrameRing;
+import junit.framework.TestCase;
+
+/**
+ * Sends the same frames from hundreds of publishers concurrently and checks that every publisher
+ * reads the exact bytes of every frame.
+ */
+public class FrameFanOutStressTest extends TestCase
+{
+	private static final int PUBLISHER_COUNT = 400;
+	private static final int FRAME_COUNT = 64;
+	private static final int SENDS_PER_PUBLISHER = 200;
+
+	private List<FileReader.Frame> frames = new ArrayList<>();
+	private long[] checksums = new long[FRAME_COUNT];
+
+	@Override
+	protected void setUp() throws Exception {
+		Random random = new Random(7);
+		for (int i = 0; i < FRAME_COUNT; i++) {
+			byte[] payload = new byte[100 + random.nextInt(20000)];
+			random.nextBytes(payload);
+			ByteBuffer data = ByteBuffer.allocateDirect(payload.length);
+			//position is left at the end like the demuxed frames
+			data.put(payload);
+			frames.add(new FileReader.Frame(data, i * 40L, i % 16 == 0));
+
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			checksums[i] = crc.getValue();
+		}
+	}
+
+	public void testConcurrentPublishersReadExactBytes() throws InterruptedException
+	{
+		FramePacer pacer = new FramePacer(8);
+		CountDownLatch finished = new CountDownLatch(PUBLISHER_COUNT);
+		AtomicLong sends = new AtomicLong();
+		AtomicLong corrupted = new AtomicLong();
+
+		for (int p = 0; p < PUBLISHER_COUNT; p++)
+		{
+			Publisher publisher = new Publisher(p % FRAME_COUNT, finished, sends, corrupted);
+			publisher.handle = pacer.schedule("stream-" + p, publisher, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100));
+		}
+
+		assertTrue(finished.await(60, TimeUnit.SECONDS));
+		pacer.stop();
+
+		assertEquals(PUBLISHER_COUNT * (long) SENDS_PER_PUBLISHER, sends.get());
+		assertEquals(0, corrupted.get());
+	}
+
+	public void testRingWithoutKeyFramesReleasesReadFrames()
+	{
+		int capacity = 64;
+		FrameRing ring = new FrameRing(capacity, Long.MAX_VALUE, false);
+		FrameRing.Cursor cursor = ring.joinAtTimeStamp(Long.MIN_VALUE);
+		ByteBuffer data = ByteBuffer.allocateDirect(16);
+
+		FileReader.Frame[] offered = new FileReader.Frame[capacity * 10];
+		int read = 0;
+		for (int i = 0; i < offered.length; i++)
+		{
+			FileReader.Frame frame = new FileReader.Frame(data, i * 20L, false);
+			offered[i] = frame;
+			int attempts = 0;
+			while (!ring.offer(frame))
+			{
+				//the ring must accept the frame again after the cursor reads the frames
+				assertTrue("ring is stuck at frame " + i, ++attempts < 2);
+				FileReader.Frame next;
+				while ((next = cursor.next()) != null) {
+					assertSame(offered[read++], next);
+				}
+			}
+			assertTrue(ring.size() <= capacity);
+		}
+		ring.finish();
+
+		FileReader.Frame next;
+		while ((next = cursor.next()) != null) {
+			assertSame(offered[read++], next);
+		}
+		assertEquals(offered.length, read);
+		assertTrue(cursor.isEndOfStream());
+	}
+
+	private class Publisher implements FramePacer.IPacedTask
+	{
+		private final int startIndex;
+		private final CountDownLatch finished;
+		private final AtomicLong sends;
+		private final AtomicLong corrupted;
+		private final CRC32 crc = new CRC32();
+		private volatile FramePacer.PacedTaskHandle handle;
+		private int sent = 0;
+
+		Publisher(int startIndex, CountDownLatch finished, AtomicLong sends, AtomicLong corrupted) {
+			this.startIndex = startIndex;
+			this.finished = finished;
+			this.sends = sends;
+			this.corrupted = corrupted;
+		}
+
+		@Override
+		public long run(long deadlineNanos) {
+			if (handle == null) {
+				return deadlineNanos + TimeUnit.MILLISECONDS.toNanos(1);
+			}
+			int frameIndex = (startIndex + sent) % FRAME_COUNT;
+			ByteBuffer view = frames.get(frameIndex).getView(handle.getLaneIndex());
+
+			//consume it like the native side does and move position like the encoder does
+			crc.reset();
+			crc.update(view);
+			view.rewind();
+			if (crc.getValue() != checksums[frameIndex]) {
+				corrupted.incrementAndGet();
+			}
+			sends.incrementAndGet();
+
+			if (++sent == SENDS_PER_PUBLISHER) {
+				finished.countDown();
+				return FramePacer.STOP;
+			}
+			return deadlineNanos + TimeUnit.MILLISECONDS.toNanos(1);
+		}
+	}
+}
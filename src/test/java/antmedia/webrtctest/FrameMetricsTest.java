@@ -0,0 +1,81 @@
+package antmedia.webrtctest;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.antmedia.webrtctest.FrameMetrics;
+import junit.framework.TestCase;
+
+/**
+ * Reads the frame metrics while a writer records frames and checks that every snapshot is consistent.
+ */
+public class FrameMetricsTest extends TestCase
+{
+	private static final int FRAME_BYTES = 100;
+	private static final int GOP = 10;
+	private static final long FRAME_COUNT = 5_000_000;
+
+	public void testSnapshotsAreConsistentDuringWrites() throws InterruptedException
+	{
+		FrameMetrics metrics = new FrameMetrics();
+		AtomicBoolean finished = new AtomicBoolean(false);
+
+		Thread writer = new Thread(() -> {
+			for (long i = 0; i < FRAME_COUNT; i++) {
+				//frames are 1ms apart, the gap is 5ms before each key frame
+				metrics.record(i + 4 * (i / GOP), FRAME_BYTES, i % GOP == 0);
+			}
+			finished.set(true);
+		});
+		writer.start();
+
+		FrameMetrics.Snapshot snapshot = new FrameMetrics.Snapshot();
+		long reads = 0;
+		long lastFrames = 0;
+		while (!finished.get()) {
+			metrics.read(snapshot);
+			assertSnapshot(snapshot);
+			assertTrue(snapshot.getFrames() >= lastFrames);
+			lastFrames = snapshot.getFrames();
+			reads++;
+		}
+		writer.join();
+
+		metrics.read(snapshot);
+		assertSnapshot(snapshot);
+		assertEquals(FRAME_COUNT - 1, snapshot.getFrames());
+		assertEquals(5, snapshot.getMaxGapMs());
+		assertTrue(reads > 0);
+	}
+
+	public void testFramePeriodIsUnknownBeforeSecondFrame()
+	{
+		FrameMetrics metrics = new FrameMetrics();
+		assertEquals(-1, metrics.read().getFramePeriod());
+
+		metrics.record(1000, FRAME_BYTES, true);
+		assertEquals(-1, metrics.read().getFramePeriod());
+		assertEquals(1, metrics.read().getKeyFrames());
+
+		metrics.record(1040, FRAME_BYTES, false);
+		metrics.record(1060, FRAME_BYTES, false);
+		FrameMetrics.Snapshot snapshot = metrics.read();
+		assertEquals(30, snapshot.getFramePeriod());
+		assertEquals(40, snapshot.getMaxGapMs());
+		assertEquals(3 * FRAME_BYTES, snapshot.getBytes());
+	}
+
+	/**
+	 * Counters of a snapshot must belong to the same frame
+	 */
+	private void assertSnapshot(FrameMetrics.Snapshot snapshot) {
+		long recorded = snapshot.getBytes() / FRAME_BYTES;
+		if (recorded == 0) {
+			assertEquals(0, snapshot.getFrames());
+			return;
+		}
+		assertEquals(recorded - 1, snapshot.getFrames());
+		assertEquals((recorded + GOP - 1) / GOP, snapshot.getKeyFrames());
+		long lastIndex = recorded - 1;
+		assertEquals(lastIndex + 4 * (lastIndex / GOP), snapshot.getTotalGapMs());
+	}
+}
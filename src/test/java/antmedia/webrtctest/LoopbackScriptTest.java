@@ -0,0 +1,89 @@
+package antmedia.webrtctest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import io.antmedia.webrtctest.LoopbackScript;
+import junit.framework.TestCase;
+
+/**
+ * Parses the rules of the loopback script and checks the rejections and delays that they give.
+ */
+public class LoopbackScriptTest extends TestCase
+{
+	public void testEmptyScriptAcceptsWithoutDelay()
+	{
+		LoopbackScript script = LoopbackScript.parse(Arrays.asList("", "  # only a comment", "\t"));
+		assertNull(script.getRejection("publish"));
+		assertEquals(0, script.getDelayMs("takeConfiguration"));
+
+		assertNull(LoopbackScript.empty().getRejection("play"));
+		assertEquals(0, LoopbackScript.empty().getDelayMs("pong"));
+	}
+
+	public void testRejectionIsLimitedByCount()
+	{
+		LoopbackScript script = LoopbackScript.parse(Collections.singletonList("reject publish highResourceUsage 1.0 2"));
+		assertEquals("highResourceUsage", script.getRejection("publish"));
+		assertEquals("highResourceUsage", script.getRejection("publish"));
+		assertNull(script.getRejection("publish"));
+		//other requests are not rejected
+		assertNull(script.getRejection("play"));
+	}
+
+	public void testRejectionWithoutCountHasNoLimit()
+	{
+		LoopbackScript script = LoopbackScript.parse(Collections.singletonList("reject play notAllowed 1"));
+		for (int i = 0; i < 100; i++) {
+			assertEquals("notAllowed", script.getRejection("play"));
+		}
+
+		script = LoopbackScript.parse(Collections.singletonList("reject play notAllowed 0"));
+		for (int i = 0; i < 100; i++) {
+			assertNull(script.getRejection("play"));
+		}
+	}
+
+	public void testFirstMatchingRuleRejects()
+	{
+		LoopbackScript script = LoopbackScript.parse(Arrays.asList(
+				"reject joinRoom roomFull 1 1",
+				"reject joinRoom highResourceUsage 1"));
+		assertEquals("roomFull", script.getRejection("joinRoom"));
+		assertEquals("highResourceUsage", script.getRejection("joinRoom"));
+	}
+
+	public void testDelayIsInRange()
+	{
+		LoopbackScript script = LoopbackScript.parse(Arrays.asList(
+				"delay start 250",
+				"  delay   takeCandidate  10  20  "));
+		assertEquals(250, script.getDelayMs("start"));
+		for (int i = 0; i < 1000; i++) {
+			long delay = script.getDelayMs("takeCandidate");
+			assertTrue(delay >= 10 && delay <= 20);
+		}
+		assertEquals(0, script.getDelayMs("pong"));
+	}
+
+	public void testInvalidRulesAreNotParsed()
+	{
+		assertNotParsed("reject publish");
+		assertNotParsed("reject publish highResourceUsage often");
+		assertNotParsed("reject publish highResourceUsage 1 twice");
+		assertNotParsed("delay start");
+		assertNotParsed("delay start 20 10");
+		assertNotParsed("delay start -1");
+		assertNotParsed("drop publish");
+	}
+
+	private void assertNotParsed(String line) {
+		try {
+			LoopbackScript.parse(Collections.singletonList(line));
+			fail("Rule is parsed: " + line);
+		}
+		catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains(line.trim()));
+		}
+	}
+}
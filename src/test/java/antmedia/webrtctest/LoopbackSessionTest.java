@@ -0,0 +1,69 @@
+package antmedia.webrtctest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.webrtc.EncodedImage;
+
+import io.antmedia.Starter;
+import io.antmedia.webrtctest.IPacketListener;
+import io.antmedia.webrtctest.ResourceTracker;
+import junit.framework.TestCase;
+
+/**
+ * Publishes a synthetic stream to the loopback server and plays it in the same process. Frames that the player
+ * receives must come from the publisher through the server peers, and the clients must not leave live codecs.
+ */
+public class LoopbackSessionTest extends TestCase
+{
+	private static final String PORT = "5091";
+	private static final String STREAM_ID = "loopbackSession";
+	private static final long TIMEOUT_MS = 20000;
+
+	public void testPlayerReceivesFramesOfPublisher() throws Exception
+	{
+		long codecsBefore = ResourceTracker.getLiveCount(ResourceTracker.Kind.CODEC);
+
+		Starter publisher = new Starter(new String[] {"-m", "publisher", "-n", "1", "-i", STREAM_ID,
+				"-f", "synthetic:bitrate=300,fps=30,gop=30,width=320,height=240", "-u", "false", "-L", PORT});
+		Starter player = null;
+		try {
+			publisher.connectAsync(TIMEOUT_MS).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+			player = new Starter(new String[] {"-m", "player", "-n", "1", "-i", STREAM_ID, "-u", "false", "-L", PORT});
+			CountDownLatch keyFrameReceived = new CountDownLatch(1);
+			AtomicLong frames = new AtomicLong();
+			player.getManagers().get(0).subscribeDecoder(new IPacketListener() {
+				@Override
+				public void onEncodedImage(EncodedImage frame) {
+					frames.incrementAndGet();
+					if (frame.frameType == EncodedImage.FrameType.VideoFrameKey) {
+						keyFrameReceived.countDown();
+					}
+				}
+
+				@Override
+				public void onDecoderSettings(int width, int height) {
+					// no need
+				}
+			});
+			player.connectAsync(TIMEOUT_MS).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+			assertTrue(keyFrameReceived.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+			assertTrue(frames.get() > 0);
+			assertFalse(publisher.isStopped());
+			assertFalse(player.isStopped());
+
+			player.stopAsync(TIMEOUT_MS).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			publisher.stopAsync(TIMEOUT_MS).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		}
+		finally {
+			if (player != null) {
+				player.stop();
+			}
+			publisher.stop();
+		}
+		assertEquals(codecsBefore, ResourceTracker.getLiveCount(ResourceTracker.Kind.CODEC));
+	}
+}
@@ -0,0 +1,111 @@
+package antmedia.webrtctest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.antmedia.webrtctest.SignallingCodec;
+import io.antmedia.webrtctest.WebsocketClientEndpoint;
+import io.antmedia.websocket.WebSocketConstants;
+
+/**
+ * Compares the signalling codec with the json-simple path that is used before it.
+ * Run it with the gc profiler to see allocation per message, e.g. add {@code -prof gc} to the JMH arguments
+ * or run {@link #main(String[])}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignallingCodecBenchmark {
+
+	private static final String STREAM_ID = "stream1_42";
+	private static final String CANDIDATE = "candidate:842163049 1 udp 1677729535 203.0.113.17 61003 typ srflx raddr 10.0.0.5 rport 61003 generation 0 ufrag xT4q network-cost 999";
+	private static final String SDP = buildSdp();
+
+	private final JSONParser jsonParser = new JSONParser();
+	private final SignallingCodec.Message message = new SignallingCodec.Message();
+
+	private final String candidateMessage = WebsocketClientEndpoint.getTakeCandidateJSON(0, "0", CANDIDATE, STREAM_ID).toJSONString();
+	private final String configurationMessage = WebsocketClientEndpoint.getSDPConfigurationJSON(SDP, "answer", STREAM_ID).toJSONString();
+
+	private static String buildSdp() {
+		StringBuilder sdp = new StringBuilder("v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n");
+		for (int i = 0; i < 40; i++) {
+			sdp.append("a=rtpmap:").append(96 + i).append(" H264/90000\r\na=fmtp:").append(96 + i)
+				.append(" level-asymmetry-allowed=1;packetization-mode=1;profile-level-id=42e01f\r\n");
+		}
+		return sdp.toString();
+	}
+
+	@Benchmark
+	public Object decodeCandidateJsonSimple() throws ParseException {
+		JSONObject jsonObject = (JSONObject) jsonParser.parse(candidateMessage);
+		jsonObject.get(WebSocketConstants.COMMAND);
+		jsonObject.get(WebSocketConstants.STREAM_ID);
+		return jsonObject.get(WebSocketConstants.CANDIDATE_SDP);
+	}
+
+	@Benchmark
+	public Object decodeCandidateCodec() {
+		SignallingCodec.decode(candidateMessage, message);
+		return message.getCandidateSdp();
+	}
+
+	@Benchmark
+	public Object decodeConfigurationJsonSimple() throws ParseException {
+		JSONObject jsonObject = (JSONObject) jsonParser.parse(configurationMessage);
+		jsonObject.get(WebSocketConstants.COMMAND);
+		jsonObject.get(WebSocketConstants.STREAM_ID);
+		return jsonObject.get(WebSocketConstants.SDP);
+	}
+
+	@Benchmark
+	public Object decodeConfigurationCodec() {
+		SignallingCodec.decode(configurationMessage, message);
+		return message.getSdp();
+	}
+
+	@Benchmark
+	public String encodeCandidateJsonSimple() {
+		return WebsocketClientEndpoint.getTakeCandidateJSON(0, "0", CANDIDATE, STREAM_ID).toJSONString();
+	}
+
+	@Benchmark
+	public String encodeCandidateCodec() {
+		return SignallingCodec.encodeTakeCandidate(0, "0", CANDIDATE, STREAM_ID);
+	}
+
+	@Benchmark
+	public String encodeConfigurationJsonSimple() {
+		return WebsocketClientEndpoint.getSDPConfigurationJSON(SDP, "offer", STREAM_ID).toJSONString();
+	}
+
+	@Benchmark
+	public String encodeConfigurationCodec() {
+		return SignallingCodec.encodeTakeConfiguration(SDP, "offer", STREAM_ID);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+				.include(SignallingCodecBenchmark.class.getSimpleName())
+				.addProfiler("gc")
+				.build()).run();
+	}
+}
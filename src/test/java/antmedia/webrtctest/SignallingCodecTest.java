@@ -0,0 +1,161 @@
+package antmedia.webrtctest;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import io.antmedia.webrtctest.SignallingCodec;
+import io.antmedia.websocket.WebSocketConstants;
+import junit.framework.TestCase;
+
+/**
+ * Checks the signalling codec against json-simple. Messages that json-simple writes must be decoded to the same
+ * values and messages that the codec writes must be parsed by json-simple to the original values.
+ */
+public class SignallingCodecTest extends TestCase
+{
+	private static final String STREAM_ID = "stream1_42";
+
+	/**
+	 * Quotes, backslashes, slash, every control character and non ascii characters
+	 */
+	private static final String SPECIAL = buildSpecial();
+
+	private final JSONParser parser = new JSONParser();
+	private final SignallingCodec.Message message = new SignallingCodec.Message();
+
+	private static String buildSpecial() {
+		StringBuilder special = new StringBuilder("a \"quoted\" \\path\\ /slash/ ");
+		for (char c = 0; c < 0x20; c++) {
+			special.append(c);
+		}
+		return special.append(" \u007f \u00e7\u011f \u2028 \ud83d\ude00 end").toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	public void testDecodesMessagesOfJsonSimple()
+	{
+		JSONObject json = new JSONObject();
+		json.put(WebSocketConstants.COMMAND, WebSocketConstants.TAKE_CONFIGURATION_COMMAND);
+		json.put(WebSocketConstants.TYPE, "offer");
+		json.put(WebSocketConstants.SDP, "v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\n" + SPECIAL);
+		json.put(WebSocketConstants.STREAM_ID, STREAM_ID);
+
+		assertTrue(SignallingCodec.decode(json.toJSONString(), message));
+		assertEquals(WebSocketConstants.TAKE_CONFIGURATION_COMMAND, message.getCommand());
+		assertEquals("offer", message.getType());
+		assertEquals(json.get(WebSocketConstants.SDP), message.getSdp());
+		assertEquals(STREAM_ID, message.getStreamId());
+		assertNull(message.getDefinition());
+	}
+
+	public void testDecodesUnicodeEscapes()
+	{
+		//json-simple writes control characters as upper case escapes, other writers may use lower case
+		String text = "{\"" + WebSocketConstants.COMMAND + "\":\"error\",\"" + WebSocketConstants.DEFINITION
+				+ "\":\"\\u0041\\u00e7\\u00C7\\u001f\\ud83d\\ude00\\/\\\"\\\\\"}";
+
+		assertTrue(SignallingCodec.decode(text, message));
+		assertEquals(parse(text).get(WebSocketConstants.DEFINITION), message.getDefinition());
+		assertEquals("A\u00e7\u00c7\u001f\ud83d\ude00/\"\\", message.getDefinition());
+	}
+
+	public void testSkipsNestedValuesAndKeepsKeysInAnyOrder()
+	{
+		//nested objects have the same keys and brackets in strings, only top level fields are used
+		String text = " {\n \"" + WebSocketConstants.CANDIDATE_SDP + "\" : \"candidate:1 1 udp 2 10.0.0.1 5000 typ host\" ,"
+				+ "\"nested\":{\"" + WebSocketConstants.COMMAND + "\":\"fake\",\"list\":[1,{\"a\":\"}]\"},[]],\"b\":null},"
+				+ "\"" + WebSocketConstants.CANDIDATE_LABEL + "\": 12,"
+				+ "\"flags\":[true,false,-1.5e3],"
+				+ "\"" + WebSocketConstants.STREAM_ID + "\":\"" + STREAM_ID + "\","
+				+ "\"" + WebSocketConstants.CANDIDATE_ID + "\":\"video\","
+				+ "\"" + WebSocketConstants.COMMAND + "\":\"" + WebSocketConstants.TAKE_CANDIDATE_COMMAND + "\"\n}";
+		JSONObject json = parse(text);
+
+		assertTrue(SignallingCodec.decode(text, message));
+		assertEquals(json.get(WebSocketConstants.COMMAND), message.getCommand());
+		assertEquals(json.get(WebSocketConstants.STREAM_ID), message.getStreamId());
+		assertEquals(json.get(WebSocketConstants.CANDIDATE_ID), message.getCandidateId());
+		assertEquals(json.get(WebSocketConstants.CANDIDATE_SDP), message.getCandidateSdp());
+		assertEquals(((Long) json.get(WebSocketConstants.CANDIDATE_LABEL)).longValue(), message.getCandidateLabel());
+	}
+
+	public void testParsesLabels()
+	{
+		assertEquals(0, decodeLabel("0"));
+		assertEquals(7, decodeLabel("7"));
+		assertEquals(-3, decodeLabel("-3"));
+		assertEquals(4294967296L, decodeLabel("4294967296"));
+
+		//label of a previous message is not kept
+		assertTrue(SignallingCodec.decode("{\"" + WebSocketConstants.COMMAND + "\":\"" + WebSocketConstants.TAKE_CANDIDATE_COMMAND + "\"}", message));
+		assertEquals(0, message.getCandidateLabel());
+	}
+
+	public void testRejectsMalformedMessages()
+	{
+		assertFalse(SignallingCodec.decode("", message));
+		assertFalse(SignallingCodec.decode("[]", message));
+		assertFalse(SignallingCodec.decode("{\"" + WebSocketConstants.COMMAND + "\":\"ping", message));
+		assertFalse(SignallingCodec.decode("{\"" + WebSocketConstants.COMMAND + "\" \"ping\"}", message));
+		assertFalse(SignallingCodec.decode("{\"nested\":{\"a\":1}", message));
+	}
+
+	public void testEncodedCandidateIsParsedByJsonSimple()
+	{
+		JSONObject json = parse(SignallingCodec.encodeTakeCandidate(1, "vi\"deo\\", SPECIAL, STREAM_ID));
+
+		assertEquals(WebSocketConstants.TAKE_CANDIDATE_COMMAND, json.get(WebSocketConstants.COMMAND));
+		assertEquals(1L, json.get(WebSocketConstants.CANDIDATE_LABEL));
+		assertEquals("vi\"deo\\", json.get(WebSocketConstants.CANDIDATE_ID));
+		assertEquals(SPECIAL, json.get(WebSocketConstants.CANDIDATE_SDP));
+		assertEquals(STREAM_ID, json.get(WebSocketConstants.STREAM_ID));
+	}
+
+	public void testEncodedConfigurationIsParsedByJsonSimple()
+	{
+		String sdp = "v=0\r\ns=-\r\na=fmtp:96 profile-level-id=42e01f\r\n" + SPECIAL;
+		String text = SignallingCodec.encodeTakeConfiguration(sdp, "answer", "stream \"quoted\"");
+		JSONObject json = parse(text);
+
+		assertEquals(WebSocketConstants.TAKE_CONFIGURATION_COMMAND, json.get(WebSocketConstants.COMMAND));
+		assertEquals("answer", json.get(WebSocketConstants.TYPE));
+		assertEquals(sdp, json.get(WebSocketConstants.SDP));
+		assertEquals("stream \"quoted\"", json.get(WebSocketConstants.STREAM_ID));
+
+		//codec reads back what it writes
+		assertTrue(SignallingCodec.decode(text, message));
+		assertEquals(sdp, message.getSdp());
+		assertEquals("stream \"quoted\"", message.getStreamId());
+	}
+
+	public void testEncodesControlCharactersAsEscapes()
+	{
+		String text = SignallingCodec.encodeTakeConfiguration("\u0000\u0001\u001f\t\n", "offer", STREAM_ID);
+		assertTrue(text.contains("\\u0000\\u0001\\u001f\\t\\n"));
+		for (int i = 0; i < text.length(); i++) {
+			assertTrue("raw control character at " + i, text.charAt(i) >= 0x20);
+		}
+	}
+
+	public void testEncodedPingIsParsedByJsonSimple()
+	{
+		assertEquals(WebSocketConstants.PING_COMMAND, parse(SignallingCodec.encodePing()).get(WebSocketConstants.COMMAND));
+	}
+
+	private long decodeLabel(String label) {
+		String text = "{\"" + WebSocketConstants.CANDIDATE_LABEL + "\":" + label + ",\"" + WebSocketConstants.COMMAND + "\":\"" 
+				+ WebSocketConstants.TAKE_CANDIDATE_COMMAND + "\"}";
+		assertTrue(SignallingCodec.decode(text, message));
+		assertEquals(((Long) parse(text).get(WebSocketConstants.CANDIDATE_LABEL)).longValue(), message.getCandidateLabel());
+		return message.getCandidateLabel();
+	}
+
+	private JSONObject parse(String text) {
+		try {
+			return (JSONObject) parser.parse(text);
+		} catch (ParseException e) {
+			throw new AssertionError("json-simple cannot parse " + text, e);
+		}
+	}
+}
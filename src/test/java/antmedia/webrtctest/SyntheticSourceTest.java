@@ -0,0 +1,240 @@
+package antmedia.webrtctest;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import io.antmedia.webrtc.VideoCodec;
+import io.antmedia.webrtctest.FileReader;
+import io.antmedia.webrtctest.IFrameCursor;
+import io.antmedia.webrtctest.NaluIndexer;
+import io.antmedia.webrtctest.Settings;
+import io.antmedia.webrtctest.SyntheticSource;
+import junit.framework.TestCase;
+
+/**
+ * Checks the NAL units and slice headers of the synthetic H264 frames, their sizes and the key frame cadence.
+ */
+public class SyntheticSourceTest extends TestCase
+{
+	private static final int FPS = 25;
+	private static final int GOP = 50;
+	private static final int DURATION_SECONDS = 4;
+	private static final int BITRATE_KBPS = 800;
+
+	private static final int NAL_SPS = 7;
+	private static final int NAL_PPS = 8;
+	private static final int NAL_IDR = 5;
+	private static final int NAL_NON_IDR = 1;
+	private static final int NAL_FILLER = 12;
+
+	private static final int SLICE_TYPE_P = 5;
+	private static final int SLICE_TYPE_I = 7;
+
+	public void testKeyFramesAreAtGopStart()
+	{
+		SyntheticSource source = createSource(GOP);
+
+		assertEquals(DURATION_SECONDS * FPS / GOP, source.getKeyFrameCount());
+		assertEquals(GOP * 1000 / FPS, source.getGopDurationMs());
+		assertEquals(DURATION_SECONDS * 1000L, source.getLoopDurationMs());
+
+		IFrameCursor cursor = source.openVideoCursor(0);
+		int count = 0;
+		FileReader.Frame frame;
+		while ((frame = cursor.next()) != null) {
+			assertEquals("key frame flag of frame " + count, count % GOP == 0, frame.isKeyFrame());
+			assertEquals(Math.round(count * 1000.0 / FPS), frame.getTimeStamp());
+			count++;
+		}
+		assertEquals(DURATION_SECONDS * FPS, count);
+
+		//second key frame is the start of the second GOP
+		frame = source.openVideoCursor(1).next();
+		assertTrue(frame.isKeyFrame());
+		assertEquals(GOP * 1000 / FPS, frame.getTimeStamp());
+	}
+
+	public void testKeyFrameHasParameterSetsAndIdrSlice()
+	{
+		FileReader.Frame frame = createSource(GOP).openVideoCursor(0).next();
+		ByteBuffer data = frame.getData();
+		int[] nalus = NaluIndexer.findNaluIndices(data);
+
+		assertEquals(4 * NaluIndexer.FIELDS_PER_NALU, nalus.length);
+		assertEquals(0, nalus[0]);
+		assertNalu(data, nalus, 0, NAL_SPS, 3);
+		assertNalu(data, nalus, 1, NAL_PPS, 3);
+		assertNalu(data, nalus, 2, NAL_IDR, 3);
+		assertNalu(data, nalus, 3, NAL_FILLER, 0);
+
+		//constrained baseline profile at level 3.0 for 320x180
+		int sps = nalus[1];
+		assertEquals(66, data.get(sps + 1) & 0xFF);
+		assertEquals(0xC0, data.get(sps + 2) & 0xFF);
+		assertEquals(30, data.get(sps + 3) & 0xFF);
+
+		BitReader slice = new BitReader(data, nalus[2 * NaluIndexer.FIELDS_PER_NALU + 1] + 1);
+		assertEquals(0, slice.readUE()); //first_mb_in_slice
+		assertEquals(SLICE_TYPE_I, slice.readUE());
+		assertEquals(0, slice.readUE()); //pic_parameter_set_id
+		assertEquals(0, slice.readBits(16)); //frame_num
+
+		assertFillerData(data, nalus, 3);
+	}
+
+	public void testPFramesHaveNonIdrSliceWithFrameNumber()
+	{
+		IFrameCursor cursor = createSource(GOP).openVideoCursor(0);
+		cursor.next();
+		for (int frameNum = 1; frameNum < GOP; frameNum++) {
+			ByteBuffer data = cursor.next().getData();
+			int[] nalus = NaluIndexer.findNaluIndices(data);
+
+			assertEquals(2 * NaluIndexer.FIELDS_PER_NALU, nalus.length);
+			assertNalu(data, nalus, 0, NAL_NON_IDR, 2);
+			assertNalu(data, nalus, 1, NAL_FILLER, 0);
+
+			BitReader slice = new BitReader(data, nalus[1] + 1);
+			assertEquals(0, slice.readUE());
+			assertEquals(SLICE_TYPE_P, slice.readUE());
+			assertEquals(0, slice.readUE());
+			assertEquals(frameNum, slice.readBits(16));
+
+			assertFillerData(data, nalus, 1);
+		}
+	}
+
+	public void testFrameSizesFollowBitrate()
+	{
+		IFrameCursor cursor = createSource(GOP).openVideoCursor(0);
+		long gopBytes = 0;
+		int keyFrameSize = 0;
+		int pFrameSize = 0;
+		for (int i = 0; i < GOP; i++) {
+			FileReader.Frame frame = cursor.next();
+			int size = frame.getData().limit();
+			gopBytes += size;
+			if (frame.isKeyFrame()) {
+				keyFrameSize = size;
+			}
+			else {
+				pFrameSize = size;
+			}
+		}
+		//default key frame ratio is 4
+		assertEquals(4 * pFrameSize, keyFrameSize);
+		long targetBytes = (long) BITRATE_KBPS * 1000 / 8 * GOP / FPS;
+		assertTrue(gopBytes <= targetBytes && gopBytes > targetBytes - GOP - 4);
+	}
+
+	public void testConsecutiveIdrFramesHaveDifferentIds()
+	{
+		IFrameCursor cursor = createSource(1).openVideoCursor(0);
+		long[] idrPicIds = new long[4];
+		for (int i = 0; i < idrPicIds.length; i++) {
+			FileReader.Frame frame = cursor.next();
+			assertTrue(frame.isKeyFrame());
+			ByteBuffer data = frame.getData();
+			int[] nalus = NaluIndexer.findNaluIndices(data);
+			BitReader slice = new BitReader(data, nalus[2 * NaluIndexer.FIELDS_PER_NALU + 1] + 1);
+			slice.readUE();
+			slice.readUE();
+			slice.readUE();
+			slice.readBits(16);
+			idrPicIds[i] = slice.readUE();
+		}
+		assertEquals(0, idrPicIds[0]);
+		assertEquals(1, idrPicIds[1]);
+		assertEquals(0, idrPicIds[2]);
+		assertEquals(1, idrPicIds[3]);
+	}
+
+	public void testAudioFramesCoverTheDuration()
+	{
+		IFrameCursor cursor = createSource(GOP).openAudioCursor(0);
+		int count = 0;
+		FileReader.Frame frame;
+		while ((frame = cursor.next()) != null) {
+			assertEquals(count * 20L, frame.getTimeStamp());
+			count++;
+		}
+		assertEquals(DURATION_SECONDS * 1000 / 20, count);
+	}
+
+	private static SyntheticSource createSource(int gop) {
+		Settings settings = new Settings();
+		settings.codec = VideoCodec.H264;
+		settings.streamSource = SyntheticSource.PREFIX + ":bitrate=" + BITRATE_KBPS + ",fps=" + FPS + ",gop=" + gop
+				+ ",width=320,height=180,duration=" + DURATION_SECONDS;
+		SyntheticSource source = new SyntheticSource(settings);
+		assertTrue(source.init());
+		return source;
+	}
+
+	/**
+	 * Checks the start code and the header byte of the NAL unit
+	 */
+	private static void assertNalu(ByteBuffer data, int[] nalus, int index, int type, int nalRefIdc) {
+		int start = nalus[index * NaluIndexer.FIELDS_PER_NALU];
+		int payloadStart = nalus[index * NaluIndexer.FIELDS_PER_NALU + 1];
+		assertEquals("4 byte start code of nal unit " + index, 4, payloadStart - start);
+		int header = data.get(payloadStart) & 0xFF;
+		assertEquals("forbidden bit of nal unit " + index, 0, header >> 7);
+		assertEquals("nal_ref_idc of nal unit " + index, nalRefIdc, (header >> 5) & 3);
+		assertEquals("type of nal unit " + index, type, header & 0x1F);
+	}
+
+	/**
+	 * Filler data is 0xFF bytes and the trailing bits
+	 */
+	private static void assertFillerData(ByteBuffer data, int[] nalus, int index) {
+		int payloadStart = nalus[index * NaluIndexer.FIELDS_PER_NALU + 1];
+		int payloadSize = nalus[index * NaluIndexer.FIELDS_PER_NALU + 2];
+		for (int i = 1; i < payloadSize - 1; i++) {
+			assertEquals(0xFF, data.get(payloadStart + i) & 0xFF);
+		}
+		assertEquals(0x80, data.get(payloadStart + payloadSize - 1) & 0xFF);
+		assertEquals(data.limit(), payloadStart + payloadSize);
+	}
+
+	/**
+	 * Reads the RBSP of a NAL unit without its emulation prevention bytes
+	 */
+	private static class BitReader {
+		private final byte[] rbsp;
+		private int bitPosition = 0;
+
+		BitReader(ByteBuffer data, int offset) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int zeros = 0;
+			for (int i = offset; i < data.limit(); i++) {
+				int b = data.get(i) & 0xFF;
+				if (zeros == 2 && b == 3) {
+					zeros = 0;
+					continue;
+				}
+				out.write(b);
+				zeros = b == 0 ? zeros + 1 : 0;
+			}
+			rbsp = out.toByteArray();
+		}
+
+		long readBits(int count) {
+			long value = 0;
+			for (int i = 0; i < count; i++) {
+				int bit = (rbsp[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 1;
+				value = (value << 1) | bit;
+				bitPosition++;
+			}
+			return value;
+		}
+
+		long readUE() {
+			int leadingZeros = 0;
+			while (readBits(1) == 0) {
+				leadingZeros++;
+			}
+			return (1L << leadingZeros) - 1 + readBits(leadingZeros);
+		}
+	}
+}